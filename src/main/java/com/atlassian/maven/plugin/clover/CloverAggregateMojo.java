@@ -63,10 +63,11 @@ public class CloverAggregateMojo extends AbstractCloverMojo {
             getLog().debug("Project " + getProject().getId() + " (" + getProject().getBasedir()
                     + ") has " + getProject().getModules().size() + " child modules");
 
-            // Ensure all databases are flushed
-            AbstractCloverMojo.waitForFlush(getWaitForFlush(), getFlushInterval());
-
             final List<String> childrenDatabases = getChildrenCloverDatabases();
+
+            // Ensure all databases are flushed
+            AbstractCloverMojo.waitForFlush(getWaitForFlush(), getFlushInterval(), childrenDatabases,
+                    getBuildStartTime(), getLog());
             if (childrenDatabases.size() > 0) {
                 // Ensure the merged database output directory exists
                 new File(getCloverMergeDatabase()).getParentFile().mkdirs();
@@ -31,6 +31,7 @@ import org.apache.tools.ant.Project;
 import org.apache.tools.ant.types.FileSet;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -149,7 +150,8 @@ public class CloverCheckMojo extends AbstractCloverMojo
             {
                 super.execute();
 
-                AbstractCloverMojo.waitForFlush( getWaitForFlush(), getFlushInterval() );
+                AbstractCloverMojo.waitForFlush( getWaitForFlush(), getFlushInterval(),
+                        Arrays.asList(resolveCloverDatabase(), getCloverMergeDatabase()), getBuildStartTime(), getLog() );
 
                 check();
             }
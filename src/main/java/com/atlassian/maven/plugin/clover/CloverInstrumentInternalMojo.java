@@ -24,10 +24,14 @@ import com.atlassian.clover.cfg.instr.InstrumentationConfig;
 import com.atlassian.clover.remote.DistributedConfig;
 import com.atlassian.maven.plugin.clover.internal.AbstractCloverInstrumentMojo;
 import com.atlassian.maven.plugin.clover.internal.CompilerConfiguration;
+import com.atlassian.maven.plugin.clover.internal.SessionCache;
+import com.atlassian.maven.plugin.clover.internal.instrumentation.InstrumentationFingerprint;
 import com.atlassian.maven.plugin.clover.internal.instrumentation.MainInstrumenter;
 import com.atlassian.maven.plugin.clover.internal.instrumentation.TestInstrumenter;
 import com.atlassian.maven.plugin.clover.internal.scanner.LanguageFileExtensionFilter;
 import com.atlassian.maven.plugin.clover.internal.scanner.MainSourceScanner;
+import com.atlassian.maven.plugin.clover.internal.scanner.SourceTreeIndex;
+import com.atlassian.maven.plugin.clover.internal.scanner.WatchingSourceTreeIndex;
 import com.atlassian.maven.plugin.clover.internal.scanner.TestSourceScanner;
 import com.google.common.annotations.VisibleForTesting;
 import org.apache.maven.artifact.Artifact;
@@ -36,6 +40,7 @@ import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -221,6 +226,12 @@ public class CloverInstrumentInternalMojo extends AbstractCloverInstrumentMojo {
     @VisibleForTesting
     MavenSession mavenSession;
 
+    /**
+     * Descriptor of this plugin, used to share results of artifact resolution between modules.
+     */
+    @Parameter(defaultValue = "${plugin}", readonly = true)
+    private PluginDescriptor pluginDescriptor;
+
     @Component
     @VisibleForTesting
     ArtifactResolver artifactResolver;
@@ -239,6 +250,12 @@ public class CloverInstrumentInternalMojo extends AbstractCloverInstrumentMojo {
     private static Map<String, String> originalSrcMap = new HashMap<String, String>();
     private static Map<String, String> originalSrcTestMap = new HashMap<String, String>();
 
+    /**
+     * Index of source roots shared by all source scanners during this execution, so that every source root
+     * is walked only once.
+     */
+    private SourceTreeIndex sourceTreeIndex = new SourceTreeIndex();
+
     public static String getOriginalSrcDir(final String module) {
         return originalSrcMap.get(module);
     }
@@ -272,13 +289,27 @@ public class CloverInstrumentInternalMojo extends AbstractCloverInstrumentMojo {
         logArtifacts("before changes");
 
         // Instrument both the main sources and the test sources if the user has configured it
-        final MainInstrumenter mainInstrumenter = new MainInstrumenter(this, cloverOutputSourceDirectory);
-        final TestInstrumenter testInstrumenter = new TestInstrumenter(this, cloverOutputTestSourceDirectory);
+        sourceTreeIndex = createSourceTreeIndex();
+        final MainInstrumenter mainInstrumenter = new MainInstrumenter(this, cloverOutputSourceDirectory, sourceTreeIndex);
+        final TestInstrumenter testInstrumenter = new TestInstrumenter(this, cloverOutputTestSourceDirectory, sourceTreeIndex);
 
         if (isJavaProject()) {
-            mainInstrumenter.instrument();
-            if (this.includesTestSourceRoots) {
-                testInstrumenter.instrument();
+            final InstrumentationFingerprint fingerprint = skipUnchangedInstrumentation
+                    ? createFingerprint(mainInstrumenter, testInstrumenter)
+                    : null;
+            if (fingerprint != null && isUpToDate(fingerprint)) {
+                getLog().info("Clover instrumentation is up to date, sources and configuration have not changed");
+            } else {
+                if (fingerprint != null) {
+                    fingerprint.invalidate();
+                }
+                mainInstrumenter.instrument();
+                if (this.includesTestSourceRoots) {
+                    testInstrumenter.instrument();
+                }
+                if (fingerprint != null) {
+                    saveFingerprint(fingerprint);
+                }
             }
         }
 
@@ -316,6 +347,55 @@ public class CloverInstrumentInternalMojo extends AbstractCloverInstrumentMojo {
         return true;
     }
 
+    /**
+     * Returns an index shared by builds in this JVM if <code>watchSourceRoots</code> is enabled and supported,
+     * or a new index for this execution otherwise.
+     */
+    private SourceTreeIndex createSourceTreeIndex() {
+        if (watchSourceRoots) {
+            final SourceTreeIndex watchingIndex = WatchingSourceTreeIndex.getInstance();
+            if (watchingIndex != null) {
+                return watchingIndex;
+            }
+            getLog().info("File watching is not supported on this file system, source roots will be scanned");
+        }
+        return new SourceTreeIndex();
+    }
+
+    /**
+     * Creates a fingerprint of sources and configuration of main and test instrumentation. Must be called before
+     * source directories are redirected.
+     */
+    private InstrumentationFingerprint createFingerprint(final MainInstrumenter mainInstrumenter,
+                                                         final TestInstrumenter testInstrumenter) throws MojoExecutionException {
+        final InstrumentationFingerprint fingerprint = new InstrumentationFingerprint(
+                new File(cloverOutputDirectory, "instrumentation.fingerprint"), sourceTreeIndex);
+        fingerprint.putString("includesTestSourceRoots", String.valueOf(includesTestSourceRoots));
+        mainInstrumenter.addToFingerprint(fingerprint);
+        if (includesTestSourceRoots) {
+            testInstrumenter.addToFingerprint(fingerprint);
+        }
+        fingerprint.addOutput(new File(resolveCloverDatabase()));
+        return fingerprint;
+    }
+
+    private boolean isUpToDate(final InstrumentationFingerprint fingerprint) {
+        try {
+            return fingerprint.isUpToDate();
+        } catch (IOException ex) {
+            getLog().debug("Failed to read Clover instrumentation fingerprint, instrumenting sources", ex);
+            return false;
+        }
+    }
+
+    private void saveFingerprint(final InstrumentationFingerprint fingerprint) {
+        try {
+            fingerprint.save();
+        } catch (IOException ex) {
+            getLog().warn("Failed to write Clover instrumentation fingerprint: " + ex.getMessage());
+        }
+    }
+
     /**
      * Sets several properties related with test failures for Surefire, Failsafe, PMD and Checkstyle plugins.
      * Thanks to this, the build in default or forked lifecycle can continue and we can generate Clover report
@@ -384,10 +464,10 @@ public class CloverInstrumentInternalMojo extends AbstractCloverInstrumentMojo {
      * @see <a href="http://groovy.codehaus.org/Groovy-Eclipse+compiler+plugin+for+Maven">Groovy-Eclipse+compiler+plugin+for+Maven</a>
      */
     protected List<File> calcIncludedFilesForGroovy() {
-        final MainSourceScanner groovyMainScanner = new MainSourceScanner(this, getProject().getBuild().getOutputDirectory());
+        final MainSourceScanner groovyMainScanner = new MainSourceScanner(this, getProject().getBuild().getOutputDirectory(), sourceTreeIndex);
         final List<File> mainGroovyFiles = extractIncludes(
                 groovyMainScanner.getSourceFilesToInstrument(LanguageFileExtensionFilter.GROOVY_LANGUAGE, false));
-        final TestSourceScanner groovyTestScanner = new TestSourceScanner(this, getProject().getBuild().getOutputDirectory());
+        final TestSourceScanner groovyTestScanner = new TestSourceScanner(this, getProject().getBuild().getOutputDirectory(), sourceTreeIndex);
         final List<File> testGroovyFiles = extractIncludes(
                 groovyTestScanner.getSourceFilesToInstrument(LanguageFileExtensionFilter.GROOVY_LANGUAGE, false));
 
@@ -523,22 +603,39 @@ public class CloverInstrumentInternalMojo extends AbstractCloverInstrumentMojo {
 
         Artifact resolvedCloveredArtifact;
 
-        // Try to resolve the artifact with a clover classifier. If it doesn't exist, simply add the original
-        // artifact. If found, use the clovered artifact.
-        try {
-            // copy object to avoid modification of session's settings, resolve artifact but only locally,
-            // so let's clear remote repositories
-            final ProjectBuildingRequest projectBuildingRequest =
-                    new DefaultProjectBuildingRequest(mavenSession.getProjectBuildingRequest());
-            projectBuildingRequest.setRemoteRepositories(null);
-
-            final ArtifactResult resolveResult = artifactResolver.resolveArtifact(projectBuildingRequest, cloveredArtifact);
-            resolvedCloveredArtifact = resolveResult.getArtifact();
-            resolvedCloveredArtifact.setScope(artifact.getScope()); // it's null, set the same scope as the main artifact
-
-        } catch (ArtifactResolverException e) {
-            getLog().debug("Skipped dependency [" + cloveredArtifact.getId() + "] as it is unresolved", e);
+        // The same dependency is usually swizzled in many modules of a reactor, so outcome of the resolution is
+        // cached for the whole build, as long as the original artifact does not change
+        final SessionCache cache = getReactorSessionCache();
+        final String cacheKey = "cloveredArtifact:" + artifact.getId() + ":" + artifact.getType();
+        final String cacheStamp = SessionCache.fileStamp(artifact.getFile());
+        final File cachedFile = (File) cache.get(cacheKey, cacheStamp);
+        if (cachedFile != null && cachedFile.isFile()) {
+            cloveredArtifact.setFile(cachedFile);
+            cloveredArtifact.setResolved(true);
+            resolvedCloveredArtifact = cloveredArtifact;
+        } else if (cachedFile == null && cache.contains(cacheKey, cacheStamp)) {
+            getLog().debug("Skipped dependency [" + cloveredArtifact.getId() + "] as it is unresolved");
             return artifact;
+        } else {
+            // Try to resolve the artifact with a clover classifier. If it doesn't exist, simply add the original
+            // artifact. If found, use the clovered artifact.
+            try {
+                // copy object to avoid modification of session's settings, resolve artifact but only locally,
+                // so let's clear remote repositories
+                final ProjectBuildingRequest projectBuildingRequest =
+                        new DefaultProjectBuildingRequest(mavenSession.getProjectBuildingRequest());
+                projectBuildingRequest.setRemoteRepositories(null);
+
+                final ArtifactResult resolveResult = artifactResolver.resolveArtifact(projectBuildingRequest, cloveredArtifact);
+                resolvedCloveredArtifact = resolveResult.getArtifact();
+                resolvedCloveredArtifact.setScope(artifact.getScope()); // it's null, set the same scope as the main artifact
+                cache.put(cacheKey, cacheStamp, resolvedCloveredArtifact.getFile());
+
+            } catch (ArtifactResolverException e) {
+                cache.put(cacheKey, cacheStamp, null);
+                getLog().debug("Skipped dependency [" + cloveredArtifact.getId() + "] as it is unresolved", e);
+                return artifact;
+            }
         }
 
         // Check the timestamp of the artifact. If the found clovered version is older than the
@@ -564,6 +661,19 @@ public class CloverInstrumentInternalMojo extends AbstractCloverInstrumentMojo {
     }
 
 
+    /**
+     * Returns a cache shared by all modules of the build. It's kept in the plugin context of the top level project,
+     * as Maven keeps plugin contexts per project.
+     *
+     * @return SessionCache cache for the whole reactor
+     */
+    private SessionCache getReactorSessionCache() {
+        if (mavenSession == null || pluginDescriptor == null || mavenSession.getTopLevelProject() == null) {
+            return getSessionCache();
+        }
+        return SessionCache.getInstance(mavenSession.getPluginContext(pluginDescriptor, mavenSession.getTopLevelProject()));
+    }
+
     protected Artifact findCloverArtifact(final List<Artifact> pluginArtifacts) {
         Artifact cloverArtifact = null;
         Iterator<Artifact> artifactsIterator = pluginArtifacts.iterator();
@@ -591,8 +701,19 @@ public class CloverInstrumentInternalMojo extends AbstractCloverInstrumentMojo {
         cloverArtifact = repositorySystem.createArtifact(cloverArtifact.getGroupId(), cloverArtifact.getArtifactId(),
                 cloverArtifact.getVersion(), jarScope, cloverArtifact.getType());
 
+        final SessionCache cache = getReactorSessionCache();
+        final String cacheKey = "cloverArtifact:" + cloverArtifact.getId();
+        final File cachedFile = (File) cache.get(cacheKey, "");
+        if (cachedFile != null && cachedFile.isFile()) {
+            cloverArtifact.setFile(cachedFile);
+            cloverArtifact.setResolved(true);
+            addArtifactDependency(cloverArtifact);
+            return;
+        }
+
         try {
-            artifactResolver.resolveArtifact(mavenSession.getProjectBuildingRequest(), cloverArtifact);
+            final ArtifactResult result = artifactResolver.resolveArtifact(mavenSession.getProjectBuildingRequest(), cloverArtifact);
+            cache.put(cacheKey, "", result.getArtifact().getFile());
             addArtifactDependency(cloverArtifact);
         } catch (ArtifactResolverException ex) {
             throw new MojoExecutionException("Could not resolve the clover artifact ( " +
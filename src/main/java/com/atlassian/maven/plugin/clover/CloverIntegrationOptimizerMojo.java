@@ -2,19 +2,178 @@ package com.atlassian.maven.plugin.clover;
 
 import org.apache.maven.model.Plugin;
 import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.tools.ant.Project;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Sets the 'test' property on the project which is used by the maven-surefire-plugin to determine which tests are run.
+ * Optimizes integration tests.
+ *
+ * If the maven-failsafe-plugin is configured, a separate optimized set of tests is computed for every its execution
+ * running the <code>integration-test</code> goal, using includes and excludes of that execution. By default (see
+ * <code>optimizedTestsOutput</code>), every set is passed as a comma-separated list in the
+ * <code>clover.optimize.failsafe.&lt;execution id&gt;.test</code> project property, which is meant to be passed to
+ * the <code>&lt;test&gt;</code> parameter of the execution. Failsafe then runs exactly these tests, ignoring includes
+ * and excludes of the execution. Define the property with an empty value in the POM, so that the execution runs all
+ * its tests when the optimization is not done. If there is only one such execution, the <code>it.test</code>
+ * property is set as well, so no change of the POM is needed.
+ *
+ * In the <code>includesFile</code> mode, every set is written into the
+ * <code>optimized-tests-&lt;execution id&gt;.txt</code> file in the <code>cloverOutputDirectory</code> and the
+ * <code>clover.optimize.failsafe.&lt;execution id&gt;.includesFile</code> project property points to it (and
+ * <code>failsafe.includesFile</code> if there is only one execution). As Failsafe adds configured includes to lines
+ * of this file, this mode fails if any of the executions or the plugin configures <code>&lt;includes&gt;</code>.
+ *
+ * The <code>test</code> property and the selection of unit tests made by the <code>optimize</code> goal are not
+ * modified. If none of the executions has any test to run in the reactor mode (see <code>reactorImpact</code>), the
+ * <code>skipITs</code> property is set instead.
+ *
+ * Otherwise, sets the 'test' property on the project which is used by the maven-surefire-plugin to determine which
+ * tests are run, using the configuration of the surefire execution bound to the <code>integration-test</code> phase.
  * If a snapshot file from a previous build, is found, that will be used to determine what tests should be run.
  */
 @Mojo(name = "optimizeIntegration", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST)
 public class CloverIntegrationOptimizerMojo extends CloverOptimizerMojo {
 
+    static final String FAILSAFE_PLUGIN_KEY = "org.apache.maven.plugins:maven-failsafe-plugin";
+
+    static final String INTEGRATION_TEST_GOAL = "integration-test";
+
+    static final String EXECUTION_PROPERTY_PREFIX = "clover.optimize.failsafe.";
+
+    /**
+     * Property of the <code>test</code> parameter of maven-failsafe-plugin
+     */
+    static final String FAILSAFE_TEST_PROPERTY = "it.test";
+
+    private static final List<String> FAILSAFE_DEFAULT_INCLUDES = Arrays.asList("**/IT*.java", "**/*IT.java", "**/*ITCase.java");
+
+    public void execute() throws MojoExecutionException {
+        final Plugin failsafePlugin = lookupBuildPlugin(FAILSAFE_PLUGIN_KEY);
+        final List<PluginExecution> executions = failsafePlugin == null
+                ? new ArrayList<PluginExecution>()
+                : findIntegrationTestExecutions(failsafePlugin);
+        if (executions.isEmpty()) {
+            getLog().debug("No executions of the " + INTEGRATION_TEST_GOAL + " goal of maven-failsafe-plugin found."
+                    + " Falling back to Surefire configuration.");
+            super.execute();
+            return;
+        }
+
+        if (!isOptimizationApplicable()) {
+            return;
+        }
+
+        final boolean includesFileOutput = isIncludesFileOutput();
+        if (includesFileOutput) {
+            for (final PluginExecution execution : executions) {
+                if (extractNestedStrings("includes", execution, failsafePlugin) != null) {
+                    throw new MojoExecutionException("The " + OUTPUT_INCLUDES_FILE + " mode of optimizedTestsOutput"
+                            + " cannot be used when <includes> are configured for the '" + execution.getId()
+                            + "' execution of maven-failsafe-plugin, because Failsafe adds them to the optimized"
+                            + " tests. Use the " + OUTPUT_PROPERTY + " mode and pass the ${" + EXECUTION_PROPERTY_PREFIX
+                            + execution.getId() + ".test} property to the <test> parameter of the execution instead.");
+                }
+            }
+        }
+
+        if (!isModuleImpacted()) {
+            skipTestExecution(SKIP_FAILSAFE_PROPERTY);
+            return;
+        }
+
+        final Project antProj = createAntProject();
+        final Map<PluginExecution, List<String>> testsByExecution = new LinkedHashMap<PluginExecution, List<String>>();
+        boolean anyTests = false;
+        for (final PluginExecution execution : executions) {
+            List<String> includes = getOptimizeIncludes();
+            List<String> excludes = getOptimizeExcludes();
+            if (includes == null && excludes == null) {
+                includes = extractNestedStrings("includes", execution, failsafePlugin);
+                excludes = extractNestedStrings("excludes", execution, failsafePlugin);
+                if (includes == null) {
+                    includes = FAILSAFE_DEFAULT_INCLUDES;
+                }
+            }
+
+            getLog().debug("Optimizing tests of the '" + execution.getId() + "' execution of maven-failsafe-plugin");
+            final List<String> testNames = selectTests(antProj, configureOptimisedTestSet(antProj, includes, excludes));
+            testsByExecution.put(execution, testNames);
+            anyTests |= !testNames.isEmpty();
+        }
+        if (!anyTests && isReactorSelection()) {
+            skipTestExecution(SKIP_FAILSAFE_PROPERTY);
+            return;
+        }
+
+        for (final PluginExecution execution : executions) {
+            final List<String> testNames = testsByExecution.get(execution);
+            if (includesFileOutput) {
+                final File includesFile = writeIncludesFile("optimized-tests-" + execution.getId() + ".txt", testNames);
+                final String property = EXECUTION_PROPERTY_PREFIX + execution.getId() + ".includesFile";
+                getProject().getProperties().put(property, includesFile.getAbsolutePath());
+                getLog().info("Optimized tests of the '" + execution.getId() + "' execution are listed in the ${"
+                        + property + "} file");
+                if (executions.size() == 1) {
+                    getProject().getProperties().put("failsafe.includesFile", includesFile.getAbsolutePath());
+                }
+            } else {
+                final String property = EXECUTION_PROPERTY_PREFIX + execution.getId() + ".test";
+                setTestProperty(property, testNames);
+                getLog().info("Optimized tests of the '" + execution.getId() + "' execution are listed in the ${"
+                        + property + "} property");
+                if (executions.size() == 1) {
+                    setTestProperty(FAILSAFE_TEST_PROPERTY, testNames);
+                }
+            }
+        }
+
+        //Always set this to true because we can't be sure if the filtered list we have will result in no tests being run
+        getProject().getProperties().put("failIfNoTests", "false");
+    }
+
+    /**
+     * Returns executions of the plugin which run the <code>integration-test</code> goal.
+     *
+     * @param failsafePlugin maven-failsafe-plugin
+     * @return List&lt;PluginExecution&gt; executions, in the order of declaration
+     */
+    static List<PluginExecution> findIntegrationTestExecutions(final Plugin failsafePlugin) {
+        final List<PluginExecution> executions = new ArrayList<PluginExecution>();
+        for (final PluginExecution execution : failsafePlugin.getExecutions()) {
+            if (execution.getGoals() != null && execution.getGoals().contains(INTEGRATION_TEST_GOAL)) {
+                executions.add(execution);
+            }
+        }
+        return executions;
+    }
+
+    /**
+     * Reads nested strings from the configuration of the <code>execution</code>, falling back to the global
+     * configuration of the <code>plugin</code>.
+     *
+     * @return List&lt;String&gt; values or <code>null</code> if not configured
+     */
+    static List<String> extractNestedStrings(final String elementName, final PluginExecution execution,
+                                             final Plugin plugin) {
+        final Xpp3Dom executionConfig = (Xpp3Dom) execution.getConfiguration();
+        final List<String> value = executionConfig == null ? null : extractNestedStrings(elementName, executionConfig);
+        if (value != null) {
+            return value;
+        }
+        final Xpp3Dom pluginConfig = (Xpp3Dom) plugin.getConfiguration();
+        return pluginConfig == null ? null : extractNestedStrings(elementName, pluginConfig);
+    }
+
     protected List<String> extractNestedStrings(final String elementName, final Plugin surefirePlugin) {
         List<String> value = null;
 
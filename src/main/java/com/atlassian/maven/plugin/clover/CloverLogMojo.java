@@ -30,6 +30,7 @@ import org.apache.tools.ant.Project;
 import org.apache.tools.ant.types.FileSet;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -55,7 +56,8 @@ public class CloverLogMojo extends AbstractCloverMojo {
         if (areCloverDatabasesAvailable()) {
             super.execute();
 
-            AbstractCloverMojo.waitForFlush(getWaitForFlush(), getFlushInterval());
+            AbstractCloverMojo.waitForFlush(getWaitForFlush(), getFlushInterval(),
+                    Arrays.asList(resolveCloverDatabase(), getCloverMergeDatabase()), getBuildStartTime(), getLog());
 
             log();
         } else {
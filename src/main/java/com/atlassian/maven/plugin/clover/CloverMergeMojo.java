@@ -28,6 +28,8 @@ import com.atlassian.maven.plugin.clover.internal.AbstractCloverMojo;
 
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.atlassian.clover.cfg.Interval;
 import com.atlassian.clover.ant.tasks.CloverMergeTask;
@@ -67,8 +69,6 @@ public class CloverMergeMojo extends AbstractCloverMojo
     public void execute() throws MojoExecutionException
     {
 
-        // Ensure all databases are flushed
-        AbstractCloverMojo.waitForFlush(getWaitForFlush(), getFlushInterval());
         mergeCloverDatabases();
 
     }
@@ -93,6 +93,13 @@ public class CloverMergeMojo extends AbstractCloverMojo
 
             merge.addCloverDbSet(dbSet);
 
+            // Ensure all databases are flushed
+            final List<String> databases = new ArrayList<String>();
+            for (final String database : dbSet.getDirectoryScanner().getIncludedFiles()) {
+                databases.add(new File(baseDir, database).getPath());
+            }
+            AbstractCloverMojo.waitForFlush(getWaitForFlush(), getFlushInterval(), databases, getBuildStartTime(), getLog());
+
             merge.execute();
         } catch (BuildException e) {
             throw new MojoExecutionException(e.getMessage(), e);
@@ -2,13 +2,32 @@ package com.atlassian.maven.plugin.clover;
 
 import com.atlassian.maven.plugin.clover.internal.AbstractCloverMojo;
 import com.atlassian.maven.plugin.clover.internal.ConfigUtil;
+import com.atlassian.maven.plugin.clover.internal.SessionCache;
+import com.atlassian.maven.plugin.clover.internal.optimization.GitChangeSource;
+import com.atlassian.maven.plugin.clover.internal.optimization.ReactorTestImpact;
+import com.atlassian.maven.plugin.clover.internal.optimization.SnapshotIndex;
+import com.atlassian.maven.plugin.clover.internal.optimization.TestCoverage;
+import com.atlassian.maven.plugin.clover.internal.optimization.TestDurations;
+import com.atlassian.maven.plugin.clover.internal.optimization.TestSharding;
+import com.atlassian.maven.plugin.clover.internal.optimization.TimeBudgetSelector;
+import com.atlassian.maven.plugin.clover.internal.scanner.PathPatternMatcher;
 import com.atlassian.clover.CloverNames;
 import com.atlassian.clover.ant.types.CloverOptimizedTestSet;
 import com.atlassian.clover.ant.types.CloverAlwaysRunTestSet;
-import com.atlassian.clover.util.FileUtils;
+import com.atlassian.clover.api.CloverException;
+import com.atlassian.clover.api.registry.FileInfo;
+import com.atlassian.clover.registry.Clover2Registry;
+import com.atlassian.clover.registry.entities.FullFileInfo;
+import com.atlassian.clover.registry.entities.FullProjectInfo;
+import com.atlassian.clover.registry.metrics.HasMetricsFilter;
+import com.atlassian.clover.util.IOStreamUtils;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
 import com.google.common.collect.Iterables;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Plugin;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
@@ -18,11 +37,28 @@ import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Resource;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Sets the 'test' property on the project which is used by the maven-surefire-plugin to determine which tests are run.
@@ -93,18 +129,247 @@ public class CloverOptimizerMojo extends AbstractCloverMojo {
     @Parameter(property = "maven.clover.optimize.minimize", defaultValue = "true")
     private boolean minimize;
 
+    /**
+     * <p>How the optimized set of tests is passed to the maven-surefire-plugin. Valid values are:</p>
+     * <ul>
+     * <li>property - (default) test names are joined into a comma-separated <code>test</code> project property</li>
+     * <li>includesFile - test names are written to the <code>optimized-tests.txt</code> file in the
+     * <code>cloverOutputDirectory</code>, one per line, and the <code>surefire.includesFile</code> property points
+     * to it (requires Surefire 2.13 or later). Every line is
+     * an exact path of a test class without wildcards, so large test sets do not have to be passed and parsed as one
+     * huge pattern. Surefire adds <code>includes</code> configured in the POM to lines from this file, so the goal
+     * fails if the plugin configures them; use <code>optimizeIncludes</code> to restrict the tests instead.</li>
+     * </ul>
+     * <p>In the <code>optimizeIntegration</code> goal, the <code>property</code> mode sets a separate property for
+     * every execution of maven-failsafe-plugin, see {@link CloverIntegrationOptimizerMojo}.</p>
+     *
+     * @since 4.4.2
+     */
+    @Parameter(property = "maven.clover.optimize.output", defaultValue = OUTPUT_PROPERTY)
+    private String optimizedTestsOutput = OUTPUT_PROPERTY;
+
+    /**
+     * <p>Number of shards into which the optimized set of tests is split. Every shard gets a similar share of the
+     * total test time, based on durations of test classes recorded in the Clover snapshot and in the
+     * <code>testReportsDirectory</code>. Tests without history are assumed to take a median time. Only tests of
+     * the shard selected by <code>shardIndex</code> are run, so that each CI node can run one shard.</p>
+     * <p>Default is 1, i.e. no sharding.</p>
+     *
+     * @since 4.4.2
+     */
+    @Parameter(property = "maven.clover.optimize.shardCount", defaultValue = "1")
+    private int shardCount = 1;
+
+    /**
+     * <p>Index of the shard to be run, from 0 to <code>shardCount</code>-1.</p>
+     *
+     * @since 4.4.2
+     */
+    @Parameter(property = "maven.clover.optimize.shardIndex", defaultValue = "0")
+    private int shardIndex;
+
+    /**
+     * <p>Directory with XML test reports (TEST-*.xml) of a previous build, used as a source of test durations
+     * for tests which are not recorded in the Clover snapshot.</p>
+     *
+     * @since 4.4.2
+     */
+    @Parameter(property = "maven.clover.optimize.testReportsDirectory",
+            defaultValue = "${project.build.directory}/surefire-reports")
+    private File testReportsDirectory;
+
+    /**
+     * <p>Maximum total time of tests to be run, in seconds. If the optimized set of tests is expected to take longer
+     * (based on durations of test classes recorded in the Clover snapshot and in the
+     * <code>testReportsDirectory</code>), a subset covering as many source files modified since the snapshot as
+     * possible is selected: tests are ranked by the number of not yet covered modified files per second of their
+     * duration. Tests from <code>alwaysRunTests</code> are always selected. When combined with
+     * <code>shardCount</code>, the budget applies to all shards together.</p>
+     * <p>Default is 0, i.e. no limit.</p>
+     *
+     * @since 4.4.2
+     */
+    @Parameter(property = "maven.clover.optimize.timeBudget", defaultValue = "0")
+    private long timeBudget;
+
+    /**
+     * <p>How source files modified since the Clover snapshot was taken are detected. Valid values are:</p>
+     * <ul>
+     * <li>snapshot - (default) Clover compares checksums of source files recorded in the snapshot with the
+     * current Clover database</li>
+     * <li>git - files changed in the Git working copy of the project since the <code>gitBaseRef</code> are taken
+     * (committed changes since the merge base, local modifications and untracked files), so the result does not
+     * depend on the state of the workspace. A test is run if it covered any of changed files in the build which
+     * produced the snapshot, if its own source file has changed, if it failed or if it's not present in
+     * the snapshot at all. Requires the <code>git</code> executable.</li>
+     * </ul>
+     *
+     * @since 4.4.2
+     */
+    @Parameter(property = "maven.clover.optimize.changeDetection", defaultValue = CHANGES_FROM_SNAPSHOT)
+    private String changeDetection = CHANGES_FROM_SNAPSHOT;
+
+    /**
+     * <p>Git revision to which changes are compared if <code>changeDetection</code> is 'git', e.g. a target branch
+     * of a pull request or a commit from which the snapshot was built. Default is HEAD, i.e. only local changes
+     * are taken.</p>
+     *
+     * @since 4.4.2
+     */
+    @Parameter(property = "maven.clover.optimize.gitBaseRef", defaultValue = "HEAD")
+    private String gitBaseRef = "HEAD";
+
+    /**
+     * <p>Granularity of the optimized set of tests. Valid values are:</p>
+     * <ul>
+     * <li>class - (default) whole test classes are run</li>
+     * <li>method - only test methods which covered modified source files in the build which produced the snapshot
+     * are run, passed as <code>path/to/FooTest.java#testA+testB</code> filters (requires Surefire 2.19 or later and
+     * a JUnit 4.7+ or TestNG provider). The whole class is still run if it is not present in the snapshot, if it
+     * failed, if its own source file has changed, if it's listed in <code>alwaysRunTests</code> or if none of its
+     * methods is known to be affected. Has no effect if <code>minimize</code> is false.</li>
+     * </ul>
+     *
+     * @since 4.4.2
+     */
+    @Parameter(property = "maven.clover.optimize.granularity", defaultValue = GRANULARITY_CLASS)
+    private String testGranularity = GRANULARITY_CLASS;
+
+    /**
+     * <p>If set to true and <code>singleCloverDatabase</code> is used, the impact of changes is computed once for
+     * the whole reactor: the module dependency graph is built and tests affected by changes in any module are found
+     * in one pass over the snapshot, then every module only picks its own tests from the result. Modules in which
+     * neither the module itself nor any reactor module it depends on has changed do not look for tests at all.</p>
+     *
+     * <p>If there is nothing to run in a module, the test execution is skipped instead of running an empty selection:
+     * the <code>maven.test.skip.exec</code> property is set for the maven-surefire-plugin and
+     * the <code>skipITs</code> property for the maven-failsafe-plugin.</p>
+     *
+     * @since 4.4.2
+     */
+    @Parameter(property = "maven.clover.optimize.reactor", defaultValue = "false")
+    private boolean reactorImpact;
+
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession mavenSession;
+
+    /**
+     * Descriptor of this plugin, used to share the impact of changes between modules.
+     */
+    @Parameter(defaultValue = "${plugin}", readonly = true)
+    private PluginDescriptor pluginDescriptor;
+
+    static final String CHANGES_FROM_SNAPSHOT = "snapshot";
+
+    static final String CHANGES_FROM_GIT = "git";
+
+    static final String GRANULARITY_CLASS = "class";
+
+    static final String GRANULARITY_METHOD = "method";
+
+    static final String SKIP_SUREFIRE_PROPERTY = "maven.test.skip.exec";
+
+    static final String SKIP_FAILSAFE_PROPERTY = "skipITs";
+
+    static final String OUTPUT_PROPERTY = "property";
+
+    static final String OUTPUT_INCLUDES_FILE = "includesFile";
+
+    /**
+     * Test name which does not match any test, used when no test shall be run.
+     */
+    private static final String PLACEHOLDER_TEST = "clover/optimized/test/PlaceHolder.java";
+
+    /**
+     * Names of tests selected by <code>alwaysRunTests</code>, filled by {@link #configureOptimisedTestSet(Project)}
+     */
+    private final Set<String> alwaysRunTestNames = new HashSet<String>();
+
+    /** Index of the snapshot opened on first use, see {@link #getSnapshot()} */
+    private SnapshotIndex loadedSnapshot;
+
+    private boolean snapshotLoaded;
+
+    /** Coverage of modified files by tests, see {@link #getTestCoverage()} */
+    private TestCoverage testCoverage;
+
+    /** Impact of changes on the reactor, see {@link #getReactorTestImpact()} */
+    private ReactorTestImpact reactorTestImpact;
+
+    private boolean reactorTestImpactLoaded;
+
+    private static final String REACTOR_IMPACT_CACHE_KEY = "reactorTestImpact";
+
     /**
      * The default test patterns to include.
      */
     private static final List<String> DEFAULT_INCLUDES = Arrays.asList("**/Test*.java", "**/*Test.java", "**/*TestCase.java");
 
-    private static final String REGEX_START = "%regex[";
-    private static final String REGEX_END = "]";
-
     public void execute() throws MojoExecutionException {
+        if (!isOptimizationApplicable()) {
+            return;
+        }
+
+        final boolean includesFileOutput = isIncludesFileOutput();
+        if (includesFileOutput) {
+            final Plugin surefirePlugin = lookupSurefirePlugin();
+            if (surefirePlugin != null && extractNestedStrings("includes", surefirePlugin) != null) {
+                throw new MojoExecutionException("The " + OUTPUT_INCLUDES_FILE + " mode of optimizedTestsOutput cannot"
+                        + " be used when <includes> are configured for maven-surefire-plugin, because Surefire adds"
+                        + " them to the optimized tests. Remove them or use optimizeIncludes instead.");
+            }
+        }
+
+        if (!isModuleImpacted()) {
+            skipTestExecution(SKIP_SUREFIRE_PROPERTY);
+            return;
+        }
+
+        final Project antProj = createAntProject();
+        final List<String> testNames = selectTests(antProj, configureOptimisedTestSet(antProj));
+        if (testNames.isEmpty() && isReactorSelection()) {
+            skipTestExecution(SKIP_SUREFIRE_PROPERTY);
+            return;
+        }
+
+        //Always set this to true because we can't be sure if the filtered list we have will result in no tests being run
+        //because we matched classes under src/test/ which aren't unit tests
+        getProject().getProperties().put("failIfNoTests", "false");
+        if (includesFileOutput) {
+            final File includesFile = writeIncludesFile("optimized-tests.txt", testNames);
+            getProject().getProperties().put("surefire.includesFile", includesFile.getAbsolutePath());
+        } else {
+            setTestProperty("test", testNames);
+        }
+    }
+
+    /**
+     * Returns true if optimized tests are passed in a file and false if they are passed in a property.
+     *
+     * @return boolean
+     * @throws MojoExecutionException if <code>optimizedTestsOutput</code> is invalid
+     */
+    protected boolean isIncludesFileOutput() throws MojoExecutionException {
+        if (OUTPUT_INCLUDES_FILE.equalsIgnoreCase(optimizedTestsOutput)) {
+            return true;
+        } else if (OUTPUT_PROPERTY.equalsIgnoreCase(optimizedTestsOutput)) {
+            return false;
+        } else {
+            throw new MojoExecutionException("Invalid value of optimizedTestsOutput: '" + optimizedTestsOutput
+                    + "'. Valid values are: " + OUTPUT_PROPERTY + ", " + OUTPUT_INCLUDES_FILE);
+        }
+    }
+
+    /**
+     * Checks whether the optimization is not skipped, configured properly and whether there are any sources.
+     *
+     * @return boolean false if the optimization shall not be done
+     * @throws MojoExecutionException if configuration is invalid
+     */
+    protected boolean isOptimizationApplicable() throws MojoExecutionException {
         if (skip) {
             getLog().info("Skipping build optimization.");
-            return;
+            return false;
         }
 
         // if there are no source files, then skip this mojo
@@ -113,34 +378,465 @@ public class CloverOptimizerMojo extends AbstractCloverMojo {
         if (!new File(sourceDirectory).exists() && !new File(testSourceDirectory).exists()) {
             getLog().info(sourceDirectory + " and " + testSourceDirectory + " do not exist. No optimization will be done for: "
                     + getProject().getGroupId() + ":" + getProject().getArtifactId());
-            return;
+            return false;
+        }
+
+        if (!CHANGES_FROM_SNAPSHOT.equalsIgnoreCase(changeDetection) && !isGitChangeDetection()) {
+            throw new MojoExecutionException("Invalid value of changeDetection: '" + changeDetection
+                    + "'. Valid values are: " + CHANGES_FROM_SNAPSHOT + ", " + CHANGES_FROM_GIT);
         }
+        if (!GRANULARITY_CLASS.equalsIgnoreCase(testGranularity) && !isMethodGranularity()) {
+            throw new MojoExecutionException("Invalid value of testGranularity: '" + testGranularity
+                    + "'. Valid values are: " + GRANULARITY_CLASS + ", " + GRANULARITY_METHOD);
+        }
+        return true;
+    }
 
+    protected Project createAntProject() {
         final Project antProj = new Project();
         antProj.init();
         antProj.addBuildListener(new MvnLogBuildListener(getLog()));
+        return antProj;
+    }
 
-        final List<Resource> optimizedTests = configureOptimisedTestSet(antProj);
-        final StringBuffer testPattern = new StringBuffer();
+    /**
+     * Applies the selection by Git changes or by the impact on the reactor, the time budget and sharding
+     * (if configured) to tests returned by the Clover optimizer.
+     *
+     * @param optimizedTests result of {@link #configureOptimisedTestSet(Project, List, List)}
+     * @return List&lt;String&gt; names of tests to run
+     */
+    protected List<String> selectTests(final Project antProj, final List<Resource> optimizedTests)
+            throws MojoExecutionException {
+        List<String> testNames = new ArrayList<String>(optimizedTests.size());
         for (final Resource test : optimizedTests) {
-            getLog().debug("Running TEST: " + test.getName());
-            testPattern.append(test.getName());
+            testNames.add(test.getName());
+        }
+        if (isReactorSelection()) {
+            testNames = selectTestsImpactedInReactor(testNames);
+        } else if (enabled && minimize && isGitChangeDetection()) {
+            testNames = selectTestsAffectedByGitChanges(testNames);
+        }
+        if (timeBudget > 0 || shardCount > 1) {
+            final TestDurations durations = TestDurations.load(getSnapshot(), testReportsDirectory, getLog());
+            if (timeBudget > 0) {
+                testNames = selectWithinTimeBudget(testNames, durations);
+            }
+            if (shardCount > 1) {
+                testNames = selectShard(testNames, durations);
+            }
+        }
+        if (enabled && minimize && isMethodGranularity()) {
+            testNames = selectTestMethods(testNames);
+        }
+        for (final String testName : testNames) {
+            getLog().debug("Running TEST: " + testName);
+        }
+        return testNames;
+    }
+
+    private boolean isMethodGranularity() {
+        return GRANULARITY_METHOD.equalsIgnoreCase(testGranularity);
+    }
+
+    private boolean isGitChangeDetection() {
+        return CHANGES_FROM_GIT.equalsIgnoreCase(changeDetection);
+    }
+
+    /**
+     * Returns the index of the snapshot from the previous build or <code>null</code> if it does not exist. The index
+     * is rebuilt from the snapshot if it's out of date. A snapshot which is too stale is deleted (the index is still
+     * returned, as it's read into memory), so that a new one is created after all tests are run, as Clover's optimizer
+     * does when the selection is not done by Clover.
+     */
+    private SnapshotIndex getSnapshot() {
+        if (!snapshotLoaded) {
+            snapshotLoaded = true;
+            final File snapshotFile = new ConfigUtil(this).resolveSnapshotFile(snapshot);
+            loadedSnapshot = SnapshotIndex.load(snapshotFile, getLog());
+            if (loadedSnapshot == null && snapshotFile.isFile()) {
+                getLog().warn("Clover snapshot " + snapshotFile + " could not be indexed, tests are selected without"
+                        + " its coverage and durations");
+            }
+            if (enabled && loadedSnapshot != null && loadedSnapshot.isTooStale(fullRunEvery)) {
+                getLog().info("Clover snapshot " + snapshotFile + " is too stale, deleting it");
+                if (!snapshotFile.delete() || !SnapshotIndex.getIndexFile(snapshotFile).delete()) {
+                    getLog().warn("Failed to delete stale Clover snapshot " + snapshotFile);
+                }
+            }
+        }
+        return loadedSnapshot;
+    }
+
+    /**
+     * Returns true if tests are selected using the impact of changes computed for the whole reactor.
+     *
+     * @return boolean
+     */
+    protected boolean isReactorSelection() {
+        return enabled && minimize && getReactorTestImpact() != null;
+    }
+
+    /**
+     * Returns false if tests of this module do not need to be run at all, because neither the module nor any reactor
+     * module on which it depends has changed (and there are no tests which shall always be run).
+     *
+     * @return boolean
+     */
+    protected boolean isModuleImpacted() {
+        return !isReactorSelection() || (alwaysRunTests != null && !alwaysRunTests.isEmpty())
+                || getReactorTestImpact().isModuleImpacted(getProject());
+    }
+
+    /**
+     * Sets a project property which makes the test plugin skip its executions.
+     *
+     * @param property e.g. <code>maven.test.skip.exec</code>
+     */
+    protected void skipTestExecution(final String property) {
+        getLog().info("No tests affected by changes in " + getProject().getArtifactId() + ", setting "
+                + property + " to true");
+        getProject().getProperties().put(property, "true");
+    }
+
+    /**
+     * Returns the impact of changes on the reactor, computed by the first module which needs it and shared with
+     * the other modules.
+     *
+     * @return ReactorTestImpact impact or <code>null</code> if the reactor mode is not enabled or the impact could
+     * not be computed
+     */
+    private ReactorTestImpact getReactorTestImpact() {
+        if (!reactorTestImpactLoaded) {
+            reactorTestImpactLoaded = true;
+            if (reactorImpact && !isSingleCloverDatabase()) {
+                getLog().warn("Reactor-wide test selection requires singleCloverDatabase, optimizing tests per module");
+            } else if (reactorImpact) {
+                final File snapshotFile = new ConfigUtil(this).resolveSnapshotFile(snapshot);
+                final File database = new File(resolveCloverDatabase());
+                final String stamp = SessionCache.fileStamp(snapshotFile) + '|' + SessionCache.fileStamp(database)
+                        + '|' + changeDetection + '|' + gitBaseRef + '|' + fullRunEvery;
+                final SessionCache cache = getReactorSessionCache();
+                if (cache.contains(REACTOR_IMPACT_CACHE_KEY, stamp)) {
+                    reactorTestImpact = (ReactorTestImpact) cache.get(REACTOR_IMPACT_CACHE_KEY, stamp);
+                } else {
+                    reactorTestImpact = computeReactorTestImpact(database);
+                    cache.put(REACTOR_IMPACT_CACHE_KEY, stamp, reactorTestImpact);
+                }
+                if (reactorTestImpact != null) {
+                    testCoverage = reactorTestImpact.getCoverage();
+                }
+            }
+        }
+        return reactorTestImpact;
+    }
+
+    private ReactorTestImpact computeReactorTestImpact(final File database) {
+        final SnapshotIndex currentSnapshot = getSnapshot();
+        if (currentSnapshot == null || currentSnapshot.isTooStale(fullRunEvery)) {
+            getLog().info("Clover snapshot does not exist or is too old, running all tests");
+            return null;
+        }
+        final FullProjectInfo registryProject;
+        try {
+            registryProject = Clover2Registry.fromFile(database).getProject();
+        } catch (CloverException ex) {
+            getLog().warn("Failed to read Clover database " + database + ", optimizing tests per module: "
+                    + ex.getMessage());
+            return null;
+        }
+
+        final ReactorTestImpact impact;
+        if (isGitChangeDetection()) {
+            final GitChangeSource gitChangeSource = new GitChangeSource(getReactorProjects().get(0).getBasedir(), gitBaseRef);
+            final Set<String> changedPaths;
+            final File topLevelDirectory;
+            try {
+                changedPaths = gitChangeSource.getChangedFiles();
+                topLevelDirectory = gitChangeSource.getTopLevelDirectory();
+            } catch (IOException ex) {
+                getLog().warn("Failed to list files changed in Git since " + gitBaseRef + ", running all tests: "
+                        + ex.getMessage());
+                return null;
+            }
+            impact = createReactorTestImpact(TestCoverage.load(currentSnapshot, changedPaths, getLog()), currentSnapshot);
+            if (impact != null) {
+                for (final String changedPath : changedPaths) {
+                    impact.addChangedFile(new File(topLevelDirectory, changedPath));
+                }
+            }
+        } else {
+            impact = createReactorTestImpact(TestCoverage.load(currentSnapshot, database, getLog()), currentSnapshot);
+            if (impact != null) {
+                // files modified since the snapshot or deleted from the database
+                for (final String changedFile : impact.getCoverage().getChangedFiles()) {
+                    impact.addChangedFile(findPhysicalFile(registryProject, changedFile));
+                }
+                // files added or modified since the snapshot; a modified file gets a new version range in the database
+                final long snapshotVersion = currentSnapshot.getMostRecentDbVersion();
+                for (final Object fileInfo : registryProject.getFiles(HasMetricsFilter.ACCEPT_ALL)) {
+                    if (((FullFileInfo) fileInfo).getMinVersion() > snapshotVersion) {
+                        impact.addChangedFile(((FullFileInfo) fileInfo).getPhysicalFile());
+                    }
+                }
+            }
+        }
+        if (impact == null) {
+            return null;
+        }
+
+        // modules of failing tests are impacted too
+        for (final String failingTest : currentSnapshot.getFailingTestPaths()) {
+            impact.addChangedFile(findPhysicalFile(registryProject, failingTest));
+        }
+        getLog().info("Computed impact of changes on tests of " + getReactorProjects().size() + " modules");
+        return impact;
+    }
+
+    private ReactorTestImpact createReactorTestImpact(final TestCoverage coverage, final SnapshotIndex currentSnapshot) {
+        if (coverage.isEmpty()) {
+            getLog().info("Clover snapshot does not contain coverage of tests, running all tests");
+            return null;
+        }
+        return new ReactorTestImpact(getReactorProjects(), coverage, currentSnapshot.getFailingTestPaths());
+    }
+
+    private static File findPhysicalFile(final FullProjectInfo registryProject, final String packagePath) {
+        final FileInfo fileInfo = registryProject.findFile(packagePath);
+        return fileInfo instanceof FullFileInfo ? ((FullFileInfo) fileInfo).getPhysicalFile() : null;
+    }
+
+    /**
+     * Returns tests of this module which are impacted by changes anywhere in the reactor.
+     *
+     * @param testNames all tests of the module
+     * @return List&lt;String&gt; tests to run
+     */
+    private List<String> selectTestsImpactedInReactor(final List<String> testNames) {
+        final ReactorTestImpact impact = getReactorTestImpact();
+        final List<String> impactedTests = new ArrayList<String>();
+        for (final String testName : testNames) {
+            if (alwaysRunTestNames.contains(testName) || impact.isTestImpacted(testName)) {
+                impactedTests.add(testName);
+            }
+        }
+        getLog().info("Selected " + impactedTests.size() + " of " + testNames.size() + " tests impacted by changes in the reactor");
+        return impactedTests;
+    }
+
+    /**
+     * Returns a cache shared by all modules of the build. It's kept in the plugin context of the top level project,
+     * as Maven keeps plugin contexts per project.
+     *
+     * @return SessionCache cache for the whole reactor
+     */
+    private SessionCache getReactorSessionCache() {
+        if (mavenSession == null || pluginDescriptor == null || mavenSession.getTopLevelProject() == null) {
+            return getSessionCache();
+        }
+        return SessionCache.getInstance(mavenSession.getPluginContext(pluginDescriptor, mavenSession.getTopLevelProject()));
+    }
+
+    /**
+     * Returns coverage of modified files by tests. Modified files are found by comparison with the Clover database,
+     * unless they were already taken from Git.
+     */
+    private TestCoverage getTestCoverage() {
+        if (testCoverage == null) {
+            testCoverage = TestCoverage.load(getSnapshot(), new File(resolveCloverDatabase()), getLog());
+        }
+        return testCoverage;
+    }
+
+    /**
+     * Returns tests affected by files changed in Git since the <code>gitBaseRef</code>. All tests are returned if
+     * there is no usable snapshot or if the changes could not be listed.
+     */
+    private List<String> selectTestsAffectedByGitChanges(final List<String> testNames) {
+        final SnapshotIndex currentSnapshot = getSnapshot();
+        if (currentSnapshot == null || currentSnapshot.isTooStale(fullRunEvery)) {
+            getLog().info("Clover snapshot does not exist or is too old, running all tests");
+            return testNames;
+        }
+
+        final Set<String> changedPaths;
+        try {
+            changedPaths = new GitChangeSource(getProject().getBasedir(), gitBaseRef).getChangedFiles();
+        } catch (IOException ex) {
+            getLog().warn("Failed to list files changed in Git since " + gitBaseRef + ", running all tests: "
+                    + ex.getMessage());
+            return testNames;
+        }
+        testCoverage = TestCoverage.load(currentSnapshot, changedPaths, getLog());
+        if (testCoverage.isEmpty()) {
+            getLog().info("Clover snapshot does not contain coverage of tests, running all tests");
+            return testNames;
+        }
+
+        final List<String> affectedTests = selectAffectedTests(testNames, currentSnapshot, testCoverage,
+                TestCoverage.pathSuffixes(changedPaths));
+        getLog().info(changedPaths.size() + " files changed in Git since " + gitBaseRef + ": selected "
+                + affectedTests.size() + " of " + testNames.size() + " tests");
+        return affectedTests;
+    }
+
+    /**
+     * Returns tests which shall always be run, tests which failed or are not in the snapshot, tests which cover
+     * a changed file and tests whose own file is in <code>changedTestPaths</code>.
+     */
+    private List<String> selectAffectedTests(final List<String> testNames, final SnapshotIndex currentSnapshot,
+                                             final TestCoverage coverage, final Set<String> changedTestPaths) {
+        final Set<String> failingTests = new HashSet<String>();
+        for (final String failingTest : currentSnapshot.getFailingTestPaths()) {
+            failingTests.add(TestDurations.toTestPath(failingTest));
+        }
+
+        final List<String> affectedTests = new ArrayList<String>();
+        for (final String testName : testNames) {
+            final String testPath = TestDurations.toTestPath(testName);
+            final Set<String> changedFiles = coverage.getChangedFiles(testName);
+            if (alwaysRunTestNames.contains(testName) || changedTestPaths.contains(testPath)
+                    || failingTests.contains(testPath) || changedFiles == null || !changedFiles.isEmpty()) {
+                affectedTests.add(testName);
+            }
+        }
+        return affectedTests;
+    }
+
+    /**
+     * Returns tests which cover most of modified code within the <code>timeBudget</code>.
+     */
+    private List<String> selectWithinTimeBudget(final List<String> testNames, final TestDurations durations) {
+        final TestCoverage coverage = getTestCoverage();
+        if (coverage.isEmpty()) {
+            getLog().info("Coverage of modified files by tests is not known, tests are selected by duration only");
+        }
+        final List<String> selected = new TimeBudgetSelector(timeBudget * 1000)
+                .select(testNames, alwaysRunTestNames, durations, coverage);
+        getLog().info("Time budget of " + timeBudget + "s: selected " + selected.size() + " of " + testNames.size()
+                + " tests");
+        return selected;
+    }
+
+    /**
+     * Returns tests from the shard selected by <code>shardIndex</code>.
+     */
+    private List<String> selectShard(final List<String> testNames, final TestDurations durations)
+            throws MojoExecutionException {
+        if (shardIndex < 0 || shardIndex >= shardCount) {
+            throw new MojoExecutionException("Invalid value of shardIndex: " + shardIndex
+                    + ". It must be between 0 and shardCount-1 (" + (shardCount - 1) + ")");
+        }
+        final List<String> shard = new TestSharding(shardCount).selectShard(testNames, durations, shardIndex);
+        getLog().info("Running shard " + shardIndex + " of " + shardCount + ": " + shard.size() + " of "
+                + testNames.size() + " tests");
+        return shard;
+    }
+
+    /**
+     * Narrows selected test classes down to test methods affected by modified source files.
+     *
+     * @param testNames selected test classes
+     * @return List&lt;String&gt; test classes, some of them with a "#method1+method2" filter
+     */
+    private List<String> selectTestMethods(final List<String> testNames) {
+        final SnapshotIndex currentSnapshot = getSnapshot();
+        if (currentSnapshot == null || currentSnapshot.isTooStale(fullRunEvery)) {
+            return testNames;
+        }
+        final TestCoverage coverage = getTestCoverage();
+        final Set<String> failingTests = new HashSet<String>();
+        for (final String failingTest : currentSnapshot.getFailingTestPaths()) {
+            failingTests.add(TestDurations.toTestPath(failingTest));
+        }
+
+        final List<String> filteredTests = new ArrayList<String>(testNames.size());
+        int filteredClasses = 0;
+        for (final String testName : testNames) {
+            final String testPath = TestDurations.toTestPath(testName);
+            final Set<String> methods = coverage.getAffectedMethods(testName);
+            if (methods == null || methods.isEmpty() || alwaysRunTestNames.contains(testName)
+                    || failingTests.contains(testPath) || coverage.isChanged(testPath)) {
+                filteredTests.add(testName);
+            } else {
+                filteredTests.add(testName + '#' + Joiner.on('+').join(methods));
+                filteredClasses++;
+            }
+        }
+        getLog().info("Running only affected test methods of " + filteredClasses + " of " + testNames.size()
+                + " test classes");
+        return filteredTests;
+    }
+
+    /**
+     * Passes tests to run as a comma-separated property, in a format of the <code>test</code> parameter of surefire
+     * and failsafe.
+     *
+     * @param property  name of the project property, e.g. <code>test</code>
+     * @param testNames tests to run
+     */
+    protected void setTestProperty(final String property, final List<String> testNames) {
+        final StringBuilder testPattern = new StringBuilder();
+        for (final String testName : testNames) {
+            testPattern.append(testName);
             testPattern.append(",");
         }
-        getLog().debug("Setting test property to: '" + testPattern + "'");
+        getLog().debug("Setting " + property + " property to: '" + testPattern + "'");
 
-        //Always set this to true because we can't be sure if the filtered list we have will result in no tests being run
-        //because we matched classes under src/test/ which aren't unit tests
-        getProject().getProperties().put("failIfNoTests", "false");
-        if (optimizedTests.size() == 0) {
+        if (testNames.isEmpty()) {
             // empty -Dtest values cause all tests to be run so let's put a dummy value
-            getProject().getProperties().put("test", "clover/optimized/test/PlaceHolder.java");
+            getProject().getProperties().put(property, PLACEHOLDER_TEST);
             // ensure surefire wont fail if we run no tests
         } else {
-            getProject().getProperties().put("test", testPattern.toString());
+            getProject().getProperties().put(property, testPattern.toString());
+        }
+    }
+
+    /**
+     * Writes tests to run into a file in the <code>cloverOutputDirectory</code>, one per line, in a format of the
+     * <code>includesFile</code> of surefire and failsafe.
+     *
+     * @param fileName  name of the file
+     * @param testNames tests to run
+     * @return File the includes file
+     */
+    protected File writeIncludesFile(final String fileName, final List<String> testNames) throws MojoExecutionException {
+        final File includesFile = new File(cloverOutputDirectory, fileName);
+        try {
+            // an empty includes file would cause surefire to use default includes, i.e. run all tests
+            writeLines(includesFile, testNames.isEmpty() ? Collections.singletonList(PLACEHOLDER_TEST) : testNames);
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Failed to write optimized tests to " + includesFile, ex);
+        }
+        getLog().debug("Written " + testNames.size() + " tests to: '" + includesFile + "'");
+        return includesFile;
+    }
+
+    /**
+     * Writes lines to a file in UTF-8, with '/' as a file separator, as expected by surefire.
+     */
+    static void writeLines(final File file, final List<String> lines) throws IOException {
+        file.getParentFile().mkdirs();
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8));
+            for (final String line : lines) {
+                out.write(line.replace('\\', '/'));
+                out.write('\n');
+            }
+        } finally {
+            IOStreamUtils.close(out);
         }
     }
 
+    protected List<String> getOptimizeIncludes() {
+        return optimizeIncludes;
+    }
+
+    protected List<String> getOptimizeExcludes() {
+        return optimizeExcludes;
+    }
+
     protected List<Resource> configureOptimisedTestSet(final Project antProj) {
         List<String> includes = optimizeIncludes;
         List<String> excludes = optimizeExcludes;
@@ -159,8 +855,22 @@ public class CloverOptimizerMojo extends AbstractCloverMojo {
             }
         }
 
+        return configureOptimisedTestSet(antProj, includes, excludes);
+    }
+
+    /**
+     * Runs the Clover optimizer for tests matching includes and excludes in test source roots.
+     *
+     * @param antProj  project
+     * @param includes test patterns to include
+     * @param excludes test patterns to exclude, can be <code>null</code>
+     * @return List&lt;Resource&gt; optimized tests
+     */
+    protected List<Resource> configureOptimisedTestSet(final Project antProj, final List<String> includes,
+                                                       final List<String> excludes) {
         getLog().debug("Effective filtering: includes=" + includes + ", excludes=" + excludes);
-        
+        alwaysRunTestNames.clear();
+
         final CloverOptimizedTestSet testsToRun = new CloverOptimizedTestSet();
         testsToRun.setProject(antProj);
         testsToRun.setLogger(new MvnLogger(getLog()));
@@ -174,14 +884,22 @@ public class CloverOptimizerMojo extends AbstractCloverMojo {
             testsToRun.setOrdering(order);
         }
         testsToRun.setMinimize(minimize);
-        testsToRun.setEnabled(enabled);
+        // with changes taken from Git or from the reactor, all tests are listed and selected afterwards
+        testsToRun.setEnabled(enabled && !isGitChangeDetection() && !isReactorSelection());
 
         antProj.setProperty(CloverNames.PROP_INITSTRING, resolveCloverDatabase());
         antProj.setName(getProject().getName());
 
+        // patterns are compiled once and used for all test roots
+        final PathPatternMatcher includesMatcher = PathPatternMatcher.fromPatternList(includes);
+        final PathPatternMatcher excludesMatcher = PathPatternMatcher.fromPatternList(excludes);
+        final PathPatternMatcher alwaysRunMatcher = alwaysRunTests != null
+                ? PathPatternMatcher.fromPatternList(alwaysRunTests)
+                : null;
+
         final List<String> testSources = getProject().getTestCompileSourceRoots();
         for (String testSource : testSources) {
-            addTestRoot(antProj, includes, excludes, testsToRun, testSource);
+            addTestRoot(antProj, includesMatcher, excludesMatcher, alwaysRunMatcher, testsToRun, testSource);
         }
         return testsToRun.getOptimizedTestResource();
     }
@@ -211,8 +929,9 @@ public class CloverOptimizerMojo extends AbstractCloverMojo {
         return null;
     }
 
-    private void addTestRoot(final Project antProj, final List<String> includes, final List<String> excludes,
-                             final CloverOptimizedTestSet testsToRun, final String testRoot) {
+    private void addTestRoot(final Project antProj, final PathPatternMatcher includes, final PathPatternMatcher excludes,
+                             final PathPatternMatcher alwaysRunTests, final CloverOptimizedTestSet testsToRun,
+                             final String testRoot) {
         final File testRootDir = new File(testRoot);
         if (!testRootDir.exists()) {
             // if the test dir does not exist, do not add this as a fileset.
@@ -221,11 +940,16 @@ public class CloverOptimizerMojo extends AbstractCloverMojo {
 
         getLog().info("Adding fileset: directory=" + testRootDir + ", includes=" + includes + ", excludes=" + excludes);
 
-        testsToRun.add(createFileSet(antProj, testRootDir, includes, excludes));
+        // regular expressions of all patterns are evaluated during one scan of the test root
+        final Map<PathPatternMatcher, List<String>> regexMatches = findRegexMatches(testRootDir,
+                Arrays.asList(includes, excludes, alwaysRunTests));
+
+        testsToRun.add(createFileSet(antProj, testRootDir, includes, excludes, regexMatches));
 
         if (alwaysRunTests != null) {
             // create  fileset
-            final FileSet alwaysRunFileSet = createFileSet(antProj, testRootDir, alwaysRunTests, null);
+            final FileSet alwaysRunFileSet = createFileSet(antProj, testRootDir, alwaysRunTests, null, regexMatches);
+            alwaysRunTestNames.addAll(Arrays.asList(alwaysRunFileSet.getDirectoryScanner().getIncludedFiles()));
 
             // add it to an AlwaysRunTestSet
             final CloverAlwaysRunTestSet alwaysRunTestSet = new CloverAlwaysRunTestSet();
@@ -248,15 +972,42 @@ public class CloverOptimizerMojo extends AbstractCloverMojo {
      * @return FileSet
      */
     FileSet createFileSet(final Project antProject, final File directory, final List<String> includes, final List<String> excludes) {
+        return createFileSet(antProject, directory, PathPatternMatcher.fromPatternList(includes),
+                excludes != null ? PathPatternMatcher.fromPatternList(excludes) : null);
+    }
+
+    /**
+     * Creates a FileSet for <code>antProject</code> and base <code>directory</code> having a list of files
+     * to be included and excluded, according to precompiled <code>includes / excludes</code> patterns.
+     *
+     * @param antProject
+     * @param directory
+     * @param includes
+     * @param excludes   can be <code>null</code>
+     * @return FileSet
+     */
+    FileSet createFileSet(final Project antProject, final File directory, final PathPatternMatcher includes,
+                          final PathPatternMatcher excludes) {
+        return createFileSet(antProject, directory, includes, excludes,
+                findRegexMatches(directory, Arrays.asList(includes, excludes)));
+    }
+
+    /**
+     * Creates a FileSet like {@link #createFileSet(Project, File, PathPatternMatcher, PathPatternMatcher)}, using
+     * files matching regular expressions which were already found by {@link #findRegexMatches(File, List)}.
+     */
+    private FileSet createFileSet(final Project antProject, final File directory, final PathPatternMatcher includes,
+                                  final PathPatternMatcher excludes,
+                                  final Map<PathPatternMatcher, List<String>> regexMatches) {
         final FileSet testFileSet = new FileSet();
         testFileSet.setProject(antProject);
         testFileSet.setDir(directory);
 
-        final List<String> includesExpanded = explodePaths(directory, includes);
+        final List<String> includesExpanded = explodePaths(includes, regexMatches);
         testFileSet.appendIncludes(Iterables.toArray(includesExpanded, String.class));
 
         if (excludes != null && !excludes.isEmpty()) {
-            final List<String> excludesExpanded = explodePaths(directory, excludes);
+            final List<String> excludesExpanded = explodePaths(excludes, regexMatches);
             testFileSet.appendExcludes(Iterables.toArray(excludesExpanded, String.class));
         }
         return testFileSet;
@@ -268,10 +1019,18 @@ public class CloverOptimizerMojo extends AbstractCloverMojo {
      * @return Plugin maven-surefire-plugin or <code>null</code>
      */
     private Plugin lookupSurefirePlugin() {
-        final String key = "org.apache.maven.plugins:maven-surefire-plugin";
+        return lookupBuildPlugin("org.apache.maven.plugins:maven-surefire-plugin");
+    }
+
+    /**
+     * Search for a plugin in the list of build plugins. Returns a plugin instance or <code>null</code> if not found.
+     * @param key plugin key in a form "groupId:artifactId"
+     * @return Plugin build plugin or <code>null</code>
+     */
+    protected Plugin lookupBuildPlugin(final String key) {
         final MavenProject mavenProject = getProject();
         if (mavenProject == null) {
-            getLog().warn("Maven execution project is null. Surefire configuration will be ignored.");
+            getLog().warn("Maven execution project is null. Configuration of " + key + " will be ignored.");
             return null;
         }
 
@@ -290,7 +1049,7 @@ public class CloverOptimizerMojo extends AbstractCloverMojo {
      *  2a) we can have multiple comma- or space-separated patterns in one 'includes'
      *  2b) we can have regular expression entered (surefire specific feature)
      *
-     * For 2a) String.split() is used, for 2b) a directory scan is performed
+     * For 2a) patterns are split when compiled, for 2b) a directory scan is performed
      *
      * See:
      * <li>http://ant.apache.org/manual/Types/fileset.html</li>
@@ -300,68 +1059,99 @@ public class CloverOptimizerMojo extends AbstractCloverMojo {
      * @return List&lt;String&gt;
      */
     static List<String> explodePaths(final File directory, final List<String> paths) {
-        final List<String> explodedPaths = new LinkedList<String>();
-        for (final String path : paths) {
-            if (path.trim().startsWith("%regex[")) {
-                splitPathByRegexp(directory, explodedPaths, path);
-            } else {
-                splitPathBySeparators(explodedPaths, path);
-            }
-        }
-
-        return explodedPaths;
+        return explodePaths(directory, PathPatternMatcher.fromPatternList(paths));
     }
 
-    private static List<File> dirTreeMatchingPattern(final File dir, final Pattern pattern) {
-        final List<File> matchedFiles = new LinkedList<File>();
+    /**
+     * Returns Ant patterns from the <code>matcher</code> together with relative paths of all files in
+     * <code>directory</code> matching any of its regular expressions. All regular expressions are evaluated
+     * during one directory scan.
+     *
+     * @param directory directory to be scanned for regular expressions
+     * @param matcher   compiled patterns
+     * @return List&lt;String&gt;
+     */
+    static List<String> explodePaths(final File directory, final PathPatternMatcher matcher) {
+        return explodePaths(matcher, findRegexMatches(directory, Collections.singletonList(matcher)));
+    }
 
-        if (dir.isDirectory()) {
-            // recursive search
-            for (String fileName : dir.list()) {
-                matchedFiles.addAll(dirTreeMatchingPattern(new File(dir, fileName), pattern));
-            }
-        } else {
-            // add a file
-            if (pattern.matcher(dir.getPath()).matches()) {
-                matchedFiles.add(dir);
-            }
+    /**
+     * Returns Ant patterns from the <code>matcher</code> together with files matching its regular expressions,
+     * as found by {@link #findRegexMatches(File, List)}.
+     */
+    private static List<String> explodePaths(final PathPatternMatcher matcher,
+                                             final Map<PathPatternMatcher, List<String>> regexMatches) {
+        final List<String> explodedPaths = new ArrayList<String>(matcher.getAntPatterns());
+        final List<String> matchedFiles = regexMatches.get(matcher);
+        if (matchedFiles != null) {
+            explodedPaths.addAll(matchedFiles);
         }
-
-        return matchedFiles;
+        return explodedPaths;
     }
 
     /**
-     * Takes <code>pathRegex</code> regular expression in a form like "%regex[.*[Cat|Dog].*Test.*]" (as supported by
-     * surefire plugin) and searches for all files in <code>directory</code> whose path name matches this expression.
-     * Adds relative paths of found files to <code>outputList</code>.
+     * Searches for all files in <code>directory</code> whose path name matches any of regular expressions in a form
+     * like "%regex[.*[Cat|Dog].*Test.*]" (as supported by surefire plugin). The directory is scanned once for all
+     * matchers; subdirectories under which none of regular expressions can match are skipped.
      *
-     * @param directory  directory to be scanned
-     * @param outputList output list to which names of found files will be added
-     * @param pathRegex  regular expression for file name
+     * @param directory directory to be scanned
+     * @param matchers  compiled patterns, <code>null</code> elements are ignored
+     * @return Map&lt;PathPatternMatcher, List&lt;String&gt;&gt; paths relative to the <code>directory</code> of files
+     * matching regular expressions of each matcher; matchers without regular expressions are not present
      */
-    private static void splitPathByRegexp(final File directory, final List<String> outputList, final String pathRegex) {
-        // extract regular expression from a path entry (we assume that there can be only one regexp)
-        final String regex = pathRegex.substring(
-                pathRegex.indexOf(REGEX_START) + REGEX_START.length(),
-                pathRegex.lastIndexOf(REGEX_END));
+    static Map<PathPatternMatcher, List<String>> findRegexMatches(final File directory,
+                                                                  final List<PathPatternMatcher> matchers) {
+        final Map<PathPatternMatcher, List<String>> regexMatches = new HashMap<PathPatternMatcher, List<String>>();
+        for (final PathPatternMatcher matcher : matchers) {
+            if (matcher != null && matcher.hasRegexPatterns()) {
+                regexMatches.put(matcher, new ArrayList<String>());
+            }
+        }
+        if (regexMatches.isEmpty() || !directory.isDirectory()) {
+            return regexMatches;
+        }
 
-        // create pattern for this regexp and find all files in directory matching it
-        final Pattern pattern = Pattern.compile(regex);
-        final List<File> matchedFiles = dirTreeMatchingPattern(directory, pattern);
+        final Path root = directory.toPath();
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                            final String dirPath = dir.toString();
+                            for (final PathPatternMatcher matcher : regexMatches.keySet()) {
+                                if (matcher.mayMatchRegexUnder(dirPath)) {
+                                    return FileVisitResult.CONTINUE;
+                                }
+                            }
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
 
-        // convert File->String and add to output list
-        for (final File file : matchedFiles) {
-            outputList.add(FileUtils.getRelativePath(directory, file));
-        }
-    }
+                        @Override
+                        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                            if (!attrs.isDirectory()) {
+                                final String filePath = file.toString();
+                                String relativePath = null;
+                                for (final Map.Entry<PathPatternMatcher, List<String>> entry : regexMatches.entrySet()) {
+                                    if (entry.getKey().matchesRegex(filePath)) {
+                                        if (relativePath == null) {
+                                            relativePath = root.relativize(file).toString();
+                                        }
+                                        entry.getValue().add(relativePath);
+                                    }
+                                }
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
 
-    private static void splitPathBySeparators(final List<String> outputList, final String path) {
-        final String ANT_PATTERN_SEPARATOR = "[, ]";
-        final String splittedPaths[] = path.split(ANT_PATTERN_SEPARATOR);
-        for (String splittedPath : splittedPaths) {
-            if (splittedPath.length() > 0) {
-                outputList.add(splittedPath);
-            }
+                        @Override
+                        public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                            // unreadable entries and cycles caused by symbolic links are skipped
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (IOException ex) {
+            // not thrown by the visitor above
         }
+        return regexMatches;
     }
 }
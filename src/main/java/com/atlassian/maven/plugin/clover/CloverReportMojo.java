@@ -44,6 +44,7 @@ import org.apache.tools.ant.ProjectHelper;
 import org.apache.tools.ant.PropertyHelper;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -137,8 +138,8 @@ public class CloverReportMojo extends AbstractMojo implements MavenReport, Clove
     private int flushInterval;
 
     /**
-     * If true we'll wait 2*flushInterval to ensure coverage data is flushed to the Clover database before running
-     * any query on it.
+     * If true we'll wait until coverage recordings stop changing, up to 2*flushInterval, to ensure coverage data
+     * is flushed to the Clover database before running any query on it.
      * <p/>
      * <p>Note: The only use case where you would want to turn this off is if you're running your tests in a separate
      * JVM. In that case the coverage data will be flushed by default upon the JVM shutdown and there would be no need
@@ -499,7 +500,9 @@ public class CloverReportMojo extends AbstractMojo implements MavenReport, Clove
     public boolean canGenerateReport() {
         boolean canGenerate = false;
 
-        AbstractCloverMojo.waitForFlush(this.waitForFlush, this.flushInterval);
+        AbstractCloverMojo.waitForFlush(this.waitForFlush, this.flushInterval,
+                Arrays.asList(resolveCloverDatabase(), this.cloverMergeDatabase),
+                AbstractCloverMojo.getBuildStartTime(mavenSession), getLog());
 
         File singleModuleCloverDatabase = new File(resolveCloverDatabase());
         File mergedCloverDatabase = new File(this.cloverMergeDatabase);
@@ -27,6 +27,7 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.tools.ant.Project;
 
 import java.io.File;
+import java.util.Arrays;
 
 /**
  * Save a <a href="http://openclover.org/doc/manual/latest/ant--tutorial-part-2-historical-reporting.html">Clover history point</a>.
@@ -65,7 +66,8 @@ public class CloverSaveHistoryMojo extends AbstractCloverMojo
         {
             super.execute();
 
-            AbstractCloverMojo.waitForFlush( getWaitForFlush(), getFlushInterval() );
+            AbstractCloverMojo.waitForFlush( getWaitForFlush(), getFlushInterval(),
+                    Arrays.asList(resolveCloverDatabase(), getCloverMergeDatabase()), getBuildStartTime(), getLog() );
 
             save();
         }
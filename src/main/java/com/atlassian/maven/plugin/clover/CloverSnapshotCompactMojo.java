@@ -0,0 +1,119 @@
+package com.atlassian.maven.plugin.clover;
+
+import com.atlassian.clover.api.CloverException;
+import com.atlassian.clover.optimization.Snapshot;
+import com.atlassian.clover.registry.Clover2Registry;
+import com.atlassian.maven.plugin.clover.internal.AbstractCloverMojo;
+import com.atlassian.maven.plugin.clover.internal.ConfigUtil;
+import com.atlassian.maven.plugin.clover.internal.optimization.SnapshotCompactor;
+import com.atlassian.maven.plugin.clover.internal.optimization.SnapshotIndex;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Mojo;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Compacts a Clover snapshot saved by the clover:snapshot goal.
+ *
+ * Clover never removes anything from a snapshot, so entries of deleted tests and source files pile up in it and
+ * loading it by clover:optimize gets slower as the code base ages. This goal removes tests which no longer exist in
+ * the Clover database together with their durations, collapses coverage of files which no longer exist and rewrites
+ * the snapshot file (and its index). Tests which are still present are optimized exactly as before.
+ *
+ * There is no retention window: Clover does not record when an entry of the snapshot was last updated, so entries
+ * are kept exactly as long as their tests and files are in the current Clover database. The age of the snapshot
+ * itself is limited by <code>fullRunEvery</code> of clover:optimize, which deletes a stale snapshot so that a new one
+ * is created. As an entry is removed when its test is not in the database, the goal shall be run only after a build
+ * which instrumented all modules sharing the snapshot.
+ *
+ * The goal is meant to be run after clover:snapshot, or periodically. The clover:snapshot goal can do the same on
+ * every save, see its <code>compactSnapshot</code> parameter.
+ */
+@Mojo(name = "snapshot-compact")
+public class CloverSnapshotCompactMojo extends AbstractCloverMojo {
+
+    public void execute() throws MojoExecutionException {
+        // only compact the snapshot once, on the very last project.
+        if (isSingleCloverDatabase() && !isLastProjectInReactor()) {
+            getLog().info("Skipping snapshot compaction until the final project in the reactor.");
+            return;
+        }
+
+        if (skip) {
+            getLog().info("Skipping snapshot compaction.");
+            return;
+        }
+
+        final File database = new File(resolveCloverDatabase());
+        if (!database.exists()) {
+            getLog().info(database + " does not exist. Skipping snapshot compaction.");
+            return;
+        }
+
+        snapshot = new ConfigUtil(this).resolveSnapshotFile(snapshot);
+        if (!snapshot.isFile()) {
+            getLog().info(snapshot + " does not exist. Skipping snapshot compaction.");
+            return;
+        }
+
+        final Snapshot loadedSnapshot = Snapshot.loadFrom(snapshot);
+        if (loadedSnapshot == null) {
+            throw new MojoExecutionException("Failed to load Clover snapshot " + snapshot);
+        }
+        final long originalLength = snapshot.length();
+        if (compact(loadedSnapshot, database, getLog())) {
+            getLog().info("Compacted snapshot " + snapshot + " from " + originalLength + " to " + snapshot.length()
+                    + " bytes");
+            final File indexFile = SnapshotIndex.getIndexFile(snapshot);
+            try {
+                SnapshotIndex.write(loadedSnapshot, snapshot, indexFile);
+            } catch (IOException ex) {
+                getLog().warn("Failed to save snapshot index to " + indexFile + ": " + ex.getMessage());
+            } catch (ReflectiveOperationException ex) {
+                getLog().warn("Unsupported format of Clover snapshot, snapshot index was not saved");
+                getLog().debug(ex);
+            } catch (ClassCastException ex) {
+                getLog().warn("Unsupported format of Clover snapshot, snapshot index was not saved");
+                getLog().debug(ex);
+            }
+        }
+    }
+
+    /**
+     * Removes entries of tests and files which are not in the database from the snapshot and stores it if anything
+     * was removed. Failures are logged, as the snapshot is still usable without compaction.
+     *
+     * @param snapshot loaded snapshot
+     * @param database current Clover database
+     * @param log      logger
+     * @return boolean true if the snapshot was rewritten
+     */
+    static boolean compact(final Snapshot snapshot, final File database, final Log log) {
+        try {
+            final SnapshotCompactor.Result result = new SnapshotCompactor(
+                    Clover2Registry.fromFile(database).getProject()).compact(snapshot);
+            if (!result.isModified()) {
+                log.info("Snapshot " + snapshot.getLocation() + " contains no stale entries.");
+                return false;
+            }
+            log.info("Removed " + result.getRemovedTests() + " stale tests and " + result.getRemovedFiles()
+                    + " stale covered files from snapshot " + snapshot.getLocation());
+            snapshot.store();
+            return true;
+        } catch (CloverException ex) {
+            log.warn("Failed to read Clover database " + database + ", snapshot was not compacted: "
+                    + ex.getMessage());
+        } catch (IOException ex) {
+            log.warn("Failed to save compacted snapshot to " + snapshot.getLocation() + ": " + ex.getMessage());
+        } catch (ReflectiveOperationException ex) {
+            log.warn("Unsupported format of Clover snapshot, snapshot was not compacted");
+            log.debug(ex);
+        } catch (ClassCastException ex) {
+            log.warn("Unsupported format of Clover snapshot, snapshot was not compacted");
+            log.debug(ex);
+        }
+        return false;
+    }
+}
@@ -1,19 +1,25 @@
 package com.atlassian.maven.plugin.clover;
 
-import com.atlassian.clover.CloverNames;
+import com.atlassian.clover.CloverDatabase;
+import com.atlassian.clover.CoverageDataSpec;
 import com.atlassian.clover.Logger;
-import com.atlassian.clover.ant.tasks.CloverSnapshotTask;
+import com.atlassian.clover.api.CloverException;
+import com.atlassian.clover.cfg.Interval;
 import com.atlassian.clover.optimization.Snapshot;
 import com.atlassian.clover.optimization.SnapshotPrinter;
+import com.atlassian.clover.recorder.PerTestCoverageStrategy;
 import com.atlassian.maven.plugin.clover.internal.AbstractCloverMojo;
 import com.atlassian.maven.plugin.clover.internal.ConfigUtil;
+import com.atlassian.maven.plugin.clover.internal.optimization.SnapshotIndex;
+import com.google.common.collect.Iterables;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.apache.tools.ant.Project;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
 import java.util.Date;
 
 /**
@@ -31,6 +37,12 @@ import java.util.Date;
 @Mojo(name = "snapshot", defaultPhase = LifecyclePhase.TEST)
 public class CloverSnapshotMojo extends AbstractCloverMojo {
 
+    /**
+     * Name of the system property which selects how Clover keeps per-test coverage while the snapshot is created,
+     * the same as for Clover's snapshot task.
+     */
+    private static final String PER_TEST_STRATEGY_PROPERTY = "clover.memory.strategy.snapshot";
+
     @Parameter(property = "maven.clover.span")
     private String span;
 
@@ -41,6 +53,17 @@ public class CloverSnapshotMojo extends AbstractCloverMojo {
     @Parameter(property = "maven.clover.forceSnapshot", defaultValue = "false")
     private boolean forceSnapshot;
 
+    /**
+     * <p>If set to true, entries of tests and source files which are no longer present in the Clover database are
+     * removed from the snapshot after it's saved, so that it doesn't grow as the code base changes. The same can be
+     * done on demand by the <code>clover:snapshot-compact</code> goal. Entries are not aged out by time or number of
+     * builds, see the goal for details.</p>
+     *
+     * @since 4.4.2
+     */
+    @Parameter(property = "maven.clover.compactSnapshot", defaultValue = "false")
+    private boolean compactSnapshot;
+
     public void execute() throws MojoExecutionException {
 
         // only run the snapshot once, on the very last project.
@@ -60,45 +83,123 @@ public class CloverSnapshotMojo extends AbstractCloverMojo {
             return;
         }
 
-        final CloverSnapshotTask task = createSnapshotTask();
-        task.setInitString(resolveCloverDatabase());
-        task.setDebug(debug);
-
+        Interval initialSpan = Interval.DEFAULT_SPAN;
         if (span != null) {
-            task.setSpan(span);
+            initialSpan = new Interval(span);
         } else if (CloverSetupMojo.START_DATE != null) {
             final long timeSinceStart = new Date().getTime() - CloverSetupMojo.START_DATE.getTime();
             final String interval = ((timeSinceStart + 1000)/ 1000) + "s";
             getLog().info("No span specified, using span of: " + interval);
-            task.setSpan(interval);
+            initialSpan = new Interval(interval);
         }
 
         snapshot = new ConfigUtil(this).resolveSnapshotFile(snapshot);
 
         snapshot.getParentFile().mkdirs();
         getLog().info("Saving snapshot to: " + snapshot);
-        task.setFile(snapshot);
 
-        execTask(task);
+        final Snapshot savedSnapshot;
+        final Logger previousLogger = Logger.getInstance();
+        Logger.setInstance(new MvnLogger(getLog()));
+        try {
+            savedSnapshot = saveSnapshot(snapshot, resolveCloverDatabase(), initialSpan);
+        } catch (CloverException ex) {
+            throw new MojoExecutionException("Failed to create or update snapshot file at " + snapshot, ex);
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Failed to create or update snapshot file at " + snapshot, ex);
+        } finally {
+            Logger.setInstance(previousLogger);
+        }
 
+        if (savedSnapshot == null) {
+            return;
+        }
+        if (compactSnapshot) {
+            CloverSnapshotCompactMojo.compact(savedSnapshot, new File(resolveCloverDatabase()), getLog());
+        }
+        writeSnapshotIndex(savedSnapshot);
         if (getLog().isDebugEnabled() || debug) {
-            final String cpLocation = snapshot != null ? snapshot.getPath() : task.getInitString() + CloverNames.SNAPSHOT_SUFFIX;
-            SnapshotPrinter.textPrint(Snapshot.loadFrom(cpLocation), new MvnLogger(getLog()), Logger.LOG_VERBOSE);
+            SnapshotPrinter.textPrint(savedSnapshot, new MvnLogger(getLog()), Logger.LOG_VERBOSE);
         }
 
     }
 
-    protected void execTask(CloverSnapshotTask task) {
-        task.execute();
+    /**
+     * Creates the snapshot or updates it with coverage recorded since it was saved last time, and saves it. This is
+     * what Clover's snapshot task does, except that the saved snapshot is returned, so that it does not have to be
+     * loaded again to be indexed or compacted.
+     *
+     * @param snapshotFile snapshot file
+     * @param initString   Clover database
+     * @param initialSpan  span of coverage recordings used when a new snapshot is created
+     * @return Snapshot saved snapshot
+     * @throws CloverException if the Clover database cannot be loaded
+     * @throws IOException     if the snapshot cannot be saved
+     */
+    protected Snapshot saveSnapshot(final File snapshotFile, final String initString, final Interval initialSpan)
+            throws CloverException, IOException {
+        Snapshot.setDebug(debug);
+        final PerTestCoverageStrategy perTestStrategy = PerTestCoverageStrategy.valueOf(
+                System.getProperty(PER_TEST_STRATEGY_PROPERTY, PerTestCoverageStrategy.IN_MEMORY.name()));
+
+        Snapshot savedSnapshot = Snapshot.loadFromFile(snapshotFile);
+        if (savedSnapshot == null) {
+            getLog().info("Snapshot file not found, creating new file at " + snapshotFile.getAbsolutePath());
+            final CloverDatabase database = CloverDatabase.loadWithCoverage(initString,
+                    createCoverageDataSpec(initialSpan.getValueInMillis(), perTestStrategy));
+            savedSnapshot = Snapshot.generateFor(database, snapshotFile.getAbsolutePath());
+        } else {
+            final CloverDatabase database = CloverDatabase.loadWithCoverage(initString, createCoverageDataSpec(
+                    getUpdateSpan(savedSnapshot.getDbVersions(), initialSpan, System.currentTimeMillis()),
+                    perTestStrategy));
+            getLog().info("Updating snapshot '" + snapshotFile.getAbsolutePath() + "' against Clover database at '"
+                    + database.getInitstring() + "'");
+            savedSnapshot.updateFor(database);
+        }
+        savedSnapshot.store();
+        return savedSnapshot;
+    }
+
+    /**
+     * Returns the span of coverage recordings used to update an existing snapshot. Like in Clover's snapshot task,
+     * it's the time since the most recent database version in the snapshot (or the initial span if there is none),
+     * but it's never shorter than the initial span, so that recordings written shortly before that version are
+     * not missed.
+     *
+     * @param dbVersions  versions of the Clover database in the snapshot, the most recent one last
+     * @param initialSpan span of coverage recordings used when a new snapshot is created
+     * @param now         current time
+     * @return long span in milliseconds
+     */
+    static long getUpdateSpan(final Collection<Long> dbVersions, final Interval initialSpan, final long now) {
+        final long since = dbVersions.isEmpty()
+                ? initialSpan.getValueInMillis()
+                : Iterables.getLast(dbVersions);
+        return Math.max(initialSpan.getValueInMillis(), Math.max(0L, now - since));
     }
 
-    CloverSnapshotTask createSnapshotTask() {
-        CloverSnapshotTask task = new CloverSnapshotTask();
-        final Project antProj = new Project();
-        antProj.init();
-        antProj.addBuildListener(new MvnLogBuildListener(getLog()));
-        task.setProject(antProj);
-        task.init();
-        return task;
+    private static CoverageDataSpec createCoverageDataSpec(final long span,
+                                                           final PerTestCoverageStrategy perTestStrategy) {
+        return new CoverageDataSpec(null, span, false, true, true, true, perTestStrategy);
+    }
+
+    /**
+     * Writes an index of the saved snapshot, which is read by the optimizer for durations and coverage of tests
+     * beyond Clover's own selection. If it's not written, the optimizer builds it when it needs it.
+     */
+    private void writeSnapshotIndex(final Snapshot savedSnapshot) {
+        final File indexFile = SnapshotIndex.getIndexFile(snapshot);
+        try {
+            SnapshotIndex.write(savedSnapshot, snapshot, indexFile);
+            getLog().debug("Saved snapshot index to: " + indexFile);
+        } catch (IOException ex) {
+            getLog().warn("Failed to save snapshot index to " + indexFile + ": " + ex.getMessage());
+        } catch (ReflectiveOperationException ex) {
+            getLog().warn("Unsupported format of Clover snapshot, snapshot index was not saved");
+            getLog().debug(ex);
+        } catch (ClassCastException ex) {
+            getLog().warn("Unsupported format of Clover snapshot, snapshot index was not saved");
+            getLog().debug(ex);
+        }
     }
 }
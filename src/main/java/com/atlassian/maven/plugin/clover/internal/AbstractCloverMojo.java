@@ -20,6 +20,7 @@ package com.atlassian.maven.plugin.clover.internal;
  */
 
 import com.atlassian.clover.util.FileUtils;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
@@ -27,10 +28,13 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Taskdef;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import com.atlassian.maven.plugin.clover.MvnLogBuildListener;
@@ -99,8 +103,9 @@ public abstract class AbstractCloverMojo extends AbstractMojo implements CloverC
     private int flushInterval;
 
     /**
-     * <p>If true we'll wait 2*flushInterval to ensure coverage data is flushed to the Clover database before running
-     * any query on it.</p>
+     * <p>If true we'll wait until coverage recordings written during the build stop changing, up to 2*flushInterval,
+     * to ensure coverage data
+     * is flushed to the Clover database before running any query on it.</p>
      * <p>Note: The only use case where you would want to turn this off is if you're running your tests in a separate
      * JVM. In that case the coverage data will be flushed by default upon the JVM shutdown and there would be no need
      * to wait for the data to be flushed. As we can't control whether users want to fork their tests or not, we're
@@ -116,6 +121,13 @@ public abstract class AbstractCloverMojo extends AbstractMojo implements CloverC
     @Parameter(defaultValue = "${project}", required = true)
     private MavenProject project;
 
+    /**
+     * <p>The Maven session of the current build.</p>
+     * <p>Note: This is passed by Maven and must not be configured by the user.</p>
+     */
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
     /**
      * A flag to indicate not to run clover for this execution. If set to true, Clover will not be run.
      */
@@ -183,22 +195,50 @@ public abstract class AbstractCloverMojo extends AbstractMojo implements CloverC
     }
 
     /**
-     * Wait 2*'flush interval' milliseconds to ensure that the coverage data have been flushed to the Clover database.
+     * Wait until the coverage data have been flushed to the Clover databases, i.e. until their coverage recording
+     * files stop changing, but no longer than 2*'flush interval' milliseconds.
      *
      * This method should not be static but we need it static here because we cannot share code
      * between non report mojos and main build mojos.
      *
      * @param waitForFlush whether to pause until flush occurs
      * @param flushInterval current interval
+     * @param databases Clover databases which will be read
+     * @param buildStartTime recordings modified before this time belong to previous builds, see
+     *                       {@link #getBuildStartTime(MavenSession)}
+     * @param log logger reporting the time waited
      */
-    public static void waitForFlush(final boolean waitForFlush, final int flushInterval) {
+    public static void waitForFlush(final boolean waitForFlush, final int flushInterval,
+                                    final Collection<String> databases, final long buildStartTime, final Log log) {
         if (waitForFlush) {
-            try {
-                Thread.sleep(2 * flushInterval);
-            } catch (InterruptedException e) {
-                // Nothing to do... Just go on and try to check for coverage.
+            final List<File> databaseFiles = new ArrayList<File>();
+            for (final String database : databases) {
+                databaseFiles.add(new File(database));
             }
+            new CoverageRecordingMonitor(databaseFiles, flushInterval, buildStartTime).waitForQuiescence(log);
+        }
+    }
+
+    /**
+     * Returns the time the current build started. A JVM running several builds (e.g. a Maven daemon) outlives
+     * them, so the start of the session is used; the start of the JVM only if there's no session.
+     *
+     * @param session current Maven session, may be null
+     * @return long start time in milliseconds
+     */
+    public static long getBuildStartTime(@Nullable final MavenSession session) {
+        if (session != null && session.getRequest() != null && session.getRequest().getStartTime() != null) {
+            return session.getRequest().getStartTime().getTime();
         }
+        return ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    /**
+     * @return long the time the current build started
+     * @see #getBuildStartTime(MavenSession)
+     */
+    protected long getBuildStartTime() {
+        return getBuildStartTime(session);
     }
 
     /**
@@ -258,6 +298,15 @@ public abstract class AbstractCloverMojo extends AbstractMojo implements CloverC
         return reactorProjects;
     }
 
+    /**
+     * Returns a cache shared by all Clover mojos executed for the current project in this build.
+     *
+     * @return SessionCache cache stored in the plugin context
+     */
+    protected SessionCache getSessionCache() {
+        return SessionCache.getInstance(getPluginContext());
+    }
+
     public boolean isSingleCloverDatabase() {
         return this.singleCloverDatabase;
     }
@@ -4,6 +4,7 @@ import com.atlassian.maven.plugin.clover.DistributedCoverage;
 import com.atlassian.maven.plugin.clover.MethodWithMetricsContext;
 import com.atlassian.maven.plugin.clover.TestSources;
 
+import java.io.File;
 import java.util.Map;
 import java.util.Set;
 
@@ -39,7 +40,19 @@ public interface CompilerConfiguration extends CloverConfiguration {
 
     String getInstrumentLambda();
 
+    int getCopyThreads();
+
+    int getInstrumentBatchSize();
+
+    boolean isInstrumentationTimings();
+
+    boolean isIncrementalInstrumentation();
+
+    File getInstrumentationCache();
+
     boolean isCopyExcludedFiles();
 
+    String getCopyStrategy();
+
     TestSources getTestSources();
 }
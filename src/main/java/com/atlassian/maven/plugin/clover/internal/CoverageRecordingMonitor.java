@@ -0,0 +1,150 @@
+package com.atlassian.maven.plugin.clover.internal;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.maven.plugin.logging.Log;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Waits until coverage recordings of Clover databases stop changing.
+ *
+ * Instrumented code writes coverage recordings into files next to the Clover database, named after the database
+ * file (e.g. <code>clover.db2k5c9a_kfgn1b9y</code>). A JVM using the "interval" or "threaded" flush policy writes
+ * them at most every flush interval, so once none of the recording files has changed for a whole flush interval,
+ * no instrumented JVM is writing coverage anymore and the database can be read. In a typical build the tests
+ * finished long before, so there's nothing to wait for.
+ *
+ * Only recordings written after the database and after the build started are taken into account. If there is no
+ * such recording, no tests have run against the database in this build and there's nothing to wait for.
+ */
+public class CoverageRecordingMonitor {
+
+    /** Upper bound of the delay between two checks of recording files, in milliseconds */
+    private static final long MAX_POLL_INTERVAL = 100L;
+
+    /** Lower bound of the delay between two checks of recording files, in milliseconds */
+    private static final long MIN_POLL_INTERVAL = 10L;
+
+    @NotNull
+    private final Collection<File> databases;
+
+    private final long flushInterval;
+
+    private final long since;
+
+    /**
+     * @param databases     Clover databases whose recordings are watched; missing ones are ignored
+     * @param flushInterval flush interval of instrumented code, in milliseconds
+     * @param since         recordings modified before this time (e.g. start of the build) are not fresh
+     */
+    public CoverageRecordingMonitor(@NotNull final Collection<File> databases, final long flushInterval,
+                                    final long since) {
+        this.databases = databases;
+        this.flushInterval = flushInterval;
+        this.since = since;
+    }
+
+    /**
+     * Waits until the fresh recordings are quiet, but no longer than 2*flushInterval milliseconds. Returns at once
+     * if there are no fresh recordings.
+     *
+     * @param log logger reporting the time actually waited
+     * @return long time waited, in milliseconds
+     */
+    public long waitForQuiescence(@NotNull final Log log) {
+        final long start = System.currentTimeMillis();
+        final long deadline = start + 2 * flushInterval;
+        final long pollInterval = Math.max(MIN_POLL_INTERVAL, Math.min(MAX_POLL_INTERVAL, flushInterval / 5));
+
+        Map<String, String> previousState = null;
+        long now = start;
+        while (now < deadline) {
+            final Map<String, String> state = new HashMap<String, String>();
+            final long lastModified = scanRecordings(state);
+            if (lastModified == 0 || state.equals(previousState) && now - lastModified >= flushInterval) {
+                break;
+            }
+            previousState = state;
+            try {
+                Thread.sleep(Math.min(pollInterval, deadline - now));
+            } catch (InterruptedException e) {
+                // Nothing to do... Just go on and try to check for coverage.
+                break;
+            }
+            now = System.currentTimeMillis();
+        }
+
+        final long waited = System.currentTimeMillis() - start;
+        if (now >= deadline) {
+            log.info("Waited " + waited + " ms for coverage recordings to be flushed (no recording settled within "
+                    + 2 * flushInterval + " ms)");
+        } else {
+            log.debug("Waited " + waited + " ms for coverage recordings to be flushed");
+        }
+        return waited;
+    }
+
+    /**
+     * Collects sizes and timestamps of all recording files of the databases.
+     *
+     * @param state map to put (path, size and timestamp) into
+     * @return long the most recent modification time of a fresh recording file, i.e. one modified after its database
+     * and after <code>since</code>; 0 if there are none
+     */
+    @VisibleForTesting
+    long scanRecordings(@NotNull final Map<String, String> state) {
+        long lastModified = 0L;
+        for (final File database : databases) {
+            final File[] files = database.getAbsoluteFile().getParentFile().listFiles();
+            if (files == null) {
+                continue;
+            }
+            final long freshAfter = Math.max(since, database.lastModified());
+            for (final File file : files) {
+                if (isRecordingOf(database, file.getName()) && file.isFile()) {
+                    final long modified = file.lastModified();
+                    state.put(file.getPath(), file.length() + ":" + modified);
+                    if (modified >= freshAfter) {
+                        lastModified = Math.max(lastModified, modified);
+                    }
+                }
+            }
+        }
+        return lastModified;
+    }
+
+    /**
+     * Returns true if the file name is a name of a coverage recording of the database, i.e. starts with the name of
+     * the database and isn't one of the other files stored next to it (like a snapshot).
+     */
+    @VisibleForTesting
+    static boolean isRecordingOf(@NotNull final File database, @NotNull final String fileName) {
+        final String databaseName = database.getName();
+        return fileName.startsWith(databaseName)
+                && fileName.length() > databaseName.length()
+                && fileName.charAt(databaseName.length()) != '.';
+    }
+}
@@ -0,0 +1,118 @@
+package com.atlassian.maven.plugin.clover.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of results which are computed by several Clover mojos or by the same mojo in several modules, such as
+ * include/exclude patterns read from files or outcomes of artifact resolution.
+ *
+ * The cache lives in a plugin context provided by Maven (see {@link org.apache.maven.plugin.ContextEnabled}), which
+ * is kept in the MavenSession per project ID, so its lifetime is a single build. Every entry is stored together with
+ * a stamp of its inputs (e.g. size and timestamp of a file) and is discarded when the stamp of current inputs differs.
+ */
+public class SessionCache {
+
+    private static final String CONTEXT_KEY = SessionCache.class.getName();
+
+    /**
+     * Cached value together with a stamp of inputs from which it was computed
+     */
+    private static class Entry {
+        @NotNull
+        final String stamp;
+
+        @Nullable
+        final Object value;
+
+        Entry(@NotNull final String stamp, @Nullable final Object value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+
+    @NotNull
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Returns a cache stored in the <code>pluginContext</code>, creating it if necessary.
+     *
+     * @param pluginContext context shared by mojos of this plugin; if <code>null</code> (e.g. a mojo was not created
+     *                      by Maven) a new, not shared cache is returned
+     * @return SessionCache cache
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public static SessionCache getInstance(@Nullable final Map pluginContext) {
+        if (pluginContext == null) {
+            return new SessionCache();
+        }
+        synchronized (pluginContext) {
+            SessionCache cache = (SessionCache) pluginContext.get(CONTEXT_KEY);
+            if (cache == null) {
+                cache = new SessionCache();
+                pluginContext.put(CONTEXT_KEY, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Returns a stamp of a file which changes when the file is created, deleted or modified.
+     *
+     * @param file file to check, can be <code>null</code>
+     * @return String "path:size:last modified" or "path:missing"
+     */
+    @NotNull
+    public static String fileStamp(@Nullable final File file) {
+        if (file == null) {
+            return "";
+        }
+        final long lastModified = file.lastModified();
+        return lastModified == 0L
+                ? file.getAbsolutePath() + ":missing"
+                : file.getAbsolutePath() + ':' + file.length() + ':' + lastModified;
+    }
+
+    /**
+     * Returns true if the cache contains an entry for the <code>key</code> computed from inputs having the same
+     * <code>stamp</code>. Note that a cached value can be <code>null</code>.
+     *
+     * @param key   entry key
+     * @param stamp stamp of current inputs
+     * @return boolean true if entry is present and up to date
+     */
+    public boolean contains(@NotNull final String key, @NotNull final String stamp) {
+        final Entry entry = entries.get(key);
+        return entry != null && entry.stamp.equals(stamp);
+    }
+
+    /**
+     * Returns a value cached for the <code>key</code>, if it was computed from inputs having the same
+     * <code>stamp</code>.
+     *
+     * @param key   entry key
+     * @param stamp stamp of current inputs
+     * @return Object cached value or <code>null</code> if not present or out of date
+     */
+    @Nullable
+    public Object get(@NotNull final String key, @NotNull final String stamp) {
+        final Entry entry = entries.get(key);
+        return entry != null && entry.stamp.equals(stamp) ? entry.value : null;
+    }
+
+    /**
+     * Stores a <code>value</code> computed from inputs having the <code>stamp</code>, replacing a previous one.
+     *
+     * @param key   entry key
+     * @param stamp stamp of inputs
+     * @param value value to cache, can be <code>null</code>
+     */
+    public void put(@NotNull final String key, @NotNull final String stamp, @Nullable final Object value) {
+        entries.put(key, new Entry(stamp, value));
+    }
+}
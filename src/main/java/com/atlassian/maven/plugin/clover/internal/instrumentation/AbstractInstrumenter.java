@@ -20,7 +20,6 @@ package com.atlassian.maven.plugin.clover.internal.instrumentation;
  */
 
 import clover.org.apache.commons.lang3.StringUtils;
-import com.atlassian.clover.CloverInstr;
 import com.atlassian.clover.Logger;
 import com.atlassian.clover.spi.lang.Language;
 import com.atlassian.maven.plugin.clover.MethodWithMetricsContext;
@@ -34,14 +33,15 @@ import com.atlassian.maven.plugin.clover.internal.scanner.LanguageFileExtensionF
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Iterables;
 import org.apache.maven.plugin.MojoExecutionException;
-import org.codehaus.plexus.util.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import static clover.org.apache.commons.lang3.StringUtils.defaultString;
 
@@ -54,6 +54,12 @@ public abstract class AbstractInstrumenter {
     String outputSourceDirectory;
     private static final String PROP_PROJECT_BUILD_SOURCEENCODING = "project.build.sourceEncoding";
 
+    /** Number of the slowest files listed in the instrumentation timings report */
+    private static final int SLOWEST_FILES_REPORTED = 10;
+
+    /** CLI options for CloverInstr, built on first use, see {@link #getCliOptions()} */
+    private List<String> cliOptions;
+
     public AbstractInstrumenter(final CompilerConfiguration configuration, final String outputSourceDirectory) {
         this.configuration = configuration;
         this.outputSourceDirectory = outputSourceDirectory;
@@ -70,14 +76,50 @@ public abstract class AbstractInstrumenter {
      * @see com.atlassian.maven.plugin.clover.CloverInstrumentInternalMojo#redirectOutputDirectories()
      */
     public void instrument() throws MojoExecutionException {
+        final ExcludedFileCopier.Strategy copyStrategy = getCopyStrategy();
+        final InstrumentationTimings timings = new InstrumentationTimings();
+        final long scanStarted = System.nanoTime();
         final CloverSourceScanner scanner = getSourceScanner();
         // get source files to be instrumented, but only for Java as they will be instrumented by CloverInstr
-        final Map<String, String[]> javaFilesToInstrument = scanner.getSourceFilesToInstrument(LanguageFileExtensionFilter.JAVA_LANGUAGE, true);
-        if (javaFilesToInstrument.isEmpty()) {
+        final InstrumentationManifest manifest;
+        final Map<String, String[]> javaFilesToInstrument;
+        if (configuration.isIncrementalInstrumentation()) {
+            manifest = loadManifest();
+            javaFilesToInstrument = selectModifiedFiles(manifest,
+                    scanner.getAllSourceFiles(LanguageFileExtensionFilter.JAVA_LANGUAGE, true));
+            removeDeletedFiles(manifest);
+        } else {
+            manifest = null;
+            javaFilesToInstrument = scanner.getSourceFilesToInstrument(LanguageFileExtensionFilter.JAVA_LANGUAGE, true);
+        }
+
+        final InstrumentationCache cache = createInstrumentationCache();
+        final Map<String, String[]> allJavaFiles = cache != null
+                ? scanner.getAllSourceFiles(LanguageFileExtensionFilter.JAVA_LANGUAGE, true)
+                : null;
+        final String cacheKey = cache != null ? computeCacheKey(cache, allJavaFiles) : null;
+        timings.addPhaseTime(InstrumentationTimings.Phase.SCAN, scanStarted);
+        if (copyStrategy != ExcludedFileCopier.Strategy.COPY) {
+            // instrumented sources must not be written through links created for files excluded in a previous build
+            unlinkTargets(allJavaFiles != null ? allJavaFiles : javaFilesToInstrument);
+        }
+
+        if (cacheKey != null && !allJavaFiles.isEmpty()
+                && cache.restore(cacheKey, new File(outputSourceDirectory), getConfiguration().resolveCloverDatabase())) {
+            getConfiguration().getLog().info("Clover instrumented " + getSourceType()
+                    + " sources restored from the instrumentation cache");
+        } else if (cacheKey != null && !allJavaFiles.isEmpty()) {
+            // cached entry must contain results of instrumentation of all files
+            instrumentSources(allJavaFiles, outputSourceDirectory, timings);
+            cache.store(cacheKey, new File(outputSourceDirectory), getConfiguration().resolveCloverDatabase());
+        } else if (javaFilesToInstrument.isEmpty()) {
             getConfiguration().getLog().info("No Clover instrumentation done on source files in: "
                     + getCompileSourceRoots() + " as no matching sources files found (JAVA_LANGUAGE)");
         } else {
-            instrumentSources(javaFilesToInstrument, outputSourceDirectory);
+            instrumentSources(javaFilesToInstrument, outputSourceDirectory, timings);
+        }
+        if (manifest != null) {
+            saveManifest(manifest);
         }
 
         // find groovy files in all compilation roots and copy them
@@ -91,23 +133,70 @@ public abstract class AbstractInstrumenter {
         // 2) however we shall not copy groovy files from 'src/(main|test)/groovy' because these source roots are not
         // being redirected to 'target/clover/src-(test-)instrumented'; furthermore groovy-eclipse-plugin has
         // 'src/(main|test)/groovy' location hardcoded, so copying files would end up with 'duplicate class' build error
-        final Map<String, String[]> groovyFilesToInstrument = scanner.getSourceFilesToInstrument(LanguageFileExtensionFilter.GROOVY_LANGUAGE, true);
+        //
+        // files are copied as they are found, without collecting them first
+        final long copyStarted = System.nanoTime();
+        final ExcludedFileCopier copier = new ExcludedFileCopier(new File(outputSourceDirectory), copyStrategy,
+                getConfiguration().getCopyThreads(), getConfiguration().getLog());
+        try {
+            scanner.visitSourceFiles(LanguageFileExtensionFilter.GROOVY_LANGUAGE, true, true, copier);
+
+            // We need to copy excluded files too as otherwise they won't be in the new Clover source directory and
+            // thus won't be compiled by the compile plugin. This will lead to compilation errors if any other
+            // file depends on any of these excluded files.
+            if (configuration.isCopyExcludedFiles()) {
+                // 'src/(main|test)/groovy' is already filtered-out in visitExcludedFiles()
+                scanner.visitExcludedFiles(copier);
+            }
+            copier.finish();
+        } catch (IOException ex) {
+            throw new MojoExecutionException(ex.getMessage(), ex);
+        } finally {
+            copier.close();
+        }
+        timings.addPhaseTime(InstrumentationTimings.Phase.COPY, copyStarted);
 
-        // copy groovy files
-        if (!groovyFilesToInstrument.isEmpty()) {
-            copyExcludedFiles(groovyFilesToInstrument, outputSourceDirectory);
+        if (configuration.isInstrumentationTimings()) {
+            reportTimings(timings);
         }
+    }
 
-        // We need to copy excluded files too as otherwise they won't be in the new Clover source directory and
-        // thus won't be compiled by the compile plugin. This will lead to compilation errors if any other
-        // file depends on any of these excluded files.
-        if (configuration.isCopyExcludedFiles()) {
-            final Map<String, String[]> explicitlyExcludedFiles = scanner.getExcludedFiles();
-            // 'src/(main|test)/groovy' is already filtered-out in getExcludedFiles()
-            copyExcludedFiles(explicitlyExcludedFiles, outputSourceDirectory);
+    /**
+     * Logs a summary of instrumentation times and writes the full report as JSON into the cloverOutputDirectory,
+     * next to the instrumented sources directory.
+     */
+    private void reportTimings(final InstrumentationTimings timings) throws MojoExecutionException {
+        final File outputDir = new File(outputSourceDirectory);
+        final File jsonFile = new File(outputDir.getParentFile(), "instrumentation-timings-" + getSourceType() + ".json");
+        timings.logSummary(getConfiguration().getLog(), getSourceType(), SLOWEST_FILES_REPORTED);
+        try {
+            timings.writeJson(jsonFile, getSourceType(), SLOWEST_FILES_REPORTED);
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Failed to write instrumentation timings to " + jsonFile, ex);
         }
     }
 
+    /**
+     * Adds everything which affects results of {@link #instrument()} to the <code>fingerprint</code>: instrumentation
+     * options, includes and excludes, how not instrumented files are copied and the state of all source roots.
+     *
+     * @param fingerprint fingerprint to be updated
+     * @throws MojoExecutionException if instrumentation options are invalid
+     */
+    public void addToFingerprint(final InstrumentationFingerprint fingerprint) throws MojoExecutionException {
+        fingerprint.putString("sourceType", getSourceType())
+                .putStrings("option", createManifestOptions())
+                .putStrings("include", new TreeSet<String>(getConfiguration().getIncludes()))
+                .putStrings("exclude", new TreeSet<String>(getConfiguration().getExcludes()))
+                .putString("includesAllSourceRoots", String.valueOf(getConfiguration().isIncludesAllSourceRoots()))
+                .putString("copyExcludedFiles", String.valueOf(getConfiguration().isCopyExcludedFiles()))
+                .putString("copyStrategy", getConfiguration().getCopyStrategy());
+        for (final String sourceRoot : getCompileSourceRoots()) {
+            fingerprint.putSourceTree(new File(sourceRoot));
+        }
+        fingerprint.addOutput(new File(outputSourceDirectory));
+    }
+
     public String redirectSourceDirectories() {
         return redirectSourceDirectories(outputSourceDirectory);
     }
@@ -172,47 +261,168 @@ public abstract class AbstractInstrumenter {
         }
     }
 
+    private ExcludedFileCopier.Strategy getCopyStrategy() throws MojoExecutionException {
+        final String copyStrategy = getConfiguration().getCopyStrategy();
+        try {
+            return copyStrategy == null ? ExcludedFileCopier.Strategy.COPY : ExcludedFileCopier.Strategy.fromString(copyStrategy);
+        } catch (IllegalArgumentException ex) {
+            throw new MojoExecutionException("Invalid copyStrategy '" + copyStrategy
+                    + "', valid values are: copy, hardlink, symlink");
+        }
+    }
+
+    private void unlinkTargets(final Map<String, String[]> sourceFiles) throws MojoExecutionException {
+        try {
+            ExcludedFileCopier.unlinkTargets(sourceFiles, new File(outputSourceDirectory));
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Failed to remove links from [" + outputSourceDirectory + "]", ex);
+        }
+    }
+
+    private InstrumentationCache createInstrumentationCache() {
+        final File cacheDir = getConfiguration().getInstrumentationCache();
+        return cacheDir != null
+                ? new InstrumentationCache(cacheDir, getConfiguration().getProject().getBasedir(),
+                        new File(getConfiguration().resolveCloverDatabase()), getConfiguration().getLog())
+                : null;
+    }
+
+    private String computeCacheKey(final InstrumentationCache cache, final Map<String, String[]> sourceFiles)
+            throws MojoExecutionException {
+        try {
+            return cache.computeKey(getCliOptions(), sourceFiles);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read source files for the instrumentation cache", e);
+        }
+    }
+
     /**
-     * Copy all files that have been excluded by the user (using the excludes configuration property). This is required
-     * as otherwise the excluded files won't be in the new Clover source directory and thus won't be compiled by the
-     * compile plugin. This will lead to compilation errors if any other Java file depends on any of them.
-     *
-     * @throws MojoExecutionException if a failure happens during the copy
+     * Reads the manifest of previously instrumented files. If instrumented sources or the Clover database are
+     * missing, the manifest is invalidated so that all files are instrumented again.
+     */
+    private InstrumentationManifest loadManifest() throws MojoExecutionException {
+        final File manifestFile = getManifestFile();
+        try {
+            final InstrumentationManifest manifest = new InstrumentationManifest(manifestFile,
+                    getConfiguration().getProject().getBasedir(), createManifestOptions());
+            if (!new File(outputSourceDirectory).isDirectory()
+                    || !new File(getConfiguration().resolveCloverDatabase()).exists()) {
+                manifest.invalidate();
+            }
+            if (manifest.isConfigChanged()) {
+                getConfiguration().getLog().info("Clover instrumentation configuration has changed or no previous "
+                        + "instrumentation was found, instrumenting all " + getSourceType() + " source files");
+            }
+            return manifest;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read Clover instrumentation manifest [" + manifestFile + "]", e);
+        }
+    }
+
+    private void saveManifest(final InstrumentationManifest manifest) throws MojoExecutionException {
+        try {
+            manifest.save();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write Clover instrumentation manifest [" + getManifestFile() + "]", e);
+        }
+    }
+
+    /**
+     * @return File - manifest is stored in the cloverOutputDirectory, next to the instrumented sources directory
+     */
+    private File getManifestFile() {
+        final File outputDir = new File(outputSourceDirectory);
+        return new File(outputDir.getParentFile(), outputDir.getName() + ".manifest");
+    }
+
+    /**
+     * Returns CloverInstr options which affect the instrumented code; the verbose flag is skipped as it depends
+     * on the log level only.
      */
-    private void copyExcludedFiles(final Map<String, String[]> excludedFiles, final String targetDirectory) throws MojoExecutionException {
-        for (String sourceRoot : excludedFiles.keySet()) {
-            final String[] filesInSourceRoot = excludedFiles.get(sourceRoot);
+    private List<String> createManifestOptions() throws MojoExecutionException {
+        final List<String> options = getCliOptions();
+        options.remove("-v");
+        return options;
+    }
 
-            for (String fileName : filesInSourceRoot) {
-                final File srcFile = new File(sourceRoot, fileName);
+    /**
+     * From all <code>sourceFiles</code> select those which are new or were modified since the last instrumentation.
+     *
+     * @param manifest    manifest of the previous instrumentation
+     * @param sourceFiles Map(source root, files)
+     * @return Map(source root, files) - files to be instrumented
+     */
+    @VisibleForTesting
+    static Map<String, String[]> selectModifiedFiles(final InstrumentationManifest manifest,
+                                                     final Map<String, String[]> sourceFiles) throws MojoExecutionException {
+        final Map<String, String[]> modifiedFiles = new HashMap<String, String[]>();
+        for (final Map.Entry<String, String[]> entry : sourceFiles.entrySet()) {
+            final List<String> modifiedInRoot = new ArrayList<String>();
+            for (final String fileName : entry.getValue()) {
+                final File sourceFile = new File(entry.getKey(), fileName);
                 try {
-                    configuration.getLog().debug("Copying excluded file: " + srcFile.getAbsolutePath() + " to " + targetDirectory);
-                    FileUtils.copyFile(srcFile, new File(targetDirectory,
-                            srcFile.getPath().substring(sourceRoot.length())));
+                    if (manifest.isModified(sourceFile)) {
+                        modifiedInRoot.add(fileName);
+                    }
                 } catch (IOException e) {
-                    throw new MojoExecutionException("Failed to copy excluded file [" + srcFile + "] to ["
-                            + targetDirectory + "]", e);
+                    throw new MojoExecutionException("Failed to read source file [" + sourceFile + "]", e);
                 }
             }
+            if (!modifiedInRoot.isEmpty()) {
+                modifiedFiles.put(entry.getKey(), Iterables.toArray(modifiedInRoot, String.class));
+            }
         }
+        return modifiedFiles;
     }
 
-    private void instrumentSources(final Map<String, String[]> filesToInstrument, final String outputDir) throws MojoExecutionException {
+    /**
+     * Removes instrumented copies of source files which were deleted since the last instrumentation, so that
+     * they are not compiled anymore.
+     */
+    private void removeDeletedFiles(final InstrumentationManifest manifest) {
+        for (final String instrumentedPath : manifest.getDeletedFiles()) {
+            final File instrumentedFile = new File(outputSourceDirectory, instrumentedPath);
+            getConfiguration().getLog().debug("Removing instrumented copy of deleted file: " + instrumentedFile);
+            if (instrumentedFile.exists() && !instrumentedFile.delete()) {
+                getConfiguration().getLog().warn("Failed to delete " + instrumentedFile);
+            }
+        }
+    }
+
+    /**
+     * Instruments Java sources in one CloverInstr session per batch, never concurrently. Clover numbers the coverage
+     * slots of every session from zero and compiles the numbers and the database path into the instrumented code,
+     * so sources instrumented in parallel into separate databases would record coverage into those databases and
+     * could not be merged into the one clover.db used by tests, optimization, snapshots and reports.
+     */
+    private void instrumentSources(final Map<String, String[]> filesToInstrument, final String outputDir,
+                                   final InstrumentationTimings timings) throws MojoExecutionException {
 
         Logger.setInstance(new MvnLogger(configuration.getLog()));
         // only make dirs when there is src to instrument. see CLMVN-118
         new File(outputDir).mkdirs();
-        int result = CloverInstr.mainImpl(createCliArgs(filesToInstrument, outputDir));
-        if (result != 0) {
-            throw new MojoExecutionException("Clover has failed to instrument the source files "
-                    + "in the [" + outputDir + "] directory");
+
+        new BatchInstrumenter(getCliOptions(), outputDir, getConfiguration().getInstrumentBatchSize(),
+                getConfiguration().getLog(), timings).instrument(filesToInstrument);
+    }
+
+    /**
+     * Returns the CLI options to be passed to CloverInstr. They are needed by the manifest, the instrumentation cache,
+     * the fingerprint and the instrumentation itself, so they are built and logged only once.
+     *
+     * @return the CLI options to be passed to CloverInstr, without the list of source files; a modifiable copy
+     */
+    private List<String> getCliOptions() throws MojoExecutionException {
+        if (cliOptions == null) {
+            cliOptions = createCliOptions(outputSourceDirectory);
         }
+        return new ArrayList<String>(cliOptions);
     }
 
     /**
-     * @return the CLI args to be passed to CloverInstr
+     * @return the CLI options to be passed to CloverInstr, without the list of source files
      */
-    private String[] createCliArgs(final Map<String, String[]> filesToInstrument, final String outputDir) throws MojoExecutionException {
+    private List<String> createCliOptions(final String outputDir) throws MojoExecutionException {
         final List<String> parameters = new ArrayList<String>();
 
         parameters.add("-p");
@@ -269,14 +479,6 @@ public abstract class AbstractInstrumenter {
             parameters.add(getConfiguration().getInstrumentLambda());
         }
 
-        for (final String srcDir : filesToInstrument.keySet()) {
-            final String[] filesInSourceRoot = filesToInstrument.get(srcDir);
-            for (String s : filesInSourceRoot) {
-                File file = new File(srcDir, s);
-                parameters.add(file.getPath());
-            }
-        }
-
         // custom contexts
         addCustomContexts(parameters, getConfiguration().getMethodContexts().entrySet(), "-mc");
         addCustomContexts(parameters, getConfiguration().getStatementContexts().entrySet(), "-sc");
@@ -293,7 +495,7 @@ public abstract class AbstractInstrumenter {
             }
         }
 
-        return Iterables.toArray(parameters, String.class);
+        return parameters;
     }
 
     private void addCustomContexts(final List<String> parameters, final Set<Map.Entry<String, String>> contexts, final String flag) {
@@ -0,0 +1,239 @@
+package com.atlassian.maven.plugin.clover.internal.instrumentation;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.atlassian.clover.CloverInstr;
+import com.atlassian.clover.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instruments Java sources found by the source scanner using CloverInstr.
+ *
+ * By default all files are passed to a single CloverInstr call. If a batch size is set, files are instrumented by
+ * consecutive CloverInstr calls of at most that many files, and only arguments of the current batch are built. Every
+ * call appends to the same Clover database, and the parser and session state is released after each of them.
+ *
+ * Per-file times are taken from messages which CloverInstr logs after every file. CloverInstr reads, parses,
+ * instruments and writes a file in one step and doesn't expose these steps separately, so they are timed together.
+ * If CloverInstr didn't report some files, a warning is logged and the remaining time of the batch is added to the
+ * instrumentation phase only.
+ */
+class BatchInstrumenter {
+
+    /**
+     * Prefix of the message logged by Clover's Instrumenter when a file has been instrumented and written
+     */
+    private static final String PROCESSED_FILE_PREFIX = "Processed '";
+
+    /**
+     * Message logged by Clover's Instrumenter after the database has been loaded, before the first file is processed
+     */
+    private static final String PROCESSING_FILES_PREFIX = "Processing files at ";
+
+    @NotNull
+    private final List<String> cliOptions;
+
+    @NotNull
+    private final String outputDir;
+
+    private final int batchSize;
+
+    @NotNull
+    private final Log log;
+
+    @NotNull
+    private final InstrumentationTimings timings;
+
+    /**
+     * @param cliOptions options for CloverInstr (without the list of source files)
+     * @param outputDir  directory with instrumented sources
+     * @param batchSize  maximum number of files per CloverInstr call, 0 or less means no limit
+     * @param log        logger
+     * @param timings    collects times of instrumentation of files
+     */
+    BatchInstrumenter(@NotNull final List<String> cliOptions, @NotNull final String outputDir, final int batchSize,
+                      @NotNull final Log log, @NotNull final InstrumentationTimings timings) {
+        this.cliOptions = cliOptions;
+        this.outputDir = outputDir;
+        this.batchSize = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+        this.log = log;
+        this.timings = timings;
+    }
+
+    /**
+     * Instruments all <code>sourceFiles</code> in a single CloverInstr call, or in consecutive calls if a batch size
+     * is set.
+     *
+     * @param sourceFiles Map(source root, files relative to the root) - files to be instrumented
+     * @throws MojoExecutionException if instrumentation fails
+     */
+    void instrument(@NotNull final Map<String, String[]> sourceFiles) throws MojoExecutionException {
+        int fileCount = 0;
+        for (final String[] filesInRoot : sourceFiles.values()) {
+            fileCount += filesInRoot.length;
+        }
+        final int batchCount = Math.max(getBatchCount(fileCount, batchSize), 1);
+
+        final Logger previousLogger = Logger.getInstance();
+        final FileTimingLogger timingLogger = new FileTimingLogger(previousLogger, timings);
+        Logger.setInstance(timingLogger);
+        int processedCount = 0;
+        try {
+            final List<String> batchFiles = new ArrayList<String>(Math.min(fileCount, batchSize));
+            int batch = 0;
+            for (final Map.Entry<String, String[]> entry : sourceFiles.entrySet()) {
+                for (final String fileName : entry.getValue()) {
+                    batchFiles.add(new File(entry.getKey(), fileName).getPath());
+                    if (batchFiles.size() == batchSize) {
+                        processedCount += instrumentBatch(batchFiles, ++batch, batchCount, timingLogger);
+                    }
+                }
+            }
+            if (!batchFiles.isEmpty() || batch == 0) {
+                processedCount += instrumentBatch(batchFiles, ++batch, batchCount, timingLogger);
+            }
+        } finally {
+            Logger.setInstance(previousLogger);
+        }
+
+        if (processedCount < fileCount) {
+            log.warn("Clover reported " + processedCount + " of " + fileCount + " source files as processed, "
+                    + "instrumentation times of the other files are not available");
+        }
+    }
+
+    /**
+     * Instruments files of one batch and clears the list.
+     *
+     * @return int number of files reported as processed by CloverInstr
+     */
+    private int instrumentBatch(@NotNull final List<String> batchFiles, final int batch, final int batchCount,
+                                 @NotNull final FileTimingLogger timingLogger) throws MojoExecutionException {
+        if (batchCount > 1) {
+            log.info("Instrumenting batch " + batch + " of " + batchCount + " (" + batchFiles.size() + " source files)");
+        }
+        // a new CloverInstr call loads the database saved by the previous one and appends to it
+        timingLogger.startBatch();
+        final int result = CloverInstr.mainImpl(createCliArgs(batchFiles));
+        // time after the last reported file, e.g. saving of the database
+        timings.addPhaseTime(InstrumentationTimings.Phase.INSTRUMENT, timingLogger.fileStarted);
+        if (result != 0) {
+            throw new MojoExecutionException("Clover has failed to instrument the source files "
+                    + "in the [" + outputDir + "] directory");
+        }
+        batchFiles.clear();
+        return timingLogger.processedCount;
+    }
+
+    /**
+     * Returns number of batches needed to instrument <code>fileCount</code> files.
+     *
+     * @param fileCount number of files
+     * @param batchSize maximum number of files in a batch
+     * @return int
+     */
+    @VisibleForTesting
+    static int getBatchCount(final int fileCount, final int batchSize) {
+        return (int) ((fileCount + (long) batchSize - 1) / batchSize);
+    }
+
+    private String[] createCliArgs(@NotNull final List<String> files) {
+        final List<String> args = new ArrayList<String>(cliOptions.size() + files.size());
+        args.addAll(cliOptions);
+        args.addAll(files);
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Passes all messages to the logger used by the plugin and measures time between consecutive files reported
+     * as processed by Clover's Instrumenter, i.e. time of reading, instrumentation and writing of every file. Time
+     * outside of files, like loading of the database, is added to the instrumentation phase only.
+     */
+    private static class FileTimingLogger extends Logger {
+        @NotNull
+        private final Logger delegate;
+
+        @NotNull
+        private final InstrumentationTimings timings;
+
+        private long fileStarted;
+
+        /** Number of files of the current batch reported as processed */
+        private int processedCount;
+
+        FileTimingLogger(@NotNull final Logger delegate, @NotNull final InstrumentationTimings timings) {
+            this.delegate = delegate;
+            this.timings = timings;
+        }
+
+        void startBatch() {
+            processedCount = 0;
+            startFile();
+        }
+
+        void startFile() {
+            fileStarted = System.nanoTime();
+        }
+
+        @Override
+        public void log(final int level, final String msg, final Throwable t) {
+            if (msg != null) {
+                if (msg.startsWith(PROCESSING_FILES_PREFIX)) {
+                    // loading of the database
+                    timings.addPhaseTime(InstrumentationTimings.Phase.INSTRUMENT, fileStarted);
+                    startFile();
+                } else {
+                    final File sourceFile = getProcessedFile(msg);
+                    if (sourceFile != null) {
+                        timings.addFileTime(sourceFile, fileStarted);
+                        processedCount++;
+                        startFile();
+                    }
+                }
+            }
+            delegate.log(level, msg, t);
+        }
+    }
+
+    /**
+     * @param msg message logged by Clover, like "Processed 'Foo.java' to 'out/Foo.java'"
+     * @return File source file reported as processed or <code>null</code> if it's not such message
+     */
+    @VisibleForTesting
+    @Nullable
+    static File getProcessedFile(@NotNull final String msg) {
+        if (msg.startsWith(PROCESSED_FILE_PREFIX)) {
+            final int end = msg.indexOf("' to '", PROCESSED_FILE_PREFIX.length());
+            if (end > 0) {
+                return new File(msg.substring(PROCESSED_FILE_PREFIX.length(), end));
+            }
+        }
+        return null;
+    }
+}
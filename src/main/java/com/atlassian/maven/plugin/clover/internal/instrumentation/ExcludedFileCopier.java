@@ -0,0 +1,337 @@
+package com.atlassian.maven.plugin.clover.internal.instrumentation;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.atlassian.maven.plugin.clover.internal.scanner.SourceFileVisitor;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.maven.plugin.logging.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Transfers files which are not instrumented (excluded files, Groovy files) to the directory with instrumented
+ * sources. Files are copied, hard-linked or symlinked according to the {@link Strategy}; a file whose target is
+ * already identical is skipped. If a link cannot be created (e.g. the target is on a different file system),
+ * the file is copied.
+ *
+ * With more than one thread, transfers are performed by a pool of worker threads; call {@link #finish()} to wait
+ * for their completion and {@link #close()} to stop the pool.
+ */
+class ExcludedFileCopier implements SourceFileVisitor {
+
+    enum Strategy {
+        /** Copy file content, preserving a timestamp */
+        COPY,
+        /** Create a hard link to the source file */
+        HARDLINK,
+        /** Create a symbolic link to the source file */
+        SYMLINK;
+
+        /**
+         * @param name strategy name, case insensitive
+         * @return Strategy
+         * @throws IllegalArgumentException if name is not known
+         */
+        @NotNull
+        static Strategy fromString(@NotNull final String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    /** How many transfers per thread can be queued before visitFile() blocks */
+    private static final int QUEUED_FILES_PER_THREAD = 64;
+
+    @NotNull
+    private final File targetDirectory;
+
+    @NotNull
+    private final Strategy strategy;
+
+    @NotNull
+    private final Log log;
+
+    /** <code>null</code> if files are transferred on the calling thread */
+    @Nullable
+    private final ExecutorService executor;
+
+    @Nullable
+    private final Semaphore queueSlots;
+
+    private final List<Future<Boolean>> pendingTransfers = new ArrayList<Future<Boolean>>();
+
+    /** Set after a first failed attempt to create a link, so that next files are copied straight away */
+    private volatile boolean linkUnsupported;
+
+    private int transferredFiles;
+
+    private int skippedFiles;
+
+    ExcludedFileCopier(@NotNull final File targetDirectory, @NotNull final Strategy strategy, final int threads,
+                       @NotNull final Log log) {
+        this.targetDirectory = targetDirectory;
+        this.strategy = strategy;
+        this.log = log;
+        if (threads > 1) {
+            this.executor = Executors.newFixedThreadPool(threads);
+            this.queueSlots = new Semaphore(threads * QUEUED_FILES_PER_THREAD);
+        } else {
+            this.executor = null;
+            this.queueSlots = null;
+        }
+    }
+
+    public void visitFile(final String sourceRoot, final String fileName) throws IOException {
+        final File srcFile = new File(sourceRoot, fileName);
+        final File targetFile = new File(targetDirectory, fileName);
+        if (executor == null) {
+            countTransfer(transferFile(srcFile, targetFile));
+            return;
+        }
+
+        checkCompletedTransfers();
+        try {
+            queueSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Copying of excluded files has been interrupted", e);
+        }
+        pendingTransfers.add(executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws IOException {
+                try {
+                    return transferFile(srcFile, targetFile);
+                } finally {
+                    queueSlots.release();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Waits until all files are transferred.
+     *
+     * @throws IOException if any of files could not be transferred
+     */
+    void finish() throws IOException {
+        for (final Future<Boolean> transfer : pendingTransfers) {
+            countTransfer(getTransferResult(transfer));
+        }
+        pendingTransfers.clear();
+        log.debug("Excluded files: " + transferredFiles + " transferred (" + strategy + "), "
+                + skippedFiles + " up to date");
+    }
+
+    /**
+     * Stops worker threads. Transfers which were not finished yet are cancelled.
+     */
+    void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Removes links to source files from the <code>outputDirectory</code>, so that instrumented sources written
+     * there will not overwrite original files. Such links could have been created for files which were excluded
+     * in a previous build.
+     *
+     * Excluded files are linked under their path relative to the source root, but CloverInstr writes a file under
+     * the path of its package, which may differ. Both keep the file name, so every file in the
+     * <code>outputDirectory</code> named like one of the <code>sourceFiles</code> is checked.
+     *
+     * @param sourceFiles     Map(source root, files) which are going to be instrumented
+     * @param outputDirectory directory with instrumented sources
+     * @throws IOException if a link could not be removed
+     */
+    static void unlinkTargets(@NotNull final Map<String, String[]> sourceFiles, @NotNull final File outputDirectory)
+            throws IOException {
+        if (!outputDirectory.isDirectory()) {
+            return;
+        }
+        final Map<String, List<Path>> sourcesByName = new HashMap<String, List<Path>>();
+        for (final Map.Entry<String, String[]> entry : sourceFiles.entrySet()) {
+            for (final String fileName : entry.getValue()) {
+                final File sourceFile = new File(entry.getKey(), fileName);
+                List<Path> sources = sourcesByName.get(sourceFile.getName());
+                if (sources == null) {
+                    sources = new ArrayList<Path>(1);
+                    sourcesByName.put(sourceFile.getName(), sources);
+                }
+                sources.add(sourceFile.toPath());
+            }
+        }
+        if (sourcesByName.isEmpty()) {
+            return;
+        }
+
+        Files.walkFileTree(outputDirectory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path target, final BasicFileAttributes attrs) throws IOException {
+                final List<Path> sources = sourcesByName.get(target.getFileName().toString());
+                if (sources != null && isLinkToAny(target, attrs, sources)) {
+                    Files.delete(target);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return boolean <code>true</code> if <code>target</code> is a symbolic or hard link to one of
+     * <code>sources</code>
+     */
+    private static boolean isLinkToAny(@NotNull final Path target, @NotNull final BasicFileAttributes attrs,
+                                       @NotNull final List<Path> sources) throws IOException {
+        for (final Path source : sources) {
+            if (attrs.isSymbolicLink()
+                    ? Files.readSymbolicLink(target).equals(source.toAbsolutePath())
+                    : Files.exists(source) && Files.isSameFile(target, source)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if <code>target</code> is already the same as a result of transferring
+     * <code>source</code> using the <code>strategy</code> would be.
+     *
+     * @param source   source file
+     * @param target   target file, may not exist
+     * @param strategy how file is transferred
+     * @return boolean
+     * @throws IOException if file attributes could not be read
+     */
+    @VisibleForTesting
+    static boolean isIdentical(@NotNull final Path source, @NotNull final Path target, @NotNull final Strategy strategy)
+            throws IOException {
+        if (!Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        final BasicFileAttributes targetAttrs = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        switch (strategy) {
+            case SYMLINK:
+                return targetAttrs.isSymbolicLink()
+                        && Files.readSymbolicLink(target).equals(source.toAbsolutePath());
+            case HARDLINK:
+                return !targetAttrs.isSymbolicLink() && Files.isSameFile(source, target);
+            default:
+                if (targetAttrs.isSymbolicLink() || Files.isSameFile(source, target)) {
+                    return false; // a link created previously, replace by a copy
+                }
+                final BasicFileAttributes sourceAttrs = Files.readAttributes(source, BasicFileAttributes.class);
+                return sourceAttrs.size() == targetAttrs.size()
+                        && sourceAttrs.lastModifiedTime().toMillis() == targetAttrs.lastModifiedTime().toMillis();
+        }
+    }
+
+    /**
+     * @return boolean <code>true</code> if file was transferred, <code>false</code> if target was up to date
+     */
+    private boolean transferFile(@NotNull final File srcFile, @NotNull final File targetFile) throws IOException {
+        final Path source = srcFile.toPath();
+        final Path target = targetFile.toPath();
+        try {
+            final Strategy effectiveStrategy = linkUnsupported ? Strategy.COPY : strategy;
+            if (isIdentical(source, target, effectiveStrategy)) {
+                return false;
+            }
+            log.debug("Copying excluded file: " + srcFile.getAbsolutePath() + " to " + targetDirectory);
+            Files.createDirectories(target.getParent());
+            if (effectiveStrategy != Strategy.COPY && createLink(source, target)) {
+                return true;
+            }
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            return true;
+        } catch (IOException e) {
+            throw new IOException("Failed to copy excluded file [" + srcFile + "] to [" + targetDirectory + "]", e);
+        }
+    }
+
+    private boolean createLink(@NotNull final Path source, @NotNull final Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            if (strategy == Strategy.HARDLINK) {
+                Files.createLink(target, source);
+            } else {
+                Files.createSymbolicLink(target, source.toAbsolutePath());
+            }
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            if (!linkUnsupported) {
+                linkUnsupported = true;
+                log.info("Unable to create " + strategy + " in " + targetDirectory + " (" + e
+                        + "), excluded files will be copied");
+            }
+            return false;
+        }
+    }
+
+    private void checkCompletedTransfers() throws IOException {
+        for (int i = pendingTransfers.size() - 1; i >= 0; i--) {
+            if (pendingTransfers.get(i).isDone()) {
+                countTransfer(getTransferResult(pendingTransfers.remove(i)));
+            }
+        }
+    }
+
+    private boolean getTransferResult(@NotNull final Future<Boolean> transfer) throws IOException {
+        try {
+            return transfer.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Copying of excluded files has been interrupted", e);
+        }
+    }
+
+    private void countTransfer(final boolean transferred) {
+        if (transferred) {
+            transferredFiles++;
+        } else {
+            skippedFiles++;
+        }
+    }
+}
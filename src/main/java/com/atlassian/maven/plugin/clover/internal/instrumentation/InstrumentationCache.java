@@ -0,0 +1,457 @@
+package com.atlassian.maven.plugin.clover.internal.instrumentation;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.atlassian.clover.api.CloverException;
+import com.atlassian.clover.registry.Clover2Registry;
+import com.atlassian.clover.registry.entities.FullFileInfo;
+import com.atlassian.clover.registry.metrics.HasMetricsFilter;
+import com.atlassian.clover.util.IOStreamUtils;
+import com_atlassian_clover.CloverVersionInfo;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A content-addressed cache of instrumented sources, which can be shared by many workspaces on the same machine.
+ *
+ * Instrumented sources contain indexes of the Clover database, the database version and its location, therefore
+ * a single file cannot be reused alone. The cache stores results of instrumentation of the whole source set
+ * (main or test sources of a module) together with the Clover database. A cache key is calculated from the
+ * Clover version, CloverInstr options, paths and content of all source files and the key of the database state the
+ * instrumentation has started from. Paths under the project's base directory are taken relative to it. Locations of
+ * the database (<code>-i</code>) and of instrumented sources (<code>-d</code>) are not part of the key, because
+ * they're replaced on restore; all other options, e.g. flush policy, source level, instrumentation level, contexts
+ * or test detection, are. On a hit, the database and instrumented sources are copied and relocated
+ * to the current workspace: the database location passed to coverage recorders in sources and source paths stored
+ * in the database are rewritten.
+ */
+class InstrumentationCache {
+
+    /** Placeholder for the project's base directory used in the cache key */
+    private static final String BASEDIR_PLACEHOLDER = "${basedir}";
+
+    /** CloverInstr options whose values are relocated on restore, so they are not part of the cache key */
+    private static final List<String> LOCATION_OPTIONS = Arrays.asList("-i", "--initstring", "-d", "--destdir");
+
+    /** Key of the database state when no database exists */
+    private static final String NO_DATABASE = "none";
+
+    private static final String ENTRY_PROPERTIES = "entry.properties";
+
+    private static final String ENTRY_DATABASE = "clover.db";
+
+    private static final String ENTRY_SOURCES = "sources";
+
+    private static final String PROP_BASEDIR = "basedir";
+
+    private static final String PROP_INITSTRING = "initstring";
+
+    private static final String PROP_KEY = "key";
+
+    private static final String PROP_LENGTH = "length";
+
+    private static final String PROP_LAST_MODIFIED = "lastModified";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Files are read and written byte-by-byte, only the ASCII-escaped initstring is replaced */
+    private static final Charset BYTE_CHARSET = Charset.forName("ISO-8859-1");
+
+    /** Call through which instrumented code gets a coverage recorder, its first argument is the initstring */
+    private static final String RECORDER_CALL = "com_atlassian_clover.Clover.getRecorder(";
+
+    @NotNull
+    private final File cacheDir;
+
+    @NotNull
+    private final File basedir;
+
+    @NotNull
+    private final File database;
+
+    @NotNull
+    private final Log log;
+
+    /**
+     * @param cacheDir location of the cache
+     * @param basedir  base directory of the project
+     * @param database Clover database used by instrumentation
+     * @param log      logger
+     */
+    InstrumentationCache(@NotNull final File cacheDir, @NotNull final File basedir,
+                         @NotNull final File database, @NotNull final Log log) {
+        this.cacheDir = cacheDir;
+        this.basedir = basedir;
+        this.database = database;
+        this.log = log;
+    }
+
+    /**
+     * Calculates a cache key for instrumentation of <code>sourceFiles</code>.
+     *
+     * @param cliOptions  CloverInstr options, without source files
+     * @param sourceFiles Map(source root, files) - all files to be instrumented
+     * @return String key or <code>null</code> if the cache cannot be used, because the Clover database has been
+     * created or modified outside of the cache
+     * @throws IOException if source files cannot be read
+     */
+    @Nullable
+    String computeKey(@NotNull final List<String> cliOptions, @NotNull final Map<String, String[]> sourceFiles)
+            throws IOException {
+        final String previousKey = getDatabaseKey();
+        if (previousKey == null) {
+            log.debug("Clover database " + database + " was not created by the instrumentation cache, cache is not used");
+            return null;
+        }
+
+        final Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(CloverVersionInfo.getReleaseNum() + "#" + CloverVersionInfo.getBuildStamp(), UTF_8).putByte((byte) 0);
+        hasher.putString(previousKey, UTF_8).putByte((byte) 0);
+        for (int i = 0; i < cliOptions.size(); i++) {
+            final String option = cliOptions.get(i);
+            if (LOCATION_OPTIONS.contains(option)) {
+                i++; // skip the value
+            } else if (!"-v".equals(option)) {
+                hasher.putString(relativize(option), UTF_8).putByte((byte) 0);
+            }
+        }
+
+        final List<String> sortedRoots = new ArrayList<String>(sourceFiles.keySet());
+        Collections.sort(sortedRoots);
+        for (final String sourceRoot : sortedRoots) {
+            final List<String> sortedFiles = new ArrayList<String>();
+            Collections.addAll(sortedFiles, sourceFiles.get(sourceRoot));
+            Collections.sort(sortedFiles);
+            for (final String fileName : sortedFiles) {
+                hasher.putString(relativize(sourceRoot) + '/' + fileName.replace(File.separatorChar, '/'), UTF_8).putByte((byte) 0);
+                hasher.putBytes(Files.asByteSource(new File(sourceRoot, fileName)).hash(Hashing.sha256()).asBytes());
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Restores the Clover database and instrumented sources for the <code>key</code>.
+     *
+     * @param key        cache key
+     * @param outputDir  instrumented sources directory
+     * @param initString location of the Clover database as passed to CloverInstr
+     * @return boolean - <code>true</code> if sources were restored, <code>false</code> if not found in cache or
+     * could not be restored
+     */
+    boolean restore(@NotNull final String key, @NotNull final File outputDir, @NotNull final String initString) {
+        final File entryDir = new File(cacheDir, key);
+        if (!entryDir.isDirectory()) {
+            return false;
+        }
+
+        try {
+            final Properties entry = readProperties(new File(entryDir, ENTRY_PROPERTIES));
+            final String cachedBasedir = entry.getProperty(PROP_BASEDIR);
+            final String cachedInitString = entry.getProperty(PROP_INITSTRING);
+
+            // copy instrumented sources, pointing them to the current database; files left by a previous
+            // instrumentation are removed, as they may not be part of the cached result
+            final File cachedSources = new File(entryDir, ENTRY_SOURCES);
+            final String cachedRecorderCall = RECORDER_CALL + '"' + toUnicodeEscapes(cachedInitString) + '"';
+            final String recorderCall = RECORDER_CALL + '"' + toUnicodeEscapes(initString) + '"';
+            deleteContents(outputDir);
+            @SuppressWarnings("unchecked")
+            final List<String> fileNames = FileUtils.getFileNames(cachedSources, "**", null, false);
+            for (final String fileName : fileNames) {
+                final String content = FileUtils.fileRead(new File(cachedSources, fileName), BYTE_CHARSET.name());
+                final File destFile = new File(outputDir, fileName);
+                destFile.getParentFile().mkdirs();
+                FileUtils.fileWrite(destFile, BYTE_CHARSET.name(),
+                        replaceRecorderCalls(fileName, content, cachedRecorderCall, recorderCall));
+            }
+
+            // copy the database and let it point to source files in the current workspace
+            final File tmpDatabase = new File(database.getPath() + ".restore");
+            FileUtils.copyFile(new File(entryDir, ENTRY_DATABASE), tmpDatabase);
+            relocateSourceFiles(tmpDatabase, new File(cachedBasedir), basedir);
+            database.delete();
+            if (!tmpDatabase.renameTo(database)) {
+                throw new IOException("Failed to rename " + tmpDatabase + " to " + database);
+            }
+            writeDatabaseKey(key);
+            return true;
+        } catch (IOException e) {
+            log.warn("Failed to restore instrumented sources from cache " + entryDir + ": " + e.getMessage());
+        } catch (CloverException e) {
+            log.warn("Failed to restore Clover database from cache " + entryDir + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Stores the Clover database and instrumented sources under the <code>key</code>. Failures are logged only,
+     * as the cache is not required for the build.
+     *
+     * @param key        cache key
+     * @param outputDir  instrumented sources directory
+     * @param initString location of the Clover database as passed to CloverInstr
+     */
+    void store(@NotNull final String key, @NotNull final File outputDir, @NotNull final String initString) {
+        final File entryDir = new File(cacheDir, key);
+        final File tmpEntryDir = new File(cacheDir, key + ".tmp" + System.nanoTime());
+        try {
+            if (!entryDir.isDirectory()) {
+                FileUtils.copyDirectoryStructure(outputDir, new File(tmpEntryDir, ENTRY_SOURCES));
+                FileUtils.copyFile(database, new File(tmpEntryDir, ENTRY_DATABASE));
+
+                final Properties entry = new Properties();
+                entry.setProperty(PROP_BASEDIR, basedir.getPath());
+                entry.setProperty(PROP_INITSTRING, initString);
+                writeProperties(new File(tmpEntryDir, ENTRY_PROPERTIES), entry, "Clover instrumentation cache entry");
+
+                // other workspace could store the same entry in the meantime, keep the first one
+                if (!tmpEntryDir.renameTo(entryDir) && !entryDir.isDirectory()) {
+                    throw new IOException("Failed to rename " + tmpEntryDir + " to " + entryDir);
+                }
+            }
+            writeDatabaseKey(key);
+        } catch (IOException e) {
+            log.warn("Failed to store instrumented sources in cache " + entryDir + ": " + e.getMessage());
+        } finally {
+            if (tmpEntryDir.exists()) {
+                try {
+                    FileUtils.deleteDirectory(tmpEntryDir);
+                } catch (IOException e) {
+                    log.debug("Failed to delete " + tmpEntryDir, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a literal in the same form as CloverInstr writes the initstring to instrumented sources.
+     *
+     * @param value string to escape
+     * @return String with every character as a unicode escape
+     */
+    @VisibleForTesting
+    static String toUnicodeEscapes(@NotNull final String value) {
+        final StringBuilder escaped = new StringBuilder(value.length() * 6);
+        for (int i = 0; i < value.length(); i++) {
+            escaped.append(String.format("\\u%04x", (int) value.charAt(i)));
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Replaces the initstring in all coverage recorder calls of an instrumented file. Fails if a call refers to
+     * a different database than the cached one, so that such a file is never restored with a wrong database.
+     *
+     * @return String - content with replaced calls
+     * @throws IOException if the file contains an unexpected recorder call
+     */
+    @VisibleForTesting
+    static String replaceRecorderCalls(@NotNull final String fileName, @NotNull final String content,
+                                       @NotNull final String cachedRecorderCall, @NotNull final String recorderCall)
+            throws IOException {
+        final StringBuilder replaced = new StringBuilder(content.length());
+        int start = 0;
+        int call;
+        while ((call = content.indexOf(RECORDER_CALL, start)) >= 0) {
+            if (!content.startsWith(cachedRecorderCall, call)) {
+                throw new IOException("Unexpected coverage recorder call in cached file " + fileName);
+            }
+            replaced.append(content, start, call).append(recorderCall);
+            start = call + cachedRecorderCall.length();
+        }
+        return replaced.append(content, start, content.length()).toString();
+    }
+
+    /**
+     * Deletes all files and directories in <code>dir</code>. Symbolic links are deleted, not followed.
+     */
+    private static void deleteContents(@NotNull final File dir) throws IOException {
+        if (!dir.isDirectory()) {
+            return;
+        }
+        final Path root = dir.toPath();
+        java.nio.file.Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+                    throws IOException {
+                java.nio.file.Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path directory, final IOException exc)
+                    throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                if (!directory.equals(root)) {
+                    java.nio.file.Files.delete(directory);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return String - key of the current database state: {@link #NO_DATABASE} if there's no database, the key
+     * recorded by the last restore or store if the database was not modified since then, <code>null</code> otherwise
+     */
+    @Nullable
+    private String getDatabaseKey() throws IOException {
+        if (!database.exists()) {
+            return NO_DATABASE;
+        }
+        final File keyFile = getDatabaseKeyFile();
+        if (!keyFile.isFile()) {
+            return null;
+        }
+        final Properties properties = readProperties(keyFile);
+        final boolean unchanged = String.valueOf(database.length()).equals(properties.getProperty(PROP_LENGTH))
+                && String.valueOf(database.lastModified()).equals(properties.getProperty(PROP_LAST_MODIFIED));
+        return unchanged ? properties.getProperty(PROP_KEY) : null;
+    }
+
+    private void writeDatabaseKey(@NotNull final String key) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(PROP_KEY, key);
+        properties.setProperty(PROP_LENGTH, String.valueOf(database.length()));
+        properties.setProperty(PROP_LAST_MODIFIED, String.valueOf(database.lastModified()));
+        writeProperties(getDatabaseKeyFile(), properties, "Clover instrumentation cache key");
+    }
+
+    private File getDatabaseKeyFile() {
+        return new File(database.getPath() + ".cachekey");
+    }
+
+    /**
+     * Replaces the base directory at the start of a path (compared by whole path elements) with a placeholder.
+     */
+    @VisibleForTesting
+    String relativize(@NotNull final String path) {
+        final File relocated = relocate(path, basedir, new File(BASEDIR_PLACEHOLDER));
+        return relocated != null ? relocated.getPath().replace(File.separatorChar, '/') : path;
+    }
+
+    /**
+     * Returns <code>path</code> moved from <code>fromDir</code> to <code>toDir</code>, or <code>null</code> if it's
+     * not located under <code>fromDir</code> (compared by whole path elements) or is not a valid path at all.
+     */
+    @Nullable
+    private static File relocate(@NotNull final String path, @NotNull final File fromDir, @NotNull final File toDir) {
+        try {
+            final Path file = Paths.get(path);
+            final Path from = fromDir.toPath();
+            return file.startsWith(from) ? toDir.toPath().resolve(from.relativize(file)).toFile() : null;
+        } catch (InvalidPathException e) {
+            return null; // not a path, e.g. a context definition passed to CloverInstr
+        }
+    }
+
+    /**
+     * Rewrites locations of source files stored in the database from <code>fromBasedir</code> to
+     * <code>toBasedir</code>, using {@link FullFileInfo#resolve(com.atlassian.clover.util.Path)}, through which
+     * Clover resolves source files against a source path. The database version is not changed, so it still matches
+     * instrumented sources.
+     */
+    private static void relocateSourceFiles(@NotNull final File database, @NotNull final File fromBasedir,
+                                            @NotNull final File toBasedir) throws CloverException, IOException {
+        if (fromBasedir.equals(toBasedir)) {
+            return;
+        }
+        final Clover2Registry registry = Clover2Registry.fromFile(database);
+        for (final Object file : registry.getProject().getFiles(HasMetricsFilter.ACCEPT_ALL)) {
+            final FullFileInfo fileInfo = (FullFileInfo) file;
+            final File relocated = relocate(fileInfo.getPhysicalFile().getPath(), fromBasedir, toBasedir);
+            if (relocated != null) {
+                fileInfo.resolve(new RelocatedFilePath(relocated));
+            }
+        }
+        registry.saveAndOverwriteFile();
+    }
+
+    /**
+     * A source path which resolves a file to its relocated location, whatever its package path is, as a source
+     * file does not have to be located in a directory matching its package.
+     */
+    private static class RelocatedFilePath extends com.atlassian.clover.util.Path {
+        @NotNull
+        private final File relocatedFile;
+
+        RelocatedFilePath(@NotNull final File relocatedFile) {
+            this.relocatedFile = relocatedFile;
+        }
+
+        @Override
+        public File resolveFile(final String packagePath) {
+            return relocatedFile;
+        }
+    }
+
+    private static Properties readProperties(@NotNull final File file) throws IOException {
+        final Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } finally {
+            IOStreamUtils.close(in);
+        }
+        return properties;
+    }
+
+    private static void writeProperties(@NotNull final File file, @NotNull final Properties properties,
+                                        @NotNull final String comment) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            properties.store(out, comment);
+        } finally {
+            IOStreamUtils.close(out);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.atlassian.maven.plugin.clover.internal.instrumentation;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.atlassian.clover.util.IOStreamUtils;
+import com.atlassian.maven.plugin.clover.internal.scanner.SourceTreeIndex;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com_atlassian_clover.CloverVersionInfo;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Fingerprint of everything which affects the instrumentation step: the Clover version, instrumentation options,
+ * includes/excludes and the state of source trees. Together with it, a fingerprint of the results (instrumented
+ * source directories and the Clover database) is recorded.
+ *
+ * If both fingerprints match those recorded in the previous build, the instrumentation can be skipped entirely.
+ * Source trees are compared by paths, sizes and timestamps of files, so that no source file has to be read.
+ */
+public class InstrumentationFingerprint {
+
+    private static final String INPUTS_KEY = "inputs";
+
+    private static final String OUTPUTS_KEY = "outputs";
+
+    @NotNull
+    private final File fingerprintFile;
+
+    @NotNull
+    private final SourceTreeIndex sourceTreeIndex;
+
+    @NotNull
+    private final Hasher inputs = Hashing.sha256().newHasher();
+
+    @NotNull
+    private final List<File> outputs = new ArrayList<File>();
+
+    @Nullable
+    private String inputsHash;
+
+    /**
+     * @param fingerprintFile location where the fingerprint is stored
+     * @param sourceTreeIndex index used to list source trees
+     */
+    public InstrumentationFingerprint(@NotNull final File fingerprintFile, @NotNull final SourceTreeIndex sourceTreeIndex) {
+        this.fingerprintFile = fingerprintFile;
+        this.sourceTreeIndex = sourceTreeIndex;
+        putString("clover", CloverVersionInfo.getReleaseNum() + "#" + CloverVersionInfo.getBuildStamp());
+    }
+
+    /**
+     * Adds a named input value.
+     *
+     * @param name  name of the input
+     * @param value value, can be <code>null</code>
+     * @return InstrumentationFingerprint this
+     */
+    @NotNull
+    public InstrumentationFingerprint putString(@NotNull final String name, @Nullable final String value) {
+        checkNotFinished();
+        inputs.putString(name, Charsets.UTF_8).putByte((byte) 0);
+        inputs.putString(String.valueOf(value), Charsets.UTF_8).putByte((byte) 0);
+        return this;
+    }
+
+    /**
+     * Adds a named list of input values; order of values matters.
+     *
+     * @param name   name of the input
+     * @param values values
+     * @return InstrumentationFingerprint this
+     */
+    @NotNull
+    public InstrumentationFingerprint putStrings(@NotNull final String name, @NotNull final Iterable<String> values) {
+        for (final String value : values) {
+            putString(name, value);
+        }
+        return this;
+    }
+
+    /**
+     * Adds paths, sizes and timestamps of all files under the <code>sourceRoot</code>.
+     *
+     * @param sourceRoot source directory, may not exist
+     * @return InstrumentationFingerprint this
+     */
+    @NotNull
+    public InstrumentationFingerprint putSourceTree(@NotNull final File sourceRoot) {
+        putString("root", sourceRoot.getAbsolutePath());
+        return putStrings("file", Arrays.asList(sourceTreeIndex.getFileStamps(sourceRoot)));
+    }
+
+    /**
+     * Adds a file or directory produced by the instrumentation. It must be intact in order to skip the next
+     * instrumentation.
+     *
+     * @param output file or directory
+     * @return InstrumentationFingerprint this
+     */
+    @NotNull
+    public InstrumentationFingerprint addOutput(@NotNull final File output) {
+        outputs.add(output);
+        return this;
+    }
+
+    /**
+     * Returns <code>true</code> if inputs are the same as in the previous build and outputs were not changed since.
+     *
+     * @return boolean
+     * @throws IOException if fingerprint file exists but cannot be read
+     */
+    public boolean isUpToDate() throws IOException {
+        if (!fingerprintFile.isFile()) {
+            return false;
+        }
+        final Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(fingerprintFile);
+            properties.load(in);
+        } finally {
+            IOStreamUtils.close(in);
+        }
+        return getInputsHash().equals(properties.getProperty(INPUTS_KEY))
+                && getOutputsHash().equals(properties.getProperty(OUTPUTS_KEY));
+    }
+
+    /**
+     * Removes the recorded fingerprint, e.g. before instrumentation starts, so that a failed or interrupted
+     * instrumentation is never considered up to date.
+     */
+    public void invalidate() {
+        fingerprintFile.delete();
+    }
+
+    /**
+     * Records fingerprints of inputs and of outputs as they are now.
+     *
+     * @throws IOException if fingerprint cannot be written
+     */
+    public void save() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(INPUTS_KEY, getInputsHash());
+        properties.setProperty(OUTPUTS_KEY, getOutputsHash());
+
+        fingerprintFile.getParentFile().mkdirs();
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(fingerprintFile);
+            properties.store(out, "Clover instrumentation fingerprint");
+        } finally {
+            IOStreamUtils.close(out);
+        }
+    }
+
+    @NotNull
+    private String getInputsHash() {
+        if (inputsHash == null) {
+            inputsHash = inputs.hash().toString();
+        }
+        return inputsHash;
+    }
+
+    /**
+     * Outputs change during instrumentation, so they are listed every time using a fresh index.
+     */
+    @NotNull
+    private String getOutputsHash() {
+        final SourceTreeIndex outputIndex = new SourceTreeIndex();
+        final Hasher hasher = Hashing.sha256().newHasher();
+        for (final File output : outputs) {
+            hasher.putString(output.getAbsolutePath(), Charsets.UTF_8).putByte((byte) 0);
+            if (output.isDirectory()) {
+                for (final String stamp : outputIndex.getFileStamps(output)) {
+                    hasher.putString(stamp, Charsets.UTF_8).putByte((byte) 0);
+                }
+            } else if (output.isFile()) {
+                hasher.putLong(output.length()).putLong(output.lastModified());
+            } else {
+                hasher.putString("(missing)", Charsets.UTF_8).putByte((byte) 0);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private void checkNotFinished() {
+        if (inputsHash != null) {
+            throw new IllegalStateException("Fingerprint was already computed");
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.atlassian.maven.plugin.clover.internal.instrumentation;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.atlassian.clover.util.IOStreamUtils;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps content hashes of instrumented source files and a hash of the instrumentation configuration, so that
+ * the next build can find out which source files were added, changed or deleted since the last instrumentation.
+ *
+ * The manifest is stored as a properties file, keyed by a source file path relative to the project's base
+ * directory (or by an absolute path for source roots located outside of it), so that files with the same path in
+ * different source roots are distinct. The value holds the content hash and the path of the instrumented copy
+ * relative to the output directory, which CloverInstr derives from the package declaration rather than from the
+ * location of the source file. A special {@link #CONFIG_KEY} entry holds a hash of the CloverInstr options.
+ */
+class InstrumentationManifest {
+
+    /** Key under which hash of the instrumentation configuration is stored */
+    static final String CONFIG_KEY = "#config";
+
+    /** Version of the manifest format, part of the configuration hash so that older manifests are not used */
+    private static final String FORMAT_VERSION = "2";
+
+    /** Separates the content hash from the path of the instrumented copy */
+    private static final char VALUE_SEPARATOR = '|';
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Optional package annotations (package-info.java) followed by the package declaration */
+    private static final Pattern PACKAGE_DECLARATION = Pattern.compile(
+            "(?:@[\\w.]+\\s*(?:\\([^)]*\\))?\\s*)*package\\s+([\\w.\\s]+?)\\s*;");
+
+    @NotNull
+    private final File manifestFile;
+
+    @NotNull
+    private final File baseDir;
+
+    @NotNull
+    private final String configHash;
+
+    /** (source path, content hash and instrumented path) as read from the manifest file */
+    @NotNull
+    private final Map<String, String> previousEntries = new HashMap<String, String>();
+
+    /** (source path, content hash and instrumented path) for current source files */
+    @NotNull
+    private final Map<String, String> currentEntries = new HashMap<String, String>();
+
+    private boolean configChanged;
+
+    /**
+     * @param manifestFile location of the manifest; if it does not exist, all files will be reported as added
+     * @param baseDir      project's base directory, paths of source files are stored relative to it
+     * @param cliOptions   CloverInstr options (without source files) from which a configuration hash is calculated
+     * @throws IOException if the manifest file exists but cannot be read
+     */
+    InstrumentationManifest(@NotNull final File manifestFile, @NotNull final File baseDir,
+                            @NotNull final List<String> cliOptions) throws IOException {
+        this.manifestFile = manifestFile;
+        this.baseDir = baseDir.getAbsoluteFile();
+        this.configHash = Hashing.sha256().hashString(
+                FORMAT_VERSION + '\n' + Joiner.on('\n').join(cliOptions), UTF_8).toString();
+
+        final Properties properties = new Properties();
+        if (manifestFile.isFile()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(manifestFile);
+                properties.load(in);
+            } finally {
+                IOStreamUtils.close(in);
+            }
+        }
+        configChanged = !configHash.equals(properties.getProperty(CONFIG_KEY));
+        for (final String key : properties.stringPropertyNames()) {
+            if (!CONFIG_KEY.equals(key)) {
+                previousEntries.put(key, properties.getProperty(key));
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the instrumentation configuration differs from the one recorded in the manifest
+     * (or if there was no manifest at all). In such case all source files must be instrumented again.
+     *
+     * @return boolean
+     */
+    boolean isConfigChanged() {
+        return configChanged;
+    }
+
+    /**
+     * Forces a full instrumentation, e.g. when instrumented sources or the Clover database are missing.
+     */
+    void invalidate() {
+        configChanged = true;
+    }
+
+    /**
+     * Calculates a content hash of the <code>sourceFile</code> and compares it with the one from the manifest.
+     *
+     * @param sourceFile file to be checked
+     * @return boolean - <code>true</code> if file is new, was modified or the configuration has changed
+     * @throws IOException if file cannot be read
+     */
+    boolean isModified(@NotNull final File sourceFile) throws IOException {
+        final String key = toKey(sourceFile);
+        final byte[] content = Files.toByteArray(sourceFile);
+        final String hash = Hashing.sha256().hashBytes(content).toString();
+        final String previousEntry = previousEntries.get(key);
+        final boolean modified = previousEntry == null || !hash.equals(getHash(previousEntry));
+
+        // the package declaration is parsed only if the file has changed
+        String instrumentedPath = modified ? null : getEntryInstrumentedPath(previousEntry);
+        if (instrumentedPath == null) {
+            instrumentedPath = getInstrumentedPath(sourceFile.getName(), new String(content, UTF_8));
+        }
+        currentEntries.put(key, hash + VALUE_SEPARATOR + instrumentedPath);
+        return configChanged || modified;
+    }
+
+    /**
+     * Returns instrumented copies of files which were recorded in the manifest but were not checked via
+     * {@link #isModified(File)} in this build, i.e. were deleted or are no longer included. Copies which are
+     * also produced by a current source file (e.g. a file moved to another source root) are not returned.
+     *
+     * @return Set&lt;String&gt; paths relative to the output directory
+     */
+    @NotNull
+    Set<String> getDeletedFiles() {
+        final Set<String> currentPaths = new HashSet<String>();
+        for (final String entry : currentEntries.values()) {
+            currentPaths.add(getEntryInstrumentedPath(entry));
+        }
+        final Set<String> deleted = new HashSet<String>();
+        for (final Map.Entry<String, String> entry : previousEntries.entrySet()) {
+            final String instrumentedPath = getEntryInstrumentedPath(entry.getValue());
+            if (instrumentedPath != null && !currentEntries.containsKey(entry.getKey())
+                    && !currentPaths.contains(instrumentedPath)) {
+                deleted.add(instrumentedPath);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Writes hashes of all files checked in this build together with the current configuration hash.
+     *
+     * @throws IOException if manifest cannot be written
+     */
+    void save() throws IOException {
+        final Properties properties = new Properties();
+        properties.putAll(currentEntries);
+        properties.setProperty(CONFIG_KEY, configHash);
+
+        manifestFile.getParentFile().mkdirs();
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(manifestFile);
+            properties.store(out, "Clover instrumentation manifest");
+        } finally {
+            IOStreamUtils.close(out);
+        }
+    }
+
+    /**
+     * Returns path of the instrumented copy of a Java source file, which CloverInstr writes into a directory
+     * matching its package.
+     *
+     * @param fileName name of the source file
+     * @param content  content of the source file
+     * @return String - platform-independent path relative to the output directory
+     */
+    static String getInstrumentedPath(@NotNull final String fileName, @NotNull final String content) {
+        final Matcher matcher = PACKAGE_DECLARATION.matcher(content);
+        matcher.region(skipWhitespaceAndComments(content), content.length());
+        if (!matcher.lookingAt()) {
+            return fileName; // default package
+        }
+        return matcher.group(1).replaceAll("\\s", "").replace('.', '/') + '/' + fileName;
+    }
+
+    private static int skipWhitespaceAndComments(@NotNull final String content) {
+        int i = 0;
+        while (i < content.length()) {
+            if (Character.isWhitespace(content.charAt(i)) || content.charAt(i) == '\uFEFF') {
+                i++;
+            } else if (content.startsWith("//", i)) {
+                final int end = content.indexOf('\n', i);
+                i = end < 0 ? content.length() : end + 1;
+            } else if (content.startsWith("/*", i)) {
+                final int end = content.indexOf("*/", i + 2);
+                i = end < 0 ? content.length() : end + 2;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    @NotNull
+    private String toKey(@NotNull final File sourceFile) {
+        final File file = sourceFile.getAbsoluteFile();
+        final String path = baseDir.toPath().relativize(file.toPath()).toString();
+        return (path.startsWith("..") ? file.getPath() : path).replace(File.separatorChar, '/');
+    }
+
+    @NotNull
+    private static String getHash(@NotNull final String entry) {
+        final int separator = entry.indexOf(VALUE_SEPARATOR);
+        return separator < 0 ? entry : entry.substring(0, separator);
+    }
+
+    @Nullable
+    private static String getEntryInstrumentedPath(@NotNull final String entry) {
+        final int separator = entry.indexOf(VALUE_SEPARATOR);
+        return separator < 0 ? null : entry.substring(separator + 1);
+    }
+}
@@ -0,0 +1,231 @@
+package com.atlassian.maven.plugin.clover.internal.instrumentation;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.atlassian.clover.util.IOStreamUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import org.apache.maven.plugin.logging.Log;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects how long phases of the instrumentation took and how long instrumentation of every source file took.
+ * Phase totals are summed across threads, so with several copying threads they can exceed the wall-clock time.
+ */
+class InstrumentationTimings {
+
+    enum Phase {
+        /** Searching for source files, checking which of them need instrumentation */
+        SCAN,
+        /** Reading, parsing and instrumenting source files and writing instrumented files */
+        INSTRUMENT,
+        /** Copying files which are not instrumented */
+        COPY
+    }
+
+    /**
+     * Time of instrumentation of one source file
+     */
+    static class FileTiming {
+        @NotNull
+        final String path;
+
+        final long nanos;
+
+        FileTiming(@NotNull final String path, final long nanos) {
+            this.path = path;
+            this.nanos = nanos;
+        }
+    }
+
+    private static final Comparator<FileTiming> SLOWEST_FIRST = new Comparator<FileTiming>() {
+        public int compare(final FileTiming t1, final FileTiming t2) {
+            return t1.nanos < t2.nanos ? 1 : (t1.nanos == t2.nanos ? t1.path.compareTo(t2.path) : -1);
+        }
+    };
+
+    @NotNull
+    private final Map<Phase, AtomicLong> phaseNanos = new EnumMap<Phase, AtomicLong>(Phase.class);
+
+    /** Files are instrumented on one thread only */
+    @NotNull
+    private final List<FileTiming> fileTimings = new ArrayList<FileTiming>();
+
+    InstrumentationTimings() {
+        for (final Phase phase : Phase.values()) {
+            phaseNanos.put(phase, new AtomicLong());
+        }
+    }
+
+    /**
+     * @param phase    phase to which time is added
+     * @param started  value of System.nanoTime() when the operation started
+     */
+    void addPhaseTime(@NotNull final Phase phase, final long started) {
+        phaseNanos.get(phase).addAndGet(System.nanoTime() - started);
+    }
+
+    /**
+     * Records time of instrumentation of a single file, which is also added to {@link Phase#INSTRUMENT}.
+     *
+     * @param sourceFile file instrumented
+     * @param started    value of System.nanoTime() when the instrumentation of the file started
+     */
+    void addFileTime(@NotNull final File sourceFile, final long started) {
+        final long nanos = System.nanoTime() - started;
+        phaseNanos.get(Phase.INSTRUMENT).addAndGet(nanos);
+        fileTimings.add(new FileTiming(sourceFile.getPath(), nanos));
+    }
+
+    long getPhaseNanos(@NotNull final Phase phase) {
+        return phaseNanos.get(phase).get();
+    }
+
+    /**
+     * @param topN maximum number of files to return
+     * @return List&lt;FileTiming&gt; slowest files, the slowest first
+     */
+    @NotNull
+    List<FileTiming> getSlowestFiles(final int topN) {
+        final List<FileTiming> sorted = new ArrayList<FileTiming>(fileTimings);
+        Collections.sort(sorted, SLOWEST_FIRST);
+        return sorted.subList(0, Math.min(topN, sorted.size()));
+    }
+
+    /**
+     * Returns a percentile of per-file instrumentation times, using the nearest-rank method.
+     *
+     * @param percentile value in range 1-100
+     * @return long nanoseconds, 0 if no files were instrumented
+     */
+    long getFilePercentileNanos(final int percentile) {
+        if (fileTimings.isEmpty()) {
+            return 0L;
+        }
+        final long[] nanos = new long[fileTimings.size()];
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = fileTimings.get(i).nanos;
+        }
+        Arrays.sort(nanos);
+        final int rank = (int) Math.ceil(percentile / 100.0 * nanos.length);
+        return nanos[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Logs phase totals, p50/p99 of per-file instrumentation times and the slowest files.
+     *
+     * @param log        where to log
+     * @param sourceType main or test
+     * @param topN       number of slowest files to log
+     */
+    void logSummary(@NotNull final Log log, @NotNull final String sourceType, final int topN) {
+        log.info("Clover instrumentation timings for " + sourceType + " sources:");
+        for (final Phase phase : Phase.values()) {
+            log.info(String.format(Locale.ENGLISH, "  %-10s %8d ms", phase.name().toLowerCase(Locale.ENGLISH),
+                    toMillis(getPhaseNanos(phase))));
+        }
+        log.info(String.format(Locale.ENGLISH, "  %d files instrumented, p50 %d ms, p99 %d ms",
+                fileTimings.size(), toMillis(getFilePercentileNanos(50)), toMillis(getFilePercentileNanos(99))));
+        final List<FileTiming> slowestFiles = getSlowestFiles(topN);
+        if (!slowestFiles.isEmpty()) {
+            log.info("  Slowest files:");
+            for (final FileTiming timing : slowestFiles) {
+                log.info(String.format(Locale.ENGLISH, "  %8d ms  %s", toMillis(timing.nanos), timing.path));
+            }
+        }
+    }
+
+    /**
+     * Writes all timings to a JSON file.
+     *
+     * @param jsonFile   target file
+     * @param sourceType main or test
+     * @param topN       number of slowest files to write
+     * @throws IOException if file cannot be written
+     */
+    void writeJson(@NotNull final File jsonFile, @NotNull final String sourceType, final int topN) throws IOException {
+        jsonFile.getParentFile().mkdirs();
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(jsonFile), Charsets.UTF_8);
+            out.write(toJson(sourceType, topN));
+        } finally {
+            IOStreamUtils.close(out);
+        }
+    }
+
+    @VisibleForTesting
+    String toJson(@NotNull final String sourceType, final int topN) {
+        final StringBuilder json = new StringBuilder();
+        json.append("{\n  \"sourceType\": ").append(quote(sourceType)).append(",\n  \"phasesMillis\": {");
+        String separator = "\n";
+        for (final Phase phase : Phase.values()) {
+            json.append(separator).append("    ").append(quote(phase.name().toLowerCase(Locale.ENGLISH)))
+                    .append(": ").append(toMillis(getPhaseNanos(phase)));
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"files\": ").append(fileTimings.size())
+                .append(",\n  \"p50Millis\": ").append(toMillis(getFilePercentileNanos(50)))
+                .append(",\n  \"p99Millis\": ").append(toMillis(getFilePercentileNanos(99)))
+                .append(",\n  \"slowestFiles\": [");
+        separator = "\n";
+        for (final FileTiming timing : getSlowestFiles(topN)) {
+            json.append(separator).append("    { \"path\": ").append(quote(timing.path))
+                    .append(", \"millis\": ").append(toMillis(timing.nanos)).append(" }");
+            separator = ",\n";
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    private static long toMillis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static String quote(final String value) {
+        final StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (final char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
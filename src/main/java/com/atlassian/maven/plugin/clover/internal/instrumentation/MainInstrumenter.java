@@ -21,6 +21,7 @@ package com.atlassian.maven.plugin.clover.internal.instrumentation;
 
 import com.atlassian.maven.plugin.clover.internal.scanner.CloverSourceScanner;
 import com.atlassian.maven.plugin.clover.internal.scanner.MainSourceScanner;
+import com.atlassian.maven.plugin.clover.internal.scanner.SourceTreeIndex;
 import com.atlassian.maven.plugin.clover.internal.CompilerConfiguration;
 
 import java.io.File;
@@ -33,8 +34,13 @@ public class MainInstrumenter extends AbstractInstrumenter {
     private final MainSourceScanner scanner;
 
     public MainInstrumenter(final CompilerConfiguration configuration, final String outputSourceDirectory) {
+        this(configuration, outputSourceDirectory, new SourceTreeIndex());
+    }
+
+    public MainInstrumenter(final CompilerConfiguration configuration, final String outputSourceDirectory,
+                          final SourceTreeIndex sourceTreeIndex) {
         super(configuration, outputSourceDirectory);
-        scanner = new MainSourceScanner(configuration, outputSourceDirectory);
+        scanner = new MainSourceScanner(configuration, outputSourceDirectory, sourceTreeIndex);
     }
 
     @Override
@@ -21,6 +21,7 @@ package com.atlassian.maven.plugin.clover.internal.instrumentation;
 
 import com.atlassian.maven.plugin.clover.internal.scanner.CloverSourceScanner;
 import com.atlassian.maven.plugin.clover.internal.scanner.TestSourceScanner;
+import com.atlassian.maven.plugin.clover.internal.scanner.SourceTreeIndex;
 import com.atlassian.maven.plugin.clover.internal.CompilerConfiguration;
 
 import java.io.File;
@@ -33,8 +34,13 @@ public class TestInstrumenter extends AbstractInstrumenter {
     private final TestSourceScanner scanner;
 
     public TestInstrumenter(final CompilerConfiguration configuration, final String outputSourceDirectory) {
+        this(configuration, outputSourceDirectory, new SourceTreeIndex());
+    }
+
+    public TestInstrumenter(final CompilerConfiguration configuration, final String outputSourceDirectory,
+                          final SourceTreeIndex sourceTreeIndex) {
         super(configuration, outputSourceDirectory);
-        scanner = new TestSourceScanner(configuration, outputSourceDirectory);
+        scanner = new TestSourceScanner(configuration, outputSourceDirectory, sourceTreeIndex);
     }
 
     @Override
@@ -0,0 +1,141 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.atlassian.clover.util.IOStreamUtils;
+import com.google.common.base.Charsets;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lists files changed in a Git working copy relative to a base revision, using the <code>git</code> command line
+ * client. Changes are:
+ * <ul>
+ * <li>files changed by commits since the merge base of the base revision and HEAD</li>
+ * <li>staged and unstaged modifications of tracked files</li>
+ * <li>untracked files which are not ignored</li>
+ * </ul>
+ * Renamed files are reported under both the old and the new name.
+ */
+public class GitChangeSource {
+
+    @NotNull
+    private final File workingDirectory;
+
+    @NotNull
+    private final String baseRef;
+
+    /**
+     * @param workingDirectory any directory inside the working copy
+     * @param baseRef          base revision, e.g. a branch name, a tag or a commit hash
+     */
+    public GitChangeSource(@NotNull final File workingDirectory, @NotNull final String baseRef) {
+        this.workingDirectory = workingDirectory;
+        this.baseRef = baseRef;
+    }
+
+    /**
+     * Returns changed files.
+     *
+     * @return Set&lt;String&gt; paths relative to the root of the working copy, with '/' as a separator
+     * @throws IOException if git could not be run or has failed (e.g. the base revision does not exist)
+     */
+    @NotNull
+    public Set<String> getChangedFiles() throws IOException {
+        final Set<String> changedFiles = new LinkedHashSet<String>();
+        changedFiles.addAll(git("diff", "--name-only", "--no-renames", baseRef + "...HEAD"));
+        changedFiles.addAll(git("diff", "--name-only", "--no-renames", "HEAD"));
+        changedFiles.addAll(git("ls-files", "--others", "--exclude-standard", "--full-name"));
+        return changedFiles;
+    }
+
+    /**
+     * Returns the root directory of the working copy, to which paths of changed files are relative.
+     *
+     * @return File top level directory
+     * @throws IOException if git could not be run or has failed (e.g. the directory is not in a working copy)
+     */
+    @NotNull
+    public File getTopLevelDirectory() throws IOException {
+        final List<String> lines = git("rev-parse", "--show-toplevel");
+        if (lines.isEmpty()) {
+            throw new IOException("Top level directory of the Git working copy not found for " + workingDirectory);
+        }
+        return new File(lines.get(0));
+    }
+
+    /**
+     * Runs git and returns lines printed to the standard output.
+     */
+    @NotNull
+    private List<String> git(@NotNull final String... arguments) throws IOException {
+        final List<String> command = new ArrayList<String>();
+        command.add("git");
+        // do not quote or escape non-ASCII file names
+        command.add("-c");
+        command.add("core.quotepath=off");
+        command.addAll(Arrays.asList(arguments));
+
+        // errors are redirected to a file, so that the process cannot block on a full stderr pipe
+        final File errorFile = File.createTempFile("clover-git", ".txt");
+        try {
+            final Process process = new ProcessBuilder(command)
+                    .directory(workingDirectory)
+                    .redirectError(errorFile)
+                    .start();
+            final List<String> lines = new ArrayList<String>();
+            BufferedReader in = null;
+            try {
+                process.getOutputStream().close();
+                in = new BufferedReader(new InputStreamReader(process.getInputStream(), Charsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        lines.add(line);
+                    }
+                }
+            } finally {
+                IOStreamUtils.close(in);
+            }
+
+            final int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("Command " + command + " failed with exit code " + exitCode + ": "
+                        + new String(Files.readAllBytes(errorFile.toPath()), Charsets.UTF_8).trim());
+            }
+            return lines;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + command, ex);
+        } finally {
+            errorFile.delete();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.project.MavenProject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Impact of changes on tests of all modules of a reactor sharing one Clover database and one snapshot. It's computed
+ * once per build and then queried by every module:
+ * <ul>
+ * <li>tests affected by changes are found in one pass over the coverage recorded in the snapshot, regardless of
+ * a module in which the changed code is located</li>
+ * <li>changed files and failing tests are attributed to modules; a module is impacted if it or any reactor module
+ * on which it depends (directly or transitively) contains a change, so that modules not impacted at all do not need
+ * to look for tests to run</li>
+ * </ul>
+ */
+public class ReactorTestImpact {
+
+    /** Map(module key, keys of the module and of all reactor modules on which it depends) */
+    @NotNull
+    private final Map<String, Set<String>> upstreamModules;
+
+    /** Map(module key, canonical base directory) */
+    @NotNull
+    private final Map<String, File> moduleDirectories = new HashMap<String, File>();
+
+    /** Keys of modules containing changed files or failing tests */
+    @NotNull
+    private final Set<String> changedModules = new HashSet<String>();
+
+    /** True if a change could not be attributed to any module, all modules are impacted then */
+    private boolean unattributedChanges;
+
+    @NotNull
+    private final TestCoverage coverage;
+
+    /** Paths of tests which covered changed files, have changed or failed */
+    @NotNull
+    private final Set<String> impactedTests = new HashSet<String>();
+
+    /**
+     * @param reactorProjects all modules of the reactor
+     * @param coverage        coverage of tests and files modified since the snapshot
+     * @param failingTests    paths of tests which failed in the build which produced the snapshot
+     */
+    public ReactorTestImpact(@NotNull final Collection<MavenProject> reactorProjects,
+                             @NotNull final TestCoverage coverage, @NotNull final Collection<String> failingTests) {
+        this.upstreamModules = buildUpstreamModules(reactorProjects);
+        this.coverage = coverage;
+        for (final MavenProject project : reactorProjects) {
+            if (project.getBasedir() != null) {
+                moduleDirectories.put(getModuleKey(project), canonicalFile(project.getBasedir()));
+            }
+        }
+
+        for (final String test : coverage.getTests()) {
+            final Set<String> changedFiles = coverage.getChangedFiles(test);
+            if (coverage.isChanged(test) || (changedFiles != null && !changedFiles.isEmpty())) {
+                impactedTests.add(test);
+            }
+        }
+        for (final String failingTest : failingTests) {
+            impactedTests.add(TestDurations.toTestPath(failingTest));
+        }
+    }
+
+    /**
+     * Marks a module containing the file as changed.
+     *
+     * @param file changed, added or deleted file; <code>null</code> if the location of a change is not known, in
+     *             which case all modules are impacted
+     */
+    public void addChangedFile(@Nullable final File file) {
+        final String module = file == null ? null : findModule(canonicalFile(file));
+        if (module == null) {
+            unattributedChanges = true;
+        } else {
+            changedModules.add(module);
+        }
+    }
+
+    /**
+     * Returns true if the module or any reactor module on which it depends contains a change.
+     *
+     * @param project module
+     * @return boolean
+     */
+    public boolean isModuleImpacted(@NotNull final MavenProject project) {
+        if (unattributedChanges) {
+            return true;
+        }
+        final Set<String> upstream = upstreamModules.get(getModuleKey(project));
+        if (upstream == null) {
+            // not a part of the reactor known when the impact was computed
+            return true;
+        }
+        for (final String module : upstream) {
+            if (changedModules.contains(module)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the test shall be run, i.e. it covered a changed file, has changed, failed or is not
+     * present in the snapshot.
+     *
+     * @param testName path of a test source file
+     * @return boolean
+     */
+    public boolean isTestImpacted(@NotNull final String testName) {
+        return !coverage.isKnown(testName) || impactedTests.contains(TestDurations.toTestPath(testName));
+    }
+
+    @NotNull
+    public TestCoverage getCoverage() {
+        return coverage;
+    }
+
+    @NotNull
+    public static String getModuleKey(@NotNull final MavenProject project) {
+        return project.getGroupId() + ':' + project.getArtifactId();
+    }
+
+    /**
+     * Builds a dependency graph of reactor modules and returns its transitive closure.
+     *
+     * @param reactorProjects all modules of the reactor
+     * @return Map&lt;String, Set&lt;String&gt;&gt; Map(module key, keys of the module and all reactor modules on which
+     *         it depends, directly or transitively)
+     */
+    @NotNull
+    static Map<String, Set<String>> buildUpstreamModules(@NotNull final Collection<MavenProject> reactorProjects) {
+        final Map<String, Set<String>> directDependencies = new HashMap<String, Set<String>>();
+        for (final MavenProject project : reactorProjects) {
+            directDependencies.put(getModuleKey(project), new HashSet<String>());
+        }
+        for (final MavenProject project : reactorProjects) {
+            final Set<String> dependencies = directDependencies.get(getModuleKey(project));
+            for (final Dependency dependency : project.getDependencies()) {
+                final String key = dependency.getGroupId() + ':' + dependency.getArtifactId();
+                if (directDependencies.containsKey(key)) {
+                    dependencies.add(key);
+                }
+            }
+            // a parent POM can change dependencies or configuration of its children
+            final MavenProject parent = project.getParent();
+            if (parent != null && directDependencies.containsKey(getModuleKey(parent))) {
+                dependencies.add(getModuleKey(parent));
+            }
+        }
+
+        final Map<String, Set<String>> upstreamModules = new HashMap<String, Set<String>>();
+        for (final String module : directDependencies.keySet()) {
+            final Set<String> upstream = new HashSet<String>();
+            final LinkedList<String> queue = new LinkedList<String>();
+            queue.add(module);
+            while (!queue.isEmpty()) {
+                final String current = queue.removeFirst();
+                if (upstream.add(current)) {
+                    queue.addAll(directDependencies.get(current));
+                }
+            }
+            upstreamModules.put(module, upstream);
+        }
+        return upstreamModules;
+    }
+
+    /**
+     * Returns a key of the module with the longest base directory containing the file.
+     */
+    @Nullable
+    private String findModule(@NotNull final File file) {
+        String bestModule = null;
+        int bestLength = -1;
+        for (final Map.Entry<String, File> module : moduleDirectories.entrySet()) {
+            final String directory = module.getValue().getPath();
+            if (directory.length() > bestLength && isUnder(file.getPath(), directory)) {
+                bestModule = module.getKey();
+                bestLength = directory.length();
+            }
+        }
+        return bestModule;
+    }
+
+    private static boolean isUnder(@NotNull final String path, @NotNull final String directory) {
+        return path.startsWith(directory)
+                && (path.length() == directory.length() || path.charAt(directory.length()) == File.separatorChar);
+    }
+
+    @NotNull
+    private static File canonicalFile(@NotNull final File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException ex) {
+            return file.getAbsoluteFile();
+        }
+    }
+}
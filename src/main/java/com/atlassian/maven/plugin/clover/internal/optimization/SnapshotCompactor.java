@@ -0,0 +1,208 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.atlassian.clover.api.registry.FileInfo;
+import com.atlassian.clover.api.registry.MethodInfo;
+import com.atlassian.clover.optimization.Snapshot;
+import com.atlassian.clover.registry.entities.FullProjectInfo;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes entries which are no longer needed from a Clover snapshot. Clover only adds to a snapshot, so entries of
+ * deleted tests and files stay in it forever and its load time grows as the code base ages.
+ *
+ * The snapshot keeps no timestamps of its entries, so they are pruned by comparing them with the current Clover
+ * database:
+ * <ul>
+ * <li>test methods whose test class is no longer in the database, or whose method no longer exists in it, are
+ * removed together with their duration, covered files and failure status</li>
+ * <li>covered files which are no longer in the database are replaced, for every test, by one entry which never
+ * matches the database; Clover treats a test which covered a removed file as affected by changes (also after it's
+ * run again, as states of files are never removed from the snapshot), so the test is selected exactly as if all
+ * these files were kept</li>
+ * <li>equal file states and paths are shared, so that they are serialized only once</li>
+ * </ul>
+ *
+ * Clover has no public API for this, so the snapshot is modified through {@link SnapshotInternals}.
+ */
+public class SnapshotCompactor {
+
+    /** Size of a file which never matches a file in the database */
+    private static final long MISSING_FILE_SIZE = -1L;
+
+    /**
+     * Statistics of a compaction
+     */
+    public static class Result {
+        private int removedTests;
+
+        private int removedFiles;
+
+        public int getRemovedTests() {
+            return removedTests;
+        }
+
+        public int getRemovedFiles() {
+            return removedFiles;
+        }
+
+        public boolean isModified() {
+            return removedTests > 0 || removedFiles > 0;
+        }
+    }
+
+    @NotNull
+    private final FullProjectInfo project;
+
+    /** Map(test file path, simple names of methods declared in the file, null if the file was removed) */
+    @NotNull
+    private final Map<String, Set<String>> methodsByFile = new HashMap<String, Set<String>>();
+
+    /**
+     * @param project content of the current Clover database
+     */
+    public SnapshotCompactor(@NotNull final FullProjectInfo project) {
+        this.project = project;
+    }
+
+    /**
+     * Compacts the snapshot in place. It has to be stored afterwards.
+     *
+     * @param snapshot loaded snapshot
+     * @return Result what was removed
+     * @throws ReflectiveOperationException if the snapshot has an unknown format
+     */
+    @NotNull
+    public Result compact(@NotNull final Snapshot snapshot) throws ReflectiveOperationException {
+        final SnapshotInternals internals = SnapshotInternals.getInstance();
+        final Result result = new Result();
+        final Map<Object, Map<Object, Object>> perTestSourceStates = internals.getPerTestSourceStates(snapshot);
+        final Map<Object, Object> durationsForTests = internals.getDurationsForTests(snapshot);
+        final Set<Object> failingTests = internals.getFailingTests(snapshot);
+        final Map<Object, Set<Object>> testLookup = internals.getTestLookup(snapshot);
+
+        // remove tests which no longer exist
+        final Set<Object> removedTests = new HashSet<Object>();
+        final Set<Object> allTests = new HashSet<Object>(perTestSourceStates.keySet());
+        allTests.addAll(durationsForTests.keySet());
+        allTests.addAll(failingTests);
+        for (final Object test : allTests) {
+            if (test != null && !isTestPresent(internals, test)) {
+                removedTests.add(test);
+            }
+        }
+        perTestSourceStates.keySet().removeAll(removedTests);
+        durationsForTests.keySet().removeAll(removedTests);
+        failingTests.removeAll(removedTests);
+        for (final Iterator<Set<Object>> lookup = testLookup.values().iterator(); lookup.hasNext(); ) {
+            final Set<Object> tests = lookup.next();
+            tests.removeAll(removedTests);
+            if (tests.isEmpty()) {
+                lookup.remove();
+            }
+        }
+        result.removedTests = removedTests.size();
+
+        // collapse removed files and share equal states
+        final Map<String, String> paths = new HashMap<String, String>();
+        final Map<String, Object> states = new HashMap<String, Object>();
+        for (final Map<Object, Object> fileStates : perTestSourceStates.values()) {
+            final Map<Object, Object> compactedStates = new LinkedHashMap<Object, Object>();
+            String missingFile = null;
+            for (final Map.Entry<Object, Object> fileEntry : fileStates.entrySet()) {
+                final String path = intern(paths, (String) fileEntry.getKey());
+                if (project.findFile(path) != null) {
+                    compactedStates.put(path, intern(internals, states, path, fileEntry.getValue()));
+                } else if (missingFile == null) {
+                    missingFile = path;
+                } else {
+                    result.removedFiles++;
+                }
+            }
+            if (missingFile != null) {
+                final Object missingState = internals.newSourceState(0L, MISSING_FILE_SIZE);
+                compactedStates.put(missingFile, intern(internals, states, missingFile, missingState));
+            }
+            fileStates.clear();
+            fileStates.putAll(compactedStates);
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the test class of the test method is in the database and declares the method (or the method
+     * is inherited, in which case it's not checked).
+     */
+    private boolean isTestPresent(@NotNull final SnapshotInternals internals, @NotNull final Object test)
+            throws ReflectiveOperationException {
+        final String testPath = internals.getPackagePath(test);
+        if (testPath == null) {
+            return false;
+        }
+        if (!methodsByFile.containsKey(testPath)) {
+            final FileInfo fileInfo = project.findFile(testPath);
+            Set<String> methods = null;
+            if (fileInfo != null) {
+                methods = new HashSet<String>();
+                for (final MethodInfo method : fileInfo.getAllMethods()) {
+                    methods.add(method.getSimpleName());
+                }
+            }
+            methodsByFile.put(testPath, methods);
+        }
+        final Set<String> methods = methodsByFile.get(testPath);
+        if (methods == null) {
+            return false;
+        }
+        final String sourceMethodName = internals.getSourceMethodName(test);
+        return internals.isInheritedCall(test) || sourceMethodName == null
+                || methods.contains(TestCoverage.simpleMethodName(sourceMethodName));
+    }
+
+    @NotNull
+    private static String intern(@NotNull final Map<String, String> paths, @NotNull final String path) {
+        final String interned = paths.get(path);
+        if (interned != null) {
+            return interned;
+        }
+        paths.put(path, path);
+        return path;
+    }
+
+    @NotNull
+    private static Object intern(@NotNull final SnapshotInternals internals, @NotNull final Map<String, Object> states,
+                                 @NotNull final String path, @NotNull final Object state) throws IllegalAccessException {
+        final String key = path + ':' + internals.getChecksum(state) + ':' + internals.getFileSize(state);
+        final Object interned = states.get(key);
+        if (interned != null) {
+            return interned;
+        }
+        states.put(key, state);
+        return state;
+    }
+}
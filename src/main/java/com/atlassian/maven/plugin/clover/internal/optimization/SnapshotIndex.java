@@ -0,0 +1,560 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.atlassian.clover.optimization.Snapshot;
+import com.atlassian.clover.util.IOStreamUtils;
+import com.google.common.base.Charsets;
+import com_atlassian_clover.CloverVersionInfo;
+import org.apache.maven.plugin.logging.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact, read-only index of a Clover snapshot, stored next to it in the <code>.idx</code> file. Clover's snapshot
+ * is a serialized object graph which has to be fully deserialized into the heap, even if only durations or coverage
+ * of a few tests are needed; the index keeps the same data in primitive arrays, which are memory-mapped and decoded
+ * only when entries are queried.
+ *
+ * The index contains:
+ * <ul>
+ * <li>a header with the size and timestamp of the snapshot from which it was built, Clover version and versions of
+ * the Clover database; an index built from a different snapshot is rebuilt automatically (see
+ * {@link #load(File, Log)})</li>
+ * <li>a table of strings (paths of tests and source files, names of test methods)</li>
+ * <li>test methods sorted by path of the test class and name of the method, with their duration</li>
+ * <li>source files covered by every test method with their checksum and size (Map(test, files) stored as offsets
+ * into flat arrays)</li>
+ * <li>paths of tests which failed</li>
+ * </ul>
+ *
+ * All numbers are stored in the big-endian order.
+ */
+public class SnapshotIndex {
+
+    /** "CLSI" */
+    static final int MAGIC = 0x434c5349;
+
+    static final int FORMAT_VERSION = 1;
+
+    static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * Test method recorded in a snapshot, used when the index is written
+     */
+    static class TestEntry {
+        @NotNull
+        final String testPath;
+
+        @NotNull
+        final String methodName;
+
+        /** Duration in milliseconds or {@link Snapshot#UNKNOWN_DURATION} */
+        long duration = Snapshot.UNKNOWN_DURATION;
+
+        /** Map(covered file package path, {checksum, size}) */
+        @NotNull
+        final Map<String, long[]> coveredFiles = new LinkedHashMap<String, long[]>();
+
+        TestEntry(@NotNull final String testPath, @NotNull final String methodName) {
+            this.testPath = testPath;
+            this.methodName = methodName;
+        }
+    }
+
+    @NotNull
+    private final ByteBuffer buffer;
+
+    private final long snapshotLength;
+
+    private final long snapshotLastModified;
+
+    @NotNull
+    private final String cloverVersionInfo;
+
+    private final int dbVersionCount;
+
+    private final long mostRecentDbVersion;
+
+    /** Offsets of sections in the buffer */
+    private final int stringCount;
+    private final int stringOffsets;
+    private final int stringData;
+    private final int failingCount;
+    private final int failingTests;
+    private final int testCount;
+    private final int testPaths;
+    private final int testMethods;
+    private final int testDurations;
+    private final int coverageStarts;
+    private final int coverageFiles;
+    private final int coverageChecksums;
+    private final int coverageSizes;
+
+    private SnapshotIndex(@NotNull final ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < 8 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a snapshot index or unsupported version");
+        }
+        try {
+            int offset = 8;
+            snapshotLength = buffer.getLong(offset);
+            snapshotLastModified = buffer.getLong(offset + 8);
+            dbVersionCount = buffer.getInt(offset + 16);
+            mostRecentDbVersion = buffer.getLong(offset + 20);
+            offset += 28;
+
+            stringCount = buffer.getInt(offset);
+            stringOffsets = offset + 4;
+            stringData = stringOffsets + 4 * (stringCount + 1);
+            offset = stringData + buffer.getInt(stringOffsets + 4 * stringCount);
+
+            final int versionInfo = buffer.getInt(offset);
+            offset += 4;
+
+            failingCount = buffer.getInt(offset);
+            failingTests = offset + 4;
+            offset = failingTests + 4 * failingCount;
+
+            testCount = buffer.getInt(offset);
+            testPaths = offset + 4;
+            testMethods = testPaths + 4 * testCount;
+            testDurations = testMethods + 4 * testCount;
+            coverageStarts = testDurations + 8 * testCount;
+            final int coverageCount = buffer.getInt(coverageStarts + 4 * testCount);
+            coverageFiles = coverageStarts + 4 * (testCount + 1);
+            coverageChecksums = coverageFiles + 4 * coverageCount;
+            coverageSizes = coverageChecksums + 8 * coverageCount;
+            if (coverageSizes + 8L * coverageCount != buffer.limit()) {
+                throw new IOException("Snapshot index is truncated or corrupted");
+            }
+            cloverVersionInfo = getString(versionInfo);
+        } catch (IndexOutOfBoundsException ex) {
+            throw new IOException("Snapshot index is truncated or corrupted", ex);
+        }
+    }
+
+    /**
+     * Returns a location of the index of the snapshot.
+     *
+     * @param snapshotFile Clover snapshot
+     * @return File index file
+     */
+    @NotNull
+    public static File getIndexFile(@NotNull final File snapshotFile) {
+        return new File(snapshotFile.getPath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Opens the index of the snapshot. If the index does not exist or was built from a different snapshot, the
+     * snapshot is loaded and the index is (re)built from it.
+     *
+     * @param snapshotFile Clover snapshot
+     * @param log          logger
+     * @return SnapshotIndex index or <code>null</code> if the snapshot does not exist or could not be indexed
+     */
+    @Nullable
+    public static SnapshotIndex load(@NotNull final File snapshotFile, @NotNull final Log log) {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        final File indexFile = getIndexFile(snapshotFile);
+        if (indexFile.isFile()) {
+            try {
+                final SnapshotIndex index = open(indexFile);
+                if (index.isBuiltFrom(snapshotFile)) {
+                    return index;
+                }
+                log.debug("Snapshot index " + indexFile + " is out of date");
+            } catch (IOException ex) {
+                log.debug("Failed to read snapshot index " + indexFile + ", it will be rebuilt", ex);
+            }
+        }
+
+        log.info("Indexing Clover snapshot " + snapshotFile);
+        final Snapshot snapshot = Snapshot.loadFrom(snapshotFile);
+        if (snapshot == null) {
+            log.warn("Failed to load Clover snapshot " + snapshotFile + ", it cannot be indexed");
+            return null;
+        }
+        try {
+            write(snapshot, snapshotFile, indexFile);
+            return open(indexFile);
+        } catch (IOException ex) {
+            log.warn("Failed to index Clover snapshot " + snapshotFile + ": " + ex.getMessage());
+        } catch (ReflectiveOperationException ex) {
+            log.warn("Unsupported format of Clover snapshot " + snapshotFile + ", it cannot be indexed");
+            log.debug(ex);
+        } catch (ClassCastException ex) {
+            log.warn("Unsupported format of Clover snapshot " + snapshotFile + ", it cannot be indexed");
+            log.debug(ex);
+        }
+        return null;
+    }
+
+    /**
+     * Memory-maps the index file. The file is closed right away, the mapping stays valid until the index is garbage
+     * collected. On Linux and macOS, the file can be replaced by a new index meanwhile. On Windows, a mapped file
+     * cannot be replaced, so writing a new index fails until the mapping is released and the index is rebuilt from
+     * the snapshot by a later build.
+     *
+     * @param indexFile file written by {@link #write(Snapshot, File, File)}
+     * @return SnapshotIndex index
+     * @throws IOException if the file cannot be read or is not a valid index
+     */
+    @NotNull
+    public static SnapshotIndex open(@NotNull final File indexFile) throws IOException {
+        final FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+        try {
+            return new SnapshotIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes an index of the snapshot. It's meant to be called right after the snapshot was saved, while it's still
+     * in memory.
+     *
+     * @param snapshot     snapshot, as saved to the <code>snapshotFile</code>
+     * @param snapshotFile file in which the snapshot is saved
+     * @param indexFile    index to be written
+     * @throws IOException                  if the index cannot be written
+     * @throws ReflectiveOperationException if the snapshot has an unknown format
+     */
+    public static void write(@NotNull final Snapshot snapshot, @NotNull final File snapshotFile,
+                             @NotNull final File indexFile) throws IOException, ReflectiveOperationException {
+        final SnapshotInternals internals = SnapshotInternals.getInstance();
+        final Map<Object, Map<Object, Object>> statesByTest = internals.getPerTestSourceStates(snapshot);
+        final Map<Object, Object> durationsByTest = internals.getDurationsForTests(snapshot);
+        final Set<Object> testMethodCalls = new LinkedHashSet<Object>(statesByTest.keySet());
+        testMethodCalls.addAll(durationsByTest.keySet());
+
+        final List<TestEntry> tests = new ArrayList<TestEntry>(testMethodCalls.size());
+        for (final Object testMethodCall : testMethodCalls) {
+            if (testMethodCall == null) {
+                continue;
+            }
+            final String testPath = internals.getPackagePath(testMethodCall);
+            final String runtimeMethodName = internals.getRuntimeMethodName(testMethodCall);
+            if (testPath == null || runtimeMethodName == null) {
+                continue;
+            }
+            final TestEntry entry = new TestEntry(TestDurations.toTestPath(testPath),
+                    TestCoverage.simpleMethodName(runtimeMethodName));
+            tests.add(entry);
+
+            final Object duration = durationsByTest.get(testMethodCall);
+            if (duration instanceof Number) {
+                entry.duration = ((Number) duration).longValue();
+            }
+            final Map<Object, Object> fileStates = statesByTest.get(testMethodCall);
+            if (fileStates != null) {
+                for (final Map.Entry<Object, Object> fileEntry : fileStates.entrySet()) {
+                    entry.coveredFiles.put((String) fileEntry.getKey(), new long[] {
+                            internals.getChecksum(fileEntry.getValue()), internals.getFileSize(fileEntry.getValue()) });
+                }
+            }
+        }
+
+        write(indexFile, snapshotFile.length(), snapshotFile.lastModified(), snapshot.getCloverVersionInfo(),
+                snapshot.getDbVersions(), snapshot.getFailingTestPaths(), tests);
+    }
+
+    /**
+     * Writes the index into a temporary file, which then replaces the <code>indexFile</code>, so that readers never
+     * see a partially written index.
+     */
+    static void write(@NotNull final File indexFile, final long snapshotLength, final long snapshotLastModified,
+                      @NotNull final String cloverVersionInfo, @NotNull final Collection<Long> dbVersions,
+                      @NotNull final Collection<String> failingTestPaths, @NotNull final List<TestEntry> tests)
+            throws IOException {
+        Collections.sort(tests, new Comparator<TestEntry>() {
+            public int compare(final TestEntry first, final TestEntry second) {
+                final int byPath = first.testPath.compareTo(second.testPath);
+                return byPath != 0 ? byPath : first.methodName.compareTo(second.methodName);
+            }
+        });
+
+        // string table
+        final Map<String, Integer> stringIds = new LinkedHashMap<String, Integer>();
+        stringId(stringIds, cloverVersionInfo);
+        for (final String failingTestPath : failingTestPaths) {
+            stringId(stringIds, TestDurations.toTestPath(failingTestPath));
+        }
+        int coverageCount = 0;
+        for (final TestEntry test : tests) {
+            stringId(stringIds, test.testPath);
+            stringId(stringIds, test.methodName);
+            for (final String file : test.coveredFiles.keySet()) {
+                stringId(stringIds, file);
+            }
+            coverageCount += test.coveredFiles.size();
+        }
+
+        indexFile.getParentFile().mkdirs();
+        final File tempFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(snapshotLength);
+            out.writeLong(snapshotLastModified);
+            out.writeInt(dbVersions.size());
+            out.writeLong(dbVersions.isEmpty() ? 0L : Collections.max(dbVersions));
+
+            final List<byte[]> strings = new ArrayList<byte[]>(stringIds.size());
+            for (final String string : stringIds.keySet()) {
+                strings.add(string.getBytes(Charsets.UTF_8));
+            }
+            out.writeInt(strings.size());
+            int stringOffset = 0;
+            out.writeInt(stringOffset);
+            for (final byte[] string : strings) {
+                stringOffset += string.length;
+                out.writeInt(stringOffset);
+            }
+            for (final byte[] string : strings) {
+                out.write(string);
+            }
+
+            out.writeInt(stringIds.get(cloverVersionInfo));
+
+            final Set<String> failing = new LinkedHashSet<String>();
+            for (final String failingTestPath : failingTestPaths) {
+                failing.add(TestDurations.toTestPath(failingTestPath));
+            }
+            out.writeInt(failing.size());
+            for (final String failingTestPath : failing) {
+                out.writeInt(stringIds.get(failingTestPath));
+            }
+
+            out.writeInt(tests.size());
+            for (final TestEntry test : tests) {
+                out.writeInt(stringIds.get(test.testPath));
+            }
+            for (final TestEntry test : tests) {
+                out.writeInt(stringIds.get(test.methodName));
+            }
+            for (final TestEntry test : tests) {
+                out.writeLong(test.duration);
+            }
+            int coverageStart = 0;
+            for (final TestEntry test : tests) {
+                out.writeInt(coverageStart);
+                coverageStart += test.coveredFiles.size();
+            }
+            out.writeInt(coverageCount);
+            for (final TestEntry test : tests) {
+                for (final String file : test.coveredFiles.keySet()) {
+                    out.writeInt(stringIds.get(file));
+                }
+            }
+            for (final TestEntry test : tests) {
+                for (final long[] state : test.coveredFiles.values()) {
+                    out.writeLong(state[0]);
+                }
+            }
+            for (final TestEntry test : tests) {
+                for (final long[] state : test.coveredFiles.values()) {
+                    out.writeLong(state[1]);
+                }
+            }
+            out.close();
+            out = null;
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            IOStreamUtils.close(out);
+            tempFile.delete();
+        }
+    }
+
+    private static void stringId(@NotNull final Map<String, Integer> stringIds, @NotNull final String string) {
+        if (!stringIds.containsKey(string)) {
+            stringIds.put(string, stringIds.size());
+        }
+    }
+
+    /**
+     * Returns true if the index was built from the current content of the snapshot file.
+     *
+     * @param snapshotFile Clover snapshot
+     * @return boolean
+     */
+    public boolean isBuiltFrom(@NotNull final File snapshotFile) {
+        return snapshotFile.length() == snapshotLength && snapshotFile.lastModified() == snapshotLastModified;
+    }
+
+    /**
+     * The same as {@link Snapshot#isTooStale(int)}: the snapshot is too stale if it was created by a different
+     * version of Clover or if it was updated by <code>fullRunEvery</code> or more builds.
+     *
+     * @param fullRunEvery number of builds after which all tests shall be run
+     * @return boolean
+     */
+    public boolean isTooStale(final int fullRunEvery) {
+        return !CloverVersionInfo.formatVersionInfo().equals(cloverVersionInfo) || dbVersionCount - 1 >= fullRunEvery;
+    }
+
+    /**
+     * Returns the most recent version of the Clover database recorded in the snapshot. Files instrumented in a later
+     * version of the database have changed since the snapshot.
+     *
+     * @return long database version or 0 if not known
+     */
+    public long getMostRecentDbVersion() {
+        return mostRecentDbVersion;
+    }
+
+    /**
+     * @return Set&lt;String&gt; paths of test classes which failed, in the same format as test paths
+     */
+    @NotNull
+    public Set<String> getFailingTestPaths() {
+        final Set<String> paths = new LinkedHashSet<String>();
+        for (int i = 0; i < failingCount; i++) {
+            paths.add(getString(buffer.getInt(failingTests + 4 * i)));
+        }
+        return paths;
+    }
+
+    /**
+     * @return int number of test methods, test methods of the same test class have consecutive numbers
+     */
+    public int getTestCount() {
+        return testCount;
+    }
+
+    /**
+     * @param test number of a test method
+     * @return String path of a test class, e.g. "com/acme/FooTest.java"
+     */
+    @NotNull
+    public String getTestPath(final int test) {
+        return getString(buffer.getInt(testPaths + 4 * test));
+    }
+
+    /**
+     * @param test number of a test method
+     * @return String simple name of the method
+     */
+    @NotNull
+    public String getTestMethod(final int test) {
+        return getString(buffer.getInt(testMethods + 4 * test));
+    }
+
+    /**
+     * @param test number of a test method
+     * @return long duration in milliseconds or {@link Snapshot#UNKNOWN_DURATION}
+     */
+    public long getDuration(final int test) {
+        return buffer.getLong(testDurations + 8 * test);
+    }
+
+    /**
+     * Finds the first test method of the test class, using binary search.
+     *
+     * @param testPath path of a test class
+     * @return int number of the first test method or -1 if the class is not present
+     */
+    public int findTest(@NotNull final String testPath) {
+        final String path = TestDurations.toTestPath(testPath);
+        int low = 0;
+        int high = testCount;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (getTestPath(middle).compareTo(path) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < testCount && getTestPath(low).equals(path) ? low : -1;
+    }
+
+    /**
+     * @param test number of a test method
+     * @return int number of source files covered by the test method
+     */
+    public int getCoveredFileCount(final int test) {
+        return buffer.getInt(coverageStarts + 4 * (test + 1)) - buffer.getInt(coverageStarts + 4 * test);
+    }
+
+    /**
+     * @param test number of a test method
+     * @param file number of a covered file, from 0 to {@link #getCoveredFileCount(int)} - 1
+     * @return String package path of the source file
+     */
+    @NotNull
+    public String getCoveredFile(final int test, final int file) {
+        return getString(buffer.getInt(coverageFiles + 4 * coverageEntry(test, file)));
+    }
+
+    /**
+     * @return long checksum of the covered file when the test was run
+     */
+    public long getCoveredFileChecksum(final int test, final int file) {
+        return buffer.getLong(coverageChecksums + 8 * coverageEntry(test, file));
+    }
+
+    /**
+     * @return long size of the covered file when the test was run
+     */
+    public long getCoveredFileSize(final int test, final int file) {
+        return buffer.getLong(coverageSizes + 8 * coverageEntry(test, file));
+    }
+
+    private int coverageEntry(final int test, final int file) {
+        return buffer.getInt(coverageStarts + 4 * test) + file;
+    }
+
+    @NotNull
+    private String getString(final int id) {
+        final int start = buffer.getInt(stringOffsets + 4 * id);
+        final int end = buffer.getInt(stringOffsets + 4 * (id + 1));
+        final byte[] bytes = new byte[end - start];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(stringData + start);
+        view.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,197 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.atlassian.clover.optimization.Snapshot;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-test data of a Clover snapshot. Clover has no public API for it, so this is the only class which accesses
+ * private members of {@link Snapshot} and of its non-public TestMethodCall and SourceState classes. All members are
+ * looked up and type-checked once, so a snapshot of an unsupported Clover version fails with one
+ * ReflectiveOperationException before any data is read or modified.
+ */
+final class SnapshotInternals {
+
+    private static final String TEST_METHOD_CALL_CLASS = "com.atlassian.clover.optimization.TestMethodCall";
+
+    private static final String SOURCE_STATE_CLASS = "com.atlassian.clover.optimization.Snapshot$SourceState";
+
+    private static SnapshotInternals instance;
+
+    /** Snapshot.perTestSourceStates: Map(TestMethodCall, Map(file package path, SourceState)) */
+    private final Field perTestSourceStates;
+
+    /** Snapshot.durationsForTests: Map(TestMethodCall, Long) */
+    private final Field durationsForTests;
+
+    /** Snapshot.failingTests: Set(TestMethodCall) */
+    private final Field failingTests;
+
+    /** Snapshot.testLookup: Map(test package path, Set(TestMethodCall)) */
+    private final Field testLookup;
+
+    private final Method getPackagePath;
+
+    private final Method getSourceMethodName;
+
+    private final Method getRuntimeMethodName;
+
+    private final Method isInheritedCall;
+
+    private final Field checksum;
+
+    private final Field fileSize;
+
+    private final Constructor<?> sourceStateConstructor;
+
+    private SnapshotInternals() throws ReflectiveOperationException {
+        perTestSourceStates = getField(Snapshot.class, "perTestSourceStates", Map.class);
+        durationsForTests = getField(Snapshot.class, "durationsForTests", Map.class);
+        failingTests = getField(Snapshot.class, "failingTests", Set.class);
+        testLookup = getField(Snapshot.class, "testLookup", Map.class);
+
+        final Class<?> testMethodCall = Class.forName(TEST_METHOD_CALL_CLASS, false, Snapshot.class.getClassLoader());
+        getPackagePath = getMethod(testMethodCall, "getPackagePath", String.class);
+        getSourceMethodName = getMethod(testMethodCall, "getSourceMethodName", String.class);
+        getRuntimeMethodName = getMethod(testMethodCall, "getRuntimeMethodName", String.class);
+        isInheritedCall = getMethod(testMethodCall, "isInheritedCall", boolean.class);
+
+        final Class<?> sourceState = Class.forName(SOURCE_STATE_CLASS, false, Snapshot.class.getClassLoader());
+        checksum = getField(sourceState, "checksum", long.class);
+        fileSize = getField(sourceState, "filesize", long.class);
+        sourceStateConstructor = makeAccessible(sourceState.getDeclaredConstructor(long.class, long.class));
+    }
+
+    /**
+     * @return SnapshotInternals accessor for the Clover version on the classpath
+     * @throws ReflectiveOperationException if the snapshot has an unknown format
+     */
+    @NotNull
+    static synchronized SnapshotInternals getInstance() throws ReflectiveOperationException {
+        if (instance == null) {
+            instance = new SnapshotInternals();
+        }
+        return instance;
+    }
+
+    /**
+     * @return Map(TestMethodCall, Map(file package path, SourceState)) live map of the snapshot
+     */
+    @SuppressWarnings("unchecked")
+    @NotNull
+    Map<Object, Map<Object, Object>> getPerTestSourceStates(@NotNull final Snapshot snapshot)
+            throws IllegalAccessException {
+        return (Map<Object, Map<Object, Object>>) perTestSourceStates.get(snapshot);
+    }
+
+    /**
+     * @return Map(TestMethodCall, duration in milliseconds) live map of the snapshot
+     */
+    @SuppressWarnings("unchecked")
+    @NotNull
+    Map<Object, Object> getDurationsForTests(@NotNull final Snapshot snapshot) throws IllegalAccessException {
+        return (Map<Object, Object>) durationsForTests.get(snapshot);
+    }
+
+    /**
+     * @return Set(TestMethodCall) live set of the snapshot
+     */
+    @SuppressWarnings("unchecked")
+    @NotNull
+    Set<Object> getFailingTests(@NotNull final Snapshot snapshot) throws IllegalAccessException {
+        return (Set<Object>) failingTests.get(snapshot);
+    }
+
+    /**
+     * @return Map(test package path, Set(TestMethodCall)) live map of the snapshot
+     */
+    @SuppressWarnings("unchecked")
+    @NotNull
+    Map<Object, Set<Object>> getTestLookup(@NotNull final Snapshot snapshot) throws IllegalAccessException {
+        return (Map<Object, Set<Object>>) testLookup.get(snapshot);
+    }
+
+    @Nullable
+    String getPackagePath(@NotNull final Object testMethodCall) throws ReflectiveOperationException {
+        return (String) getPackagePath.invoke(testMethodCall);
+    }
+
+    @Nullable
+    String getSourceMethodName(@NotNull final Object testMethodCall) throws ReflectiveOperationException {
+        return (String) getSourceMethodName.invoke(testMethodCall);
+    }
+
+    @Nullable
+    String getRuntimeMethodName(@NotNull final Object testMethodCall) throws ReflectiveOperationException {
+        return (String) getRuntimeMethodName.invoke(testMethodCall);
+    }
+
+    boolean isInheritedCall(@NotNull final Object testMethodCall) throws ReflectiveOperationException {
+        return Boolean.TRUE.equals(isInheritedCall.invoke(testMethodCall));
+    }
+
+    long getChecksum(@NotNull final Object sourceState) throws IllegalAccessException {
+        return checksum.getLong(sourceState);
+    }
+
+    long getFileSize(@NotNull final Object sourceState) throws IllegalAccessException {
+        return fileSize.getLong(sourceState);
+    }
+
+    @NotNull
+    Object newSourceState(final long checksum, final long fileSize) throws ReflectiveOperationException {
+        return sourceStateConstructor.newInstance(checksum, fileSize);
+    }
+
+    @NotNull
+    private static Field getField(@NotNull final Class<?> owner, @NotNull final String name,
+                                  @NotNull final Class<?> type) throws NoSuchFieldException {
+        final Field field = owner.getDeclaredField(name);
+        if (!type.isAssignableFrom(field.getType())) {
+            throw new NoSuchFieldException(owner.getName() + "." + name + " is not a " + type.getName());
+        }
+        return makeAccessible(field);
+    }
+
+    @NotNull
+    private static Method getMethod(@NotNull final Class<?> owner, @NotNull final String name,
+                                    @NotNull final Class<?> returnType) throws NoSuchMethodException {
+        final Method method = owner.getDeclaredMethod(name);
+        if (!returnType.equals(method.getReturnType())) {
+            throw new NoSuchMethodException(owner.getName() + "." + name + "() does not return " + returnType.getName());
+        }
+        return makeAccessible(method);
+    }
+
+    @NotNull
+    private static <T extends AccessibleObject> T makeAccessible(@NotNull final T member) {
+        member.setAccessible(true);
+        return member;
+    }
+}
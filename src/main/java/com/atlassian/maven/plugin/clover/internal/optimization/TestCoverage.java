@@ -0,0 +1,362 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.atlassian.clover.api.CloverException;
+import com.atlassian.clover.api.registry.FileInfo;
+import com.atlassian.clover.registry.Clover2Registry;
+import com.atlassian.clover.registry.entities.FullFileInfo;
+import com.atlassian.clover.registry.entities.FullProjectInfo;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.maven.plugin.logging.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Source files covered by test classes and test methods in the previous build (as recorded in the Clover snapshot)
+ * together with a set of source files modified since then.
+ *
+ * Test classes are identified in the same way as in {@link TestDurations}, test methods by their simple name,
+ * source files by their package path (e.g. "com/acme/Foo.java"), as stored by Clover.
+ */
+public class TestCoverage {
+
+    /** Map(test path, source files covered by the test) */
+    @NotNull
+    private final Map<String, Set<String>> coveredFilesByTest = new HashMap<String, Set<String>>();
+
+    /** Map(test path, Map(test method name, source files covered by the method)) */
+    @NotNull
+    private final Map<String, Map<String, Set<String>>> coveredFilesByMethod = new HashMap<String, Map<String, Set<String>>>();
+
+    /** Map(test path, modified source files covered by the test) */
+    @NotNull
+    private final Map<String, Set<String>> changedFilesByTest = new HashMap<String, Set<String>>();
+
+    /** Map(test path, Map(test method name, modified source files covered by the method)) */
+    @NotNull
+    private final Map<String, Map<String, Set<String>>> changedFilesByMethod = new HashMap<String, Map<String, Set<String>>>();
+
+    /** Source files modified since the snapshot, according to any test */
+    @NotNull
+    private final Set<String> changedFiles = new HashSet<String>();
+
+    /**
+     * Finds modified files by comparing states of source files recorded in the snapshot with the current Clover
+     * database, like Clover does when it decides whether a test is affected by changes. Every test method is compared
+     * using its own recorded states, as tests which were not run in the same builds (e.g. because of a time budget or
+     * sharding) recorded different states of the same file.
+     *
+     * @param snapshot index of the Clover snapshot, can be <code>null</code>
+     * @param database current Clover database
+     * @param log      logger
+     * @return TestCoverage coverage, empty if not available
+     */
+    @NotNull
+    public static TestCoverage load(@Nullable final SnapshotIndex snapshot, @NotNull final File database,
+                                    @NotNull final Log log) {
+        final TestCoverage coverage = new TestCoverage();
+        if (snapshot == null || !database.isFile()) {
+            return coverage;
+        }
+        final FullProjectInfo project;
+        try {
+            project = Clover2Registry.fromFile(database).getProject();
+        } catch (CloverException ex) {
+            log.debug("Failed to read Clover database, coverage of modified files is not known", ex);
+            return coverage;
+        }
+        coverage.readSnapshot(snapshot, project, log);
+        return coverage;
+    }
+
+    /**
+     * Uses a list of modified files provided from outside, e.g. by a version control system. A source file from
+     * the snapshot is modified if its package path is a suffix of any of <code>changedPaths</code>.
+     *
+     * @param snapshot     index of the Clover snapshot, can be <code>null</code>
+     * @param changedPaths paths of modified files relative to any directory, with '/' as a separator
+     * @param log          logger
+     * @return TestCoverage coverage, empty if not available
+     */
+    @NotNull
+    public static TestCoverage load(@Nullable final SnapshotIndex snapshot, @NotNull final Collection<String> changedPaths,
+                                    @NotNull final Log log) {
+        final TestCoverage coverage = new TestCoverage();
+        if (snapshot == null) {
+            return coverage;
+        }
+        final Set<String> changedSuffixes = pathSuffixes(changedPaths);
+        coverage.readSnapshot(snapshot, null, log);
+        for (final Map.Entry<String, Map<String, Set<String>>> test : coverage.coveredFilesByMethod.entrySet()) {
+            for (final Map.Entry<String, Set<String>> method : test.getValue().entrySet()) {
+                for (final String file : method.getValue()) {
+                    if (changedSuffixes.contains(TestDurations.toTestPath(file))) {
+                        coverage.addChangedFile(test.getKey(), method.getKey(), file);
+                    }
+                }
+            }
+        }
+        // test classes not covered by any test (e.g. having no instrumented code) are checked too
+        for (final String testPath : coverage.coveredFilesByTest.keySet()) {
+            if (changedSuffixes.contains(testPath)) {
+                coverage.changedFiles.add(testPath);
+            }
+        }
+        return coverage;
+    }
+
+    /**
+     * Returns all suffixes of paths starting after a '/', including whole paths, e.g. for "a/b/C.java" it's
+     * "a/b/C.java", "b/C.java" and "C.java".
+     *
+     * @param paths paths with '/' as a separator
+     * @return Set&lt;String&gt; suffixes
+     */
+    @NotNull
+    public static Set<String> pathSuffixes(@NotNull final Collection<String> paths) {
+        final Set<String> suffixes = new HashSet<String>();
+        for (final String path : paths) {
+            suffixes.add(path);
+            for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+                suffixes.add(path.substring(i + 1));
+            }
+        }
+        return suffixes;
+    }
+
+    /**
+     * Returns source files modified since the snapshot which were covered by a test class.
+     *
+     * @param testName path of a test source file
+     * @return Set&lt;String&gt; modified files or <code>null</code> if the test is not known
+     */
+    @Nullable
+    public Set<String> getChangedFiles(@NotNull final String testName) {
+        final String testPath = TestDurations.toTestPath(testName);
+        if (!coveredFilesByTest.containsKey(testPath)) {
+            return null;
+        }
+        final Set<String> changedCoveredFiles = changedFilesByTest.get(testPath);
+        return changedCoveredFiles != null
+                ? new HashSet<String>(changedCoveredFiles)
+                : new HashSet<String>();
+    }
+
+    /**
+     * Returns names of test methods which covered any source file modified since the snapshot.
+     *
+     * @param testName path of a test source file
+     * @return Set&lt;String&gt; simple names of test methods or <code>null</code> if the test is not known
+     */
+    @Nullable
+    public Set<String> getAffectedMethods(@NotNull final String testName) {
+        final String testPath = TestDurations.toTestPath(testName);
+        if (!coveredFilesByMethod.containsKey(testPath)) {
+            return null;
+        }
+        final Map<String, Set<String>> changedMethods = changedFilesByMethod.get(testPath);
+        return changedMethods != null
+                ? new TreeSet<String>(changedMethods.keySet())
+                : new TreeSet<String>();
+    }
+
+    /**
+     * Returns all source files modified since the snapshot, according to states recorded by any test.
+     *
+     * @return Set&lt;String&gt; package paths
+     */
+    @NotNull
+    public Set<String> getChangedFiles() {
+        return Collections.unmodifiableSet(changedFiles);
+    }
+
+    /**
+     * Returns true if the source file was modified since the snapshot, according to states recorded by any test.
+     * Only files recorded in the snapshot are checked, for other files false is returned.
+     *
+     * @param path package path of a source file
+     * @return boolean
+     */
+    public boolean isChanged(@NotNull final String path) {
+        return changedFiles.contains(TestDurations.toTestPath(path));
+    }
+
+    /**
+     * Returns true if the test class is present in the snapshot.
+     *
+     * @param testName path of a test source file
+     * @return boolean
+     */
+    public boolean isKnown(@NotNull final String testName) {
+        return coveredFilesByTest.containsKey(TestDurations.toTestPath(testName));
+    }
+
+    public boolean isEmpty() {
+        return coveredFilesByTest.isEmpty();
+    }
+
+    /**
+     * Returns all test classes present in the snapshot.
+     *
+     * @return Set&lt;String&gt; test paths
+     */
+    @NotNull
+    public Set<String> getTests() {
+        return Collections.unmodifiableSet(coveredFilesByTest.keySet());
+    }
+
+    @VisibleForTesting
+    void put(@NotNull final String testName, @NotNull final String... changedFiles) {
+        final String testPath = TestDurations.toTestPath(testName);
+        coveredFilesByTest.put(testPath, new HashSet<String>(Arrays.asList(changedFiles)));
+        changedFilesByTest.put(testPath, new HashSet<String>(Arrays.asList(changedFiles)));
+        this.changedFiles.addAll(Arrays.asList(changedFiles));
+    }
+
+    @VisibleForTesting
+    void putMethod(@NotNull final String testName, @NotNull final String methodName, @NotNull final String... coveredFiles) {
+        addCoveredFiles(TestDurations.toTestPath(testName), methodName, Arrays.asList(coveredFiles));
+    }
+
+    /**
+     * Marks files as modified for all test methods added so far which covered them.
+     */
+    @VisibleForTesting
+    void putChanged(@NotNull final String... changedFiles) {
+        final List<String> files = Arrays.asList(changedFiles);
+        for (final Map.Entry<String, Map<String, Set<String>>> test : coveredFilesByMethod.entrySet()) {
+            for (final Map.Entry<String, Set<String>> method : test.getValue().entrySet()) {
+                for (final String file : files) {
+                    if (method.getValue().contains(file)) {
+                        addChangedFile(test.getKey(), method.getKey(), file);
+                    }
+                }
+            }
+        }
+        this.changedFiles.addAll(files);
+    }
+
+    private void addCoveredFiles(@NotNull final String testPath, @NotNull final String methodName,
+                                 @NotNull final Collection<String> files) {
+        Set<String> filesOfTest = coveredFilesByTest.get(testPath);
+        if (filesOfTest == null) {
+            filesOfTest = new HashSet<String>();
+            coveredFilesByTest.put(testPath, filesOfTest);
+        }
+        filesOfTest.addAll(files);
+
+        Map<String, Set<String>> methodsOfTest = coveredFilesByMethod.get(testPath);
+        if (methodsOfTest == null) {
+            methodsOfTest = new HashMap<String, Set<String>>();
+            coveredFilesByMethod.put(testPath, methodsOfTest);
+        }
+        Set<String> filesOfMethod = methodsOfTest.get(methodName);
+        if (filesOfMethod == null) {
+            filesOfMethod = new HashSet<String>();
+            methodsOfTest.put(methodName, filesOfMethod);
+        }
+        filesOfMethod.addAll(files);
+    }
+
+    private void addChangedFile(@NotNull final String testPath, @NotNull final String methodName,
+                                @NotNull final String file) {
+        changedFiles.add(file);
+        Set<String> filesOfTest = changedFilesByTest.get(testPath);
+        if (filesOfTest == null) {
+            filesOfTest = new HashSet<String>();
+            changedFilesByTest.put(testPath, filesOfTest);
+        }
+        filesOfTest.add(file);
+
+        Map<String, Set<String>> methodsOfTest = changedFilesByMethod.get(testPath);
+        if (methodsOfTest == null) {
+            methodsOfTest = new HashMap<String, Set<String>>();
+            changedFilesByMethod.put(testPath, methodsOfTest);
+        }
+        Set<String> filesOfMethod = methodsOfTest.get(methodName);
+        if (filesOfMethod == null) {
+            filesOfMethod = new HashSet<String>();
+            methodsOfTest.put(methodName, filesOfMethod);
+        }
+        filesOfMethod.add(file);
+    }
+
+    /**
+     * Returns a simple name of a method from the "runtime type name.method name" format used by Clover.
+     *
+     * @param runtimeMethodName qualified method name, e.g. "com.acme.FooTest.testBar"
+     * @return String simple name, e.g. "testBar"
+     */
+    @NotNull
+    static String simpleMethodName(@NotNull final String runtimeMethodName) {
+        return runtimeMethodName.substring(runtimeMethodName.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Reads source files covered by every test method from the snapshot index. If the <code>project</code> is
+     * given, a covered file is modified for the test method if it's no longer in the database (i.e. it was moved or
+     * deleted) or if it differs from the state recorded for this test method.
+     *
+     * @param project current Clover database, <code>null</code> if modified files are not checked
+     */
+    private void readSnapshot(@NotNull final SnapshotIndex snapshot, @Nullable final FullProjectInfo project,
+                              @NotNull final Log log) {
+        // files are looked up once, but compared with states recorded by each test
+        final Map<String, FileInfo> fileInfos = new HashMap<String, FileInfo>();
+        for (int test = 0; test < snapshot.getTestCount(); test++) {
+            final String testPath = snapshot.getTestPath(test);
+            final String methodName = snapshot.getTestMethod(test);
+            final int fileCount = snapshot.getCoveredFileCount(test);
+            final List<String> filesOfMethod = new ArrayList<String>(fileCount);
+            for (int file = 0; file < fileCount; file++) {
+                filesOfMethod.add(snapshot.getCoveredFile(test, file));
+            }
+            addCoveredFiles(testPath, methodName, filesOfMethod);
+
+            if (project != null) {
+                for (int file = 0; file < fileCount; file++) {
+                    final String filePath = filesOfMethod.get(file);
+                    if (!fileInfos.containsKey(filePath)) {
+                        fileInfos.put(filePath, project.findFile(filePath));
+                    }
+                    final FileInfo fileInfo = fileInfos.get(filePath);
+                    if (!(fileInfo instanceof FullFileInfo) || ((FullFileInfo) fileInfo).changedFrom(
+                            snapshot.getCoveredFileChecksum(test, file), snapshot.getCoveredFileSize(test, file))) {
+                        addChangedFile(testPath, methodName, filePath);
+                    }
+                }
+            }
+        }
+        log.debug("Found coverage of " + coveredFilesByTest.size() + " test classes");
+    }
+}
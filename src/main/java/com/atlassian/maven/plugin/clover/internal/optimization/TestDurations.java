@@ -0,0 +1,211 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.atlassian.clover.optimization.Snapshot;
+import com.atlassian.clover.util.IOStreamUtils;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.maven.plugin.logging.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Historical durations of test classes, taken from a Clover snapshot and from XML reports of the
+ * maven-surefire-plugin (or maven-failsafe-plugin) of the previous build.
+ *
+ * Test classes are identified by paths of their source files relative to a test source root, with '/' as
+ * a separator (e.g. "com/acme/FooTest.java"), i.e. in the same form as names of tests selected by the optimizer.
+ */
+public class TestDurations {
+
+    /**
+     * Thrown to stop parsing of a report once the root element was read
+     */
+    private static class RootElementFound extends SAXException {
+        RootElementFound() {
+            super("root element found");
+        }
+    }
+
+    /** Map(test path, total duration in milliseconds) */
+    @NotNull
+    private final Map<String, Long> durations = new HashMap<String, Long>();
+
+    /**
+     * Loads durations of test classes. Durations recorded in the snapshot (which are summed up from durations of
+     * individual test methods) take precedence over durations from test reports.
+     *
+     * @param snapshot         index of the Clover snapshot, can be <code>null</code>
+     * @param reportsDirectory directory with TEST-*.xml reports, can be <code>null</code> or not exist
+     * @param log              logger
+     * @return TestDurations durations, possibly empty
+     */
+    @NotNull
+    public static TestDurations load(@Nullable final SnapshotIndex snapshot, @Nullable final File reportsDirectory,
+                                     @NotNull final Log log) {
+        final TestDurations durations = new TestDurations();
+        if (reportsDirectory != null && reportsDirectory.isDirectory()) {
+            durations.readReports(reportsDirectory, log);
+        }
+        if (snapshot != null) {
+            durations.readSnapshot(snapshot);
+        }
+        log.debug("Found durations of " + durations.durations.size() + " test classes");
+        return durations;
+    }
+
+    /**
+     * Converts a test name (e.g. name of a test resource or of a test class) to a key used by this class.
+     *
+     * @param testName path of a test source file, with any separator
+     * @return String path with '/' as a separator
+     */
+    @NotNull
+    public static String toTestPath(@NotNull final String testName) {
+        return testName.replace('\\', '/');
+    }
+
+    /**
+     * Returns duration of a test class.
+     *
+     * @param testName      path of a test source file
+     * @param defaultMillis value returned if duration is not known
+     * @return long duration in milliseconds
+     */
+    public long getDuration(@NotNull final String testName, final long defaultMillis) {
+        final Long duration = durations.get(toTestPath(testName));
+        return duration != null ? duration : defaultMillis;
+    }
+
+    /**
+     * Returns a median of known durations, which is a reasonable estimate for tests without history.
+     *
+     * @return long duration in milliseconds, 1 if no duration is known
+     */
+    public long getMedianDuration() {
+        if (durations.isEmpty()) {
+            return 1L;
+        }
+        final List<Long> sorted = new ArrayList<Long>(durations.values());
+        Collections.sort(sorted);
+        return Math.max(1L, sorted.get(sorted.size() / 2));
+    }
+
+    public boolean isEmpty() {
+        return durations.isEmpty();
+    }
+
+    @VisibleForTesting
+    void put(@NotNull final String testName, final long millis) {
+        durations.put(toTestPath(testName), millis);
+    }
+
+    /**
+     * Reads durations of test methods from the snapshot index and sums them per test class.
+     */
+    private void readSnapshot(@NotNull final SnapshotIndex snapshot) {
+        final Map<String, Long> snapshotDurations = new HashMap<String, Long>();
+        for (int test = 0; test < snapshot.getTestCount(); test++) {
+            final long duration = snapshot.getDuration(test);
+            if (duration != Snapshot.UNKNOWN_DURATION) {
+                final String testPath = snapshot.getTestPath(test);
+                final Long previous = snapshotDurations.get(testPath);
+                snapshotDurations.put(testPath, previous != null ? previous + duration : duration);
+            }
+        }
+        durations.putAll(snapshotDurations);
+    }
+
+    /**
+     * Reads durations of test classes from TEST-*.xml reports, i.e. the "name" and "time" attributes of the root
+     * "testsuite" element.
+     */
+    private void readReports(@NotNull final File reportsDirectory, @NotNull final Log log) {
+        final File[] reports = reportsDirectory.listFiles(new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith("TEST-") && name.endsWith(".xml");
+            }
+        });
+        if (reports == null) {
+            return;
+        }
+
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        for (final File report : reports) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(report);
+                factory.newSAXParser().parse(in, new DefaultHandler() {
+                    @Override
+                    public void startElement(final String uri, final String localName, final String qName,
+                                             final Attributes attributes) throws SAXException {
+                        readTestSuite(attributes.getValue("name"), attributes.getValue("time"));
+                        throw new RootElementFound();
+                    }
+                });
+            } catch (RootElementFound ex) {
+                // expected
+            } catch (SAXException ex) {
+                log.debug("Failed to read test report " + report, ex);
+            } catch (ParserConfigurationException ex) {
+                log.debug("Failed to read test report " + report, ex);
+            } catch (IOException ex) {
+                log.debug("Failed to read test report " + report, ex);
+            } finally {
+                IOStreamUtils.close(in);
+            }
+        }
+    }
+
+    /**
+     * Adds duration of a test suite from a report
+     *
+     * @param className fully qualified name of a test class
+     * @param time      time in seconds, formatted by surefire (e.g. "1,234.5")
+     */
+    @VisibleForTesting
+    void readTestSuite(@Nullable final String className, @Nullable final String time) {
+        if (className == null || time == null) {
+            return;
+        }
+        try {
+            final double seconds = Double.parseDouble(time.replace(",", ""));
+            put(className.replace('.', '/') + ".java", Math.round(seconds * 1000));
+        } catch (NumberFormatException ex) {
+            // unknown duration
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits a set of tests into shards having similar total duration, so that every CI node (or every test JVM)
+ * running one shard needs roughly the same wall time.
+ *
+ * Tests are assigned using the "longest processing time first" rule: tests are sorted by decreasing duration and each
+ * test goes to the shard with the lowest total so far. The result depends only on the test names and durations,
+ * so every node computes the same partitioning and picks its own shard.
+ */
+public class TestSharding {
+
+    private final int shardCount;
+
+    /**
+     * @param shardCount number of shards, at least 1
+     */
+    public TestSharding(final int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Number of shards must be positive: " + shardCount);
+        }
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Returns tests belonging to the shard.
+     *
+     * @param testNames  all tests
+     * @param durations  historical durations; tests without history are assumed to take a median duration
+     * @param shardIndex index of the shard, from 0 to shardCount-1
+     * @return List&lt;String&gt; tests of the shard, in the same order as in <code>testNames</code>
+     */
+    @NotNull
+    public List<String> selectShard(@NotNull final List<String> testNames, @NotNull final TestDurations durations,
+                                    final int shardIndex) {
+        if (shardIndex < 0 || shardIndex >= shardCount) {
+            throw new IllegalArgumentException("Shard index must be between 0 and " + (shardCount - 1) + ": " + shardIndex);
+        }
+        final int[] shards = assignShards(testNames, durations);
+        final List<String> selected = new ArrayList<String>();
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i] == shardIndex) {
+                selected.add(testNames.get(i));
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Assigns every test to a shard.
+     *
+     * @return int[] shard index of each test, in the same order as <code>testNames</code>
+     */
+    @NotNull
+    int[] assignShards(@NotNull final List<String> testNames, @NotNull final TestDurations durations) {
+        final long defaultDuration = durations.getMedianDuration();
+        final long[] testDurations = new long[testNames.size()];
+        final List<Integer> order = new ArrayList<Integer>(testNames.size());
+        for (int i = 0; i < testNames.size(); i++) {
+            testDurations[i] = durations.getDuration(testNames.get(i), defaultDuration);
+            order.add(i);
+        }
+
+        // longest first; ties are broken by name so that the order does not depend on the input order
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(final Integer o1, final Integer o2) {
+                final int byDuration = Long.compare(testDurations[o2], testDurations[o1]);
+                return byDuration != 0
+                        ? byDuration
+                        : TestDurations.toTestPath(testNames.get(o1)).compareTo(TestDurations.toTestPath(testNames.get(o2)));
+            }
+        });
+
+        final long[] totals = new long[shardCount];
+        final int[] shards = new int[testNames.size()];
+        for (final int test : order) {
+            int lightest = 0;
+            for (int shard = 1; shard < shardCount; shard++) {
+                if (totals[shard] < totals[lightest]) {
+                    lightest = shard;
+                }
+            }
+            shards[test] = lightest;
+            totals[lightest] += testDurations[test];
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,137 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Selects a subset of tests which covers as much of modified code as possible within a time budget.
+ *
+ * Tests which must always run are selected first. Then tests are picked greedily by the number of modified files
+ * they cover and no selected test has covered yet, divided by their duration. A test without coverage history
+ * (e.g. a new test) is assumed to cover one unique file. When no test adds coverage anymore, remaining tests are
+ * added in their original order as long as they fit into the budget.
+ */
+public class TimeBudgetSelector {
+
+    private final long budgetMillis;
+
+    /**
+     * @param budgetMillis maximum total duration of selected tests, in milliseconds
+     */
+    public TimeBudgetSelector(final long budgetMillis) {
+        this.budgetMillis = budgetMillis;
+    }
+
+    /**
+     * Returns tests to be run.
+     *
+     * @param testNames      candidate tests
+     * @param alwaysRunTests tests which are selected even if they do not fit into the budget
+     * @param durations      historical durations; tests without history are assumed to take a median duration
+     * @param coverage       modified files covered by tests
+     * @return List&lt;String&gt; selected tests, in the same order as in <code>testNames</code>
+     */
+    @NotNull
+    public List<String> select(@NotNull final List<String> testNames, @NotNull final Collection<String> alwaysRunTests,
+                               @NotNull final TestDurations durations, @NotNull final TestCoverage coverage) {
+        final long defaultDuration = durations.getMedianDuration();
+        final int count = testNames.size();
+        final long[] testDurations = new long[count];
+        final boolean[] selected = new boolean[count];
+        final Set<String> covered = new HashSet<String>();
+        long remaining = budgetMillis;
+
+        for (int i = 0; i < count; i++) {
+            final String testName = testNames.get(i);
+            // every test takes at least 1ms, so that the ratio below is defined
+            testDurations[i] = Math.max(1L, durations.getDuration(testName, defaultDuration));
+            if (alwaysRunTests.contains(testName)) {
+                selected[i] = true;
+                remaining -= testDurations[i];
+                covered.addAll(getChangedFiles(testName, coverage));
+            }
+        }
+
+        // greedy: the best gain of coverage per millisecond among tests fitting into the remaining budget
+        while (true) {
+            int best = -1;
+            double bestScore = 0;
+            for (int i = 0; i < count; i++) {
+                if (selected[i] || testDurations[i] > remaining) {
+                    continue;
+                }
+                int gain = 0;
+                for (final String file : getChangedFiles(testNames.get(i), coverage)) {
+                    if (!covered.contains(file)) {
+                        gain++;
+                    }
+                }
+                final double score = (double) gain / testDurations[i];
+                if (gain > 0 && score > bestScore) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            selected[best] = true;
+            remaining -= testDurations[best];
+            covered.addAll(getChangedFiles(testNames.get(best), coverage));
+        }
+
+        // fill the rest of the budget
+        for (int i = 0; i < count; i++) {
+            if (!selected[i] && testDurations[i] <= remaining) {
+                selected[i] = true;
+                remaining -= testDurations[i];
+            }
+        }
+
+        final List<String> result = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            if (selected[i]) {
+                result.add(testNames.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns modified files covered by the test or a unique placeholder if the test has no coverage history.
+     */
+    @NotNull
+    private static Set<String> getChangedFiles(@NotNull final String testName, @NotNull final TestCoverage coverage) {
+        final Set<String> changedFiles = coverage.getChangedFiles(testName);
+        if (changedFiles == null) {
+            final Set<String> unknown = new HashSet<String>();
+            unknown.add("?" + TestDurations.toTestPath(testName));
+            return unknown;
+        }
+        return changedFiles;
+    }
+}
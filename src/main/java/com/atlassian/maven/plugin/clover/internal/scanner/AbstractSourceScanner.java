@@ -20,20 +20,25 @@ package com.atlassian.maven.plugin.clover.internal.scanner;
  */
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import org.apache.tools.ant.DirectoryScanner;
-import org.apache.tools.ant.types.selectors.FileSelector;
-import org.apache.tools.ant.types.selectors.DependSelector;
 import com.atlassian.maven.plugin.clover.internal.CompilerConfiguration;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.List;
-import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Code common to compute the list of source files to instrument (main sources, test sources) for Java and Groovy
@@ -41,8 +46,45 @@ import java.util.Iterator;
  */
 public abstract class AbstractSourceScanner implements CloverSourceScanner {
 
-    private interface SourceRootVisitor {
-        void visitDir(File dir);
+    /**
+     * Selects files from one source root and passes them to a visitor while iterating over the index of the root.
+     */
+    private interface SourceRootSelector {
+        /**
+         * Returns <code>false</code> if no file can be selected from the source root, so that it's not walked at all.
+         * Source roots are walked in parallel, so it must not modify any shared state.
+         */
+        boolean acceptsSourceRoot(@NotNull File dir);
+
+        /**
+         * Passes selected files of the source root to the visitor. Called on the thread calling the scanner.
+         */
+        void visitFiles(@NotNull File dir, @NotNull SourceTreeIndex.SourceRoot root, @NotNull String sourceRootPath,
+                        @NotNull SourceFileVisitor visitor) throws IOException;
+    }
+
+    /**
+     * Collects visited files into a Map(source root, files).
+     */
+    private static class SourceFileCollector implements SourceFileVisitor {
+        private final Map<String, List<String>> files = new HashMap<String, List<String>>();
+
+        public void visitFile(final String sourceRoot, final String fileName) {
+            List<String> filesInRoot = files.get(sourceRoot);
+            if (filesInRoot == null) {
+                filesInRoot = new ArrayList<String>();
+                files.put(sourceRoot, filesInRoot);
+            }
+            filesInRoot.add(fileName);
+        }
+
+        Map<String, String[]> getFiles() {
+            final Map<String, String[]> result = new HashMap<String, String[]>();
+            for (final Map.Entry<String, List<String>> entry : files.entrySet()) {
+                result.put(entry.getKey(), Iterables.toArray(entry.getValue(), String.class));
+            }
+            return result;
+        }
     }
 
     @NotNull
@@ -51,14 +93,29 @@ public abstract class AbstractSourceScanner implements CloverSourceScanner {
     @NotNull
     private final File targetDir;
 
+    @NotNull
+    private final SourceTreeIndex sourceTreeIndex;
+
     /**
      *
      * @param configuration compiler configuration
      * @param outputSourceDirectory where to put instrumented sources
      */
     public AbstractSourceScanner(@NotNull final CompilerConfiguration configuration, @NotNull final String outputSourceDirectory) {
+        this(configuration, outputSourceDirectory, new SourceTreeIndex());
+    }
+
+    /**
+     *
+     * @param configuration compiler configuration
+     * @param outputSourceDirectory where to put instrumented sources
+     * @param sourceTreeIndex index of source roots, which can be shared with other scanners
+     */
+    public AbstractSourceScanner(@NotNull final CompilerConfiguration configuration, @NotNull final String outputSourceDirectory,
+                                 @NotNull final SourceTreeIndex sourceTreeIndex) {
         this.configuration = configuration;
         this.targetDir = new File(outputSourceDirectory);
+        this.sourceTreeIndex = sourceTreeIndex;
     }
 
     /**
@@ -74,10 +131,46 @@ public abstract class AbstractSourceScanner implements CloverSourceScanner {
      * @see CloverSourceScanner#getExcludedFiles()
      */
     public Map<String,String[]> getExcludedFiles() {
-        Map<String, String[]> excludedFiles = computeExcludedFiles(getDirectoryScanner());
-        // special case: don't return excludes from 'src/(main|test)/groovy'
-        removeGroovySourceRoot(excludedFiles.keySet());
-        return excludedFiles;
+        final SourceFileCollector collector = new SourceFileCollector();
+        try {
+            visitExcludedFiles(collector);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex); // never thrown by the collector
+        }
+        return collector.getFiles();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Files from native Groovy source directory are not visited, the same as in {@link #getExcludedFiles()}.
+     *
+     * @see CloverSourceScanner#visitExcludedFiles(SourceFileVisitor)
+     */
+    public void visitExcludedFiles(@NotNull final SourceFileVisitor visitor) throws IOException {
+        // ensure that .svn dirs etc are not considered excluded
+        final String[] includes = concatArrays(
+                Iterables.toArray(getConfiguration().getIncludes(), String.class),
+                DirectoryScanner.getDefaultExcludes());
+        final String[] excludes = Iterables.toArray(getConfiguration().getExcludes(), String.class);
+        visitSourceRoots(new SourceRootSelector() {
+            public boolean acceptsSourceRoot(@NotNull final File dir) {
+                // special case: don't return excludes from 'src/(main|test)/groovy'
+                return !isGroovySourceRoot(dir.getPath());
+            }
+
+            public void visitFiles(@NotNull final File dir, @NotNull final SourceTreeIndex.SourceRoot root,
+                                   @NotNull final String sourceRootPath, @NotNull final SourceFileVisitor visitor)
+                    throws IOException {
+                final IndexedDirectoryScanner scanner = createDirectoryScanner(dir, includes, excludes, false);
+                for (final String file : root.files) {
+                    if (scanner.isExcludedFile(file)) {
+                        configuration.getLog().debug("excluding file from instrumentation = " + file);
+                        visitor.visitFile(sourceRootPath, file);
+                    }
+                }
+            }
+        }, false, visitor);
     }
 
     /**
@@ -109,12 +202,64 @@ public abstract class AbstractSourceScanner implements CloverSourceScanner {
      * @return Map&lt;File,String[]&gt;
      */
     public Map<String,String[]> getSourceFilesToInstrument(LanguageFileFilter languageFileFilter, boolean skipGroovySourceDirectory) {
-        Map<String, String[]> includedFiles = computeIncludedFiles(getDirectoryScanner(), languageFileFilter);
-        // special case: don't return includes from 'src/(main|test)/groovy'
-        if (skipGroovySourceDirectory) {
-            removeGroovySourceRoot(includedFiles.keySet());
+        return getSourceFiles(languageFileFilter, skipGroovySourceDirectory, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CloverSourceScanner#getAllSourceFiles(LanguageFileFilter, boolean)
+     */
+    public Map<String,String[]> getAllSourceFiles(LanguageFileFilter languageFileFilter, boolean skipGroovySourceDirectory) {
+        return getSourceFiles(languageFileFilter, skipGroovySourceDirectory, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CloverSourceScanner#visitSourceFiles(LanguageFileFilter, boolean, boolean, SourceFileVisitor)
+     */
+    public void visitSourceFiles(@NotNull final LanguageFileFilter languageFileFilter, final boolean skipGroovySourceDirectory,
+                                 final boolean skipUpToDateFiles, @NotNull final SourceFileVisitor visitor) throws IOException {
+        final String[] includes = Iterables.toArray(getConfiguration().getIncludes(), String.class);
+        final String[] excludes = Iterables.toArray(getConfiguration().getExcludes(), String.class);
+        visitSourceRoots(new SourceRootSelector() {
+            public boolean acceptsSourceRoot(@NotNull final File dir) {
+                // special case: don't return includes from 'src/(main|test)/groovy'
+                return !(skipGroovySourceDirectory && isGroovySourceRoot(dir.getAbsolutePath()));
+            }
+
+            public void visitFiles(@NotNull final File dir, @NotNull final SourceTreeIndex.SourceRoot root,
+                                   @NotNull final String sourceRootPath, @NotNull final SourceFileVisitor visitor)
+                    throws IOException {
+                final IndexedDirectoryScanner scanner = createDirectoryScanner(dir, includes, excludes, skipUpToDateFiles);
+                for (int i = 0; i < root.files.length; i++) {
+                    final String file = root.files[i];
+                    // the extension check is the cheapest one, so it goes first
+                    if (languageFileFilter.accept(file) && scanner.isIncludedFile(file, root.lastModified[i])) {
+                        configuration.getLog().debug("including file for instrumentation = " + file);
+                        visitor.visitFile(sourceRootPath, file);
+                    }
+                }
+            }
+        }, true, visitor);
+    }
+
+    private Map<String,String[]> getSourceFiles(LanguageFileFilter languageFileFilter, boolean skipGroovySourceDirectory,
+                                                boolean skipUpToDateFiles) {
+        final SourceFileCollector collector = new SourceFileCollector();
+        try {
+            visitSourceFiles(languageFileFilter, skipGroovySourceDirectory, skipUpToDateFiles, collector);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex); // never thrown by the collector
         }
-        return includedFiles;
+        return collector.getFiles();
+    }
+
+    private boolean isGroovySourceRoot(final String sourceRoot) {
+        final Set<String> sourceRoots = Sets.newHashSet(sourceRoot);
+        removeGroovySourceRoot(sourceRoots);
+        return sourceRoots.isEmpty();
     }
 
     protected abstract List<String> getCompileSourceRoots();
@@ -144,74 +289,36 @@ public abstract class AbstractSourceScanner implements CloverSourceScanner {
     }
 
     /**
-     * Returns a Plexus scanner object that scans a source root and filters files according to inclusion and
-     * exclusion patterns. In our case at hand we include only Java sources as these are the only files we want
-     * to instrument.
-     * @return DirectoryScanner
+     * Returns a scanner object that filters files from a source root according to inclusion and exclusion
+     * patterns. In our case at hand we include only Java sources as these are the only files we want
+     * to instrument. Files are taken from the {@link SourceTreeIndex}, so that a source root is walked only once.
+     * A new scanner is created for every source root.
+     * @param dir source root
+     * @param includes inclusion patterns
+     * @param excludes exclusion patterns (default excludes are added)
+     * @param skipUpToDateFiles if <code>true</code> then files older than their instrumented counterparts are skipped
+     * @return IndexedDirectoryScanner
      */
-    private DirectoryScanner getDirectoryScanner() {
-        final Set<String> includes = getConfiguration().getIncludes();
-        final Set<String> excludes = getConfiguration().getExcludes();
+    private IndexedDirectoryScanner createDirectoryScanner(final File dir, final String[] includes, final String[] excludes,
+                                                           final boolean skipUpToDateFiles) {
+        configuration.getLog().debug("excludes patterns = " + Arrays.asList(excludes));
+        configuration.getLog().debug("includes patterns = " + Arrays.asList(includes));
+        final IndexedDirectoryScanner dirScan = new IndexedDirectoryScanner();
 
-        configuration.getLog().debug("excludes patterns = " + excludes);
-        configuration.getLog().debug("includes patterns = " + includes);
-        final DirectoryScanner dirScan = new DirectoryScanner();
-
-        dirScan.addExcludes(Iterables.toArray(excludes, String.class));
-        dirScan.setIncludes(Iterables.toArray(includes, String.class));
+        dirScan.setBasedir(dir);
+        dirScan.addExcludes(excludes);
+        dirScan.setIncludes(includes);
 
         dirScan.addDefaultExcludes();
 
-        final DependSelector selector = new DependSelector();
-        selector.setTargetdir(targetDir);
-        dirScan.setSelectors(new FileSelector[]{selector});
+        if (skipUpToDateFiles) {
+            dirScan.setTargetDir(targetDir);
+        }
+        dirScan.preparePatterns();
 
         return dirScan;
     }
 
-    private Map<String, String[]> computeExcludedFiles(final DirectoryScanner scanner) {
-        final Map<String, String[]> files = new HashMap<String,String[]>();
-
-        visitSourceRoots(new SourceRootVisitor() {
-            public void visitDir(File dir) {
-                scanner.setBasedir(dir);
-
-                final Set<String> configurationIncludes = getConfiguration().getIncludes();
-                final String[] includes = concatArrays(
-                        Iterables.toArray(configurationIncludes, String.class),
-                        DirectoryScanner.getDefaultExcludes());
-                scanner.setIncludes(includes);// ensure that .svn dirs etc are not considered excluded
-                scanner.scan();
-
-                final String[] sourcesToAdd = concatArrays(scanner.getExcludedFiles(), scanner.getNotIncludedFiles());
-
-                configuration.getLog().debug("excluding files from instrumentation = " + Arrays.asList(sourcesToAdd));
-
-                if (sourcesToAdd.length > 0) {
-                    files.put(dir.getPath(), sourcesToAdd);
-                }
-            }
-        });
-        return files;
-    }
-
-    private Map<String, String[]> computeIncludedFiles(final DirectoryScanner scanner, final LanguageFileFilter languageFilter) {
-        final Map<String, String[]> files = new HashMap<String,String[]>();
-        visitSourceRoots(new SourceRootVisitor() {
-            public void visitDir(File dir) {
-                scanner.setBasedir(dir);
-                scanner.scan();
-                final String[] sourcesToAdd = languageFilter.filter(scanner.getIncludedFiles());
-                if (sourcesToAdd.length > 0) {
-                    configuration.getLog().debug("including files for instrumentation = " + Arrays.asList(sourcesToAdd));
-                    files.put(dir.getAbsolutePath(), sourcesToAdd);
-                }
-            }
-        });
-
-        return files;
-    }
-
     private String[] concatArrays(final String[] a1, final String[] a2) {
         final String[] result = new String[a1.length + a2.length];
         System.arraycopy(a1, 0, result, 0, a1.length);
@@ -248,13 +355,64 @@ public abstract class AbstractSourceScanner implements CloverSourceScanner {
     }
 
 
-    private void visitSourceRoots(final SourceRootVisitor visitor) {
+    /**
+     * Selects files from all resolved source roots and passes them to the <code>visitor</code>. Source roots which
+     * are not in the {@link SourceTreeIndex} yet are walked in parallel, each one on its own worker, so that the time
+     * of a scan depends on the largest source root rather than on the sum of all of them. Files of a source root are
+     * passed to the visitor as soon as the root is indexed, while the index is being iterated, in the order of source
+     * roots and on the calling thread, so visitors don't have to be thread-safe.
+     *
+     * @param selector      selects files from one source root
+     * @param absolutePaths whether the visitor gets absolute paths of source roots
+     * @param visitor       receives selected files
+     * @throws IOException if visitor fails
+     */
+    private void visitSourceRoots(final SourceRootSelector selector, final boolean absolutePaths,
+                                  final SourceFileVisitor visitor) throws IOException {
         // Decide whether to instrument all source roots or only the main source root.
+        final List<File> sourceRoots = new ArrayList<File>();
         for (String resolvedSourceRoot : getResolvedSourceRoots()) {
             final File sourceRoot = new File(resolvedSourceRoot);
-            if (sourceRoot.exists()) {
-                visitor.visitDir(sourceRoot);
+            if (sourceRoot.exists() && selector.acceptsSourceRoot(sourceRoot)) {
+                sourceRoots.add(sourceRoot);
+            }
+        }
+
+        if (sourceRoots.size() <= 1) {
+            for (final File sourceRoot : sourceRoots) {
+                selector.visitFiles(sourceRoot, sourceTreeIndex.getSourceRoot(sourceRoot),
+                        absolutePaths ? sourceRoot.getAbsolutePath() : sourceRoot.getPath(), visitor);
+            }
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(sourceRoots.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            final List<Future<SourceTreeIndex.SourceRoot>> futures =
+                    new ArrayList<Future<SourceTreeIndex.SourceRoot>>(sourceRoots.size());
+            for (final File sourceRoot : sourceRoots) {
+                futures.add(executor.submit(new Callable<SourceTreeIndex.SourceRoot>() {
+                    public SourceTreeIndex.SourceRoot call() {
+                        return sourceTreeIndex.getSourceRoot(sourceRoot);
+                    }
+                }));
+            }
+            for (int i = 0; i < sourceRoots.size(); i++) {
+                final File sourceRoot = sourceRoots.get(i);
+                selector.visitFiles(sourceRoot, futures.get(i).get(),
+                        absolutePaths ? sourceRoot.getAbsolutePath() : sourceRoot.getPath(), visitor);
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Scanning of source roots has been interrupted", e);
+        } finally {
+            executor.shutdownNow();
         }
     }
 
@@ -21,6 +21,7 @@ package com.atlassian.maven.plugin.clover.internal.scanner;
 
 import com.atlassian.clover.spi.lang.Language;
 
+import java.io.IOException;
 import java.util.Map;
 
 /**
@@ -47,6 +48,18 @@ public interface CloverSourceScanner {
      */
     Map<String, String[]> getSourceFilesToInstrument(LanguageFileFilter languageFileFilter, boolean skipGroovySourceDirectory);
 
+    /**
+     * Returns the list of all source files taking into account the includes and excludes specified by the user and
+     * a programming language, but unlike {@link #getSourceFilesToInstrument(LanguageFileFilter, boolean)} it does
+     * not skip files which are older than their instrumented copies. The Map is indexed on source roots.
+     *
+     * @param languageFileFilter extra filter (in addition to includes/excludes) based on programming language
+     * @param skipGroovySourceDirectory if <code>true</code> then don't list source files which are located in the
+     *                                  source directory 'native' for groovy language
+     * @return Map&lt;String, String[]&gt; = Map(source root, files)
+     */
+    Map<String, String[]> getAllSourceFiles(LanguageFileFilter languageFileFilter, boolean skipGroovySourceDirectory);
+
     /**
      * Returns the list of excluded files that we'll need to copy. This is required as otherwise the excluded files
      * won't be in the new Clover source directory and thus won't be compiled by the compile plugin. This will
@@ -57,6 +70,30 @@ public interface CloverSourceScanner {
      */
     Map<String, String[]> getExcludedFiles();
 
+    /**
+     * Passes source files to the <code>visitor</code> one by one, as they are found, instead of collecting them
+     * into a Map like {@link #getSourceFilesToInstrument(LanguageFileFilter, boolean)} and
+     * {@link #getAllSourceFiles(LanguageFileFilter, boolean)} do.
+     *
+     * @param languageFileFilter extra filter (in addition to includes/excludes) based on programming language
+     * @param skipGroovySourceDirectory if <code>true</code> then don't list source files which are located in the
+     *                                  source directory 'native' for groovy language
+     * @param skipUpToDateFiles if <code>true</code> then don't list files which are older than their instrumented copies
+     * @param visitor receives files
+     * @throws IOException if thrown by the visitor
+     */
+    void visitSourceFiles(LanguageFileFilter languageFileFilter, boolean skipGroovySourceDirectory,
+                          boolean skipUpToDateFiles, SourceFileVisitor visitor) throws IOException;
+
+    /**
+     * Passes excluded files to the <code>visitor</code> one by one, as they are found, instead of collecting them
+     * into a Map like {@link #getExcludedFiles()} does.
+     *
+     * @param visitor receives files
+     * @throws IOException if thrown by the visitor
+     */
+    void visitExcludedFiles(SourceFileVisitor visitor) throws IOException;
+
     /*
      * Returns true if given <code>sourceRoot</code> is a native source root for given language. For example:
      * <pre>
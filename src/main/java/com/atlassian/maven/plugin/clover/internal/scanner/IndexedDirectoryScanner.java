@@ -0,0 +1,130 @@
+package com.atlassian.maven.plugin.clover.internal.scanner;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.util.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * A DirectoryScanner which does not walk the file system, but classifies files taken from the
+ * {@link SourceTreeIndex}. Includes and excludes are compiled into {@link PathPatternMatcher}s, which follow Ant's
+ * matching rules, so that results are the same as of {@link DirectoryScanner#scan()}.
+ *
+ * Instead of Ant's DependSelector, an up-to-date check is performed using the last modification time stored in
+ * the index, so that only the instrumented copy of a source file has to be checked on disk.
+ */
+class IndexedDirectoryScanner extends DirectoryScanner {
+
+    private final long granularity = FileUtils.getFileUtils().getFileTimestampGranularity();
+
+    /** Directory with instrumented sources, <code>null</code> if up-to-date files shall not be skipped */
+    @Nullable
+    private File targetDir;
+
+    /** Patterns from which matchers were compiled, to compile them again only if patterns have changed */
+    @Nullable
+    private String[] compiledIncludes;
+
+    @Nullable
+    private String[] compiledExcludes;
+
+    @Nullable
+    private PathPatternMatcher includeMatcher;
+
+    @NotNull
+    private PathPatternMatcher excludeMatcher = PathPatternMatcher.fromAntPatterns(null);
+
+    /**
+     * Sets a directory with instrumented sources. Source files which are not newer than their instrumented
+     * copies will not be included - the same as Ant's DependSelector does.
+     *
+     * @param targetDir directory or <code>null</code> to include all files
+     */
+    void setTargetDir(@Nullable final File targetDir) {
+        this.targetDir = targetDir;
+    }
+
+    /**
+     * Must be called after includes or excludes were changed and before files are checked.
+     */
+    void preparePatterns() {
+        clearResults();
+        if (!Arrays.equals(includes, compiledIncludes)) {
+            compiledIncludes = includes;
+            // no includes means that everything is included
+            includeMatcher = includes != null ? PathPatternMatcher.fromAntPatterns(includes) : null;
+        }
+        if (!Arrays.equals(excludes, compiledExcludes)) {
+            compiledExcludes = excludes;
+            excludeMatcher = PathPatternMatcher.fromAntPatterns(excludes);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if file is included, not excluded and not up to date - the same as
+     * {@link DirectoryScanner#getIncludedFiles()} with a DependSelector.
+     *
+     * @param file         path relative to the base directory
+     * @param lastModified last modification time of the file
+     * @return boolean
+     */
+    boolean isIncludedFile(@NotNull final String file, final long lastModified) {
+        return matchesIncludes(file) && !matchesExcludes(file) && isOutOfDate(file, lastModified);
+    }
+
+    /**
+     * Returns <code>true</code> if file is excluded or not included - the same as
+     * {@link DirectoryScanner#getExcludedFiles()} together with {@link DirectoryScanner#getNotIncludedFiles()}.
+     *
+     * @param file path relative to the base directory
+     * @return boolean
+     */
+    boolean isExcludedFile(@NotNull final String file) {
+        return !matchesIncludes(file) || matchesExcludes(file);
+    }
+
+    private boolean matchesIncludes(@NotNull final String file) {
+        if (!isCaseSensitive()) {
+            return isIncluded(file);
+        }
+        return includeMatcher == null || includeMatcher.matchesAntPattern(file);
+    }
+
+    private boolean matchesExcludes(@NotNull final String file) {
+        if (!isCaseSensitive()) {
+            return isExcluded(file);
+        }
+        return excludeMatcher.matchesAntPattern(file);
+    }
+
+    private boolean isOutOfDate(@NotNull final String file, final long lastModified) {
+        if (targetDir == null) {
+            return true;
+        }
+        // lastModified() returns 0 for a missing file
+        final long targetLastModified = new File(targetDir, file).lastModified();
+        return targetLastModified == 0L || lastModified - granularity > targetLastModified;
+    }
+}
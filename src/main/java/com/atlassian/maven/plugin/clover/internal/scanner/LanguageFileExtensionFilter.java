@@ -13,6 +13,8 @@ public abstract class LanguageFileExtensionFilter implements LanguageFileFilter
 
     public abstract String[] filter(String[] inputFiles);
 
+    public abstract boolean accept(String inputFile);
+
     protected String[] filter(final String[] inputFiles, final Set<String> fileExtensions) {
         if (inputFiles == null) {
             return null;
@@ -21,17 +23,22 @@ public abstract class LanguageFileExtensionFilter implements LanguageFileFilter
         final ArrayList<String> filteredFiles = new ArrayList<String>(inputFiles.length);
         // copy files matching the extension(s)
         for (String inputFile : inputFiles) {
-            final int lastDotIndex = inputFile.lastIndexOf('.');
-            if (lastDotIndex != -1) {
-                final String fileExt = inputFile.substring(lastDotIndex); // get extension
-                if (fileExtensions.contains(fileExt)) {
-                    filteredFiles.add(inputFile);
-                }
+            if (accept(inputFile, fileExtensions)) {
+                filteredFiles.add(inputFile);
             }
         }
         return Iterables.toArray(filteredFiles, String.class);
     }
 
+    protected boolean accept(final String inputFile, final Set<String> fileExtensions) {
+        final int lastDotIndex = inputFile.lastIndexOf('.');
+        if (lastDotIndex != -1) {
+            final String fileExt = inputFile.substring(lastDotIndex); // get extension
+            return fileExtensions.contains(fileExt);
+        }
+        return false;
+    }
+
     /**
      * Filter accepting all sources.
      */
@@ -40,6 +47,10 @@ public abstract class LanguageFileExtensionFilter implements LanguageFileFilter
             return inputFiles;
         }
 
+        public boolean accept(final String inputFile) {
+            return true;
+        }
+
         @Override
         public String toString() {
             return "ANY_LANGUAGE";
@@ -57,6 +68,11 @@ public abstract class LanguageFileExtensionFilter implements LanguageFileFilter
             return filter(inputFiles, Language.Builtin.JAVA.getFileExtensions());
         }
 
+        @Override
+        public boolean accept(final String inputFile) {
+            return accept(inputFile, Language.Builtin.JAVA.getFileExtensions());
+        }
+
         @Override
         public String toString() {
             return "JAVA_LANGUAGE";
@@ -73,6 +89,10 @@ public abstract class LanguageFileExtensionFilter implements LanguageFileFilter
             return filter(inputFiles, Language.Builtin.GROOVY.getFileExtensions());
         }
 
+        public boolean accept(final String inputFile) {
+            return accept(inputFile, Language.Builtin.GROOVY.getFileExtensions());
+        }
+
         @Override
         public String toString() {
             return "GROOVY_LANGUAGE";
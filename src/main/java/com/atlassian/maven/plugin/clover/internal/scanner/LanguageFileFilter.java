@@ -14,4 +14,12 @@ public interface LanguageFileFilter {
      */
     String[] filter(String[] inputFiles);
 
+    /**
+     * Returns <code>true</code> if <code>inputFile</code> matches programming language.
+     *
+     * @param inputFile file to be checked
+     * @return boolean
+     */
+    boolean accept(String inputFile);
+
 }
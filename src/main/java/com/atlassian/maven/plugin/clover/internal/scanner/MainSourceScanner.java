@@ -42,6 +42,11 @@ public class MainSourceScanner extends AbstractSourceScanner {
         super(configuration, outputSourceDirectory);
     }
 
+    public MainSourceScanner(final CompilerConfiguration configuration, final String outputSourceDirectory,
+                           final SourceTreeIndex sourceTreeIndex) {
+        super(configuration, outputSourceDirectory, sourceTreeIndex);
+    }
+
     /**
      * From a list of provided <code>sourceRoots</code> remove SRC_MAIN_GROOVY root
      *
@@ -0,0 +1,429 @@
+package com.atlassian.maven.plugin.clover.internal.scanner;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A set of include or exclude patterns compiled once and then matched against many paths.
+ *
+ * Ant-style patterns are merged into a trie of path segments. Literal segments are looked up in a hash map and
+ * only wildcard segments (containing '*' or '?') are evaluated one by one, so the cost of matching a path depends
+ * on the length of the path and the number of patterns sharing its prefix, not on the total number of patterns.
+ * Matching follows Ant's {@link SelectorUtils#matchPath(String, String)} (case sensitive).
+ *
+ * Patterns in the form <code>%regex[...]</code> (as supported by the maven-surefire-plugin) are compiled to regular
+ * expressions. Where possible, a literal text which every matching path must contain is extracted from the
+ * expression, so that most of non-matching paths are rejected without running the regular expression.
+ */
+public class PathPatternMatcher {
+
+    public static final String REGEX_START = "%regex[";
+
+    public static final String REGEX_END = "]";
+
+    private static final String DEEP_TREE_MATCH = "**";
+
+    /** Separators of many Ant patterns in one entry of the optimizer's includes/excludes */
+    private static final String ANT_PATTERN_SEPARATOR = "[, ]";
+
+    /**
+     * Node of a trie of tokenized Ant patterns
+     */
+    private static class Node {
+        /** Children for literal segments */
+        @NotNull
+        final Map<String, Node> literals = new HashMap<String, Node>();
+
+        /** Children for segments with wildcards ('*' or '?'), which have to be matched one by one */
+        @NotNull
+        final Map<String, Node> wildcards = new HashMap<String, Node>();
+
+        /** Child for the "**" segment, which may consume zero or more path segments */
+        @Nullable
+        Node deepChild;
+
+        /** Whether this node is a "**" segment itself */
+        boolean deep;
+
+        /** Whether some pattern ends at this node */
+        boolean terminal;
+    }
+
+    /**
+     * Regular expression with an optional literal required in every match
+     */
+    private static class RegexPattern {
+        @NotNull
+        final Pattern pattern;
+
+        @Nullable
+        final String requiredLiteral;
+
+        RegexPattern(@NotNull final String regex) {
+            this.pattern = Pattern.compile(regex);
+            this.requiredLiteral = findRequiredLiteral(regex);
+        }
+
+        boolean matches(@NotNull final String path) {
+            return (requiredLiteral == null || path.contains(requiredLiteral)) && pattern.matcher(path).matches();
+        }
+    }
+
+    @NotNull
+    private final Node root = new Node();
+
+    @NotNull
+    private final List<String> antPatterns = new ArrayList<String>();
+
+    @NotNull
+    private final List<RegexPattern> regexPatterns = new ArrayList<RegexPattern>();
+
+    private PathPatternMatcher() {
+    }
+
+    /**
+     * Compiles Ant patterns, e.g. includes or excludes of a DirectoryScanner. Patterns are normalized in the
+     * same way as Ant does it: both '/' and '\' are treated as a file separator and a pattern ending with
+     * a separator matches everything below the directory.
+     *
+     * @param patterns Ant patterns, can be <code>null</code>
+     * @return PathPatternMatcher matcher
+     */
+    @NotNull
+    public static PathPatternMatcher fromAntPatterns(@Nullable final String[] patterns) {
+        final PathPatternMatcher matcher = new PathPatternMatcher();
+        if (patterns != null) {
+            for (final String pattern : patterns) {
+                matcher.addAntPattern(pattern);
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Compiles patterns as configured for test selection in the maven-surefire-plugin or in the optimizer: every
+     * entry is either a single <code>%regex[...]</code> expression or one or more Ant patterns separated by
+     * commas or spaces.
+     *
+     * @param entries list of entries, can be <code>null</code>
+     * @return PathPatternMatcher matcher
+     */
+    @NotNull
+    public static PathPatternMatcher fromPatternList(@Nullable final Collection<String> entries) {
+        final PathPatternMatcher matcher = new PathPatternMatcher();
+        if (entries != null) {
+            for (final String entry : entries) {
+                final String trimmed = entry.trim();
+                if (trimmed.startsWith(REGEX_START)) {
+                    matcher.regexPatterns.add(new RegexPattern(trimmed.substring(
+                            trimmed.indexOf(REGEX_START) + REGEX_START.length(),
+                            trimmed.lastIndexOf(REGEX_END))));
+                } else {
+                    for (final String pattern : entry.split(ANT_PATTERN_SEPARATOR)) {
+                        if (pattern.length() > 0) {
+                            matcher.addAntPattern(pattern);
+                        }
+                    }
+                }
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * @return List&lt;String&gt; Ant patterns (as passed, without normalization)
+     */
+    @NotNull
+    public List<String> getAntPatterns() {
+        return Collections.unmodifiableList(antPatterns);
+    }
+
+    public boolean hasRegexPatterns() {
+        return !regexPatterns.isEmpty();
+    }
+
+    public boolean isEmpty() {
+        return antPatterns.isEmpty() && regexPatterns.isEmpty();
+    }
+
+    /**
+     * Returns <code>true</code> if the path matches any of Ant patterns or regular expressions.
+     *
+     * @param relativePath path relative to the base directory, with platform-specific separators
+     * @return boolean
+     */
+    public boolean matches(@NotNull final String relativePath) {
+        return matchesAntPattern(relativePath) || matchesRegex(relativePath);
+    }
+
+    /**
+     * Returns <code>true</code> if the path matches any of Ant patterns.
+     *
+     * @param relativePath path relative to the base directory, with platform-specific separators
+     * @return boolean
+     */
+    public boolean matchesAntPattern(@NotNull final String relativePath) {
+        if (antPatterns.isEmpty()) {
+            return false;
+        }
+        Set<Node> states = new HashSet<Node>();
+        addWithDeepChildren(states, root);
+        for (final String segment : tokenize(relativePath)) {
+            final Set<Node> nextStates = new HashSet<Node>();
+            for (final Node node : states) {
+                if (node.deep) {
+                    addWithDeepChildren(nextStates, node);
+                }
+                final Node literal = node.literals.get(segment);
+                if (literal != null) {
+                    addWithDeepChildren(nextStates, literal);
+                }
+                for (final Map.Entry<String, Node> wildcard : node.wildcards.entrySet()) {
+                    if (SelectorUtils.match(wildcard.getKey(), segment, true)) {
+                        addWithDeepChildren(nextStates, wildcard.getValue());
+                    }
+                }
+            }
+            if (nextStates.isEmpty()) {
+                return false;
+            }
+            states = nextStates;
+        }
+        for (final Node node : states) {
+            if (node.terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if the path matches any of <code>%regex[...]</code> patterns. Note that the
+     * maven-surefire-plugin matches regular expressions against a whole path, so the caller decides whether
+     * a relative or an absolute path is checked.
+     *
+     * @param path path to check
+     * @return boolean
+     */
+    public boolean matchesRegex(@NotNull final String path) {
+        for (final RegexPattern regex : regexPatterns) {
+            if (regex.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if any of <code>%regex[...]</code> patterns could match a path located under the
+     * directory, i.e. a path starting with <code>directoryPath</code> followed by a file separator. Used to skip
+     * directories which cannot contain matching files. The check is conservative: it can return <code>true</code>
+     * for a directory without matching files, but never returns <code>false</code> if a match is possible.
+     *
+     * @param directoryPath path of a directory, in the same form as paths passed to {@link #matchesRegex(String)}
+     * @return boolean
+     */
+    public boolean mayMatchRegexUnder(@NotNull final String directoryPath) {
+        final String prefix = directoryPath.endsWith(File.separator) ? directoryPath : directoryPath + File.separatorChar;
+        for (final RegexPattern regex : regexPatterns) {
+            final Matcher matcher = regex.pattern.matcher(prefix);
+            // if the end of the prefix was not reached then no continuation of it can match
+            if (matcher.matches() || matcher.hitEnd()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        final List<String> patterns = new ArrayList<String>(antPatterns);
+        for (final RegexPattern regex : regexPatterns) {
+            patterns.add(REGEX_START + regex.pattern.pattern() + REGEX_END);
+        }
+        return patterns.toString();
+    }
+
+    private void addAntPattern(@NotNull final String pattern) {
+        antPatterns.add(pattern);
+        String normalized = pattern.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+        if (normalized.endsWith(File.separator)) {
+            normalized += DEEP_TREE_MATCH;
+        }
+
+        Node node = root;
+        for (final String segment : tokenize(normalized)) {
+            if (DEEP_TREE_MATCH.equals(segment)) {
+                if (node.deepChild == null) {
+                    node.deepChild = new Node();
+                    node.deepChild.deep = true;
+                }
+                node = node.deepChild;
+            } else {
+                final Map<String, Node> children = SelectorUtils.hasWildcards(segment) ? node.wildcards : node.literals;
+                Node child = children.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    children.put(segment, child);
+                }
+                node = child;
+            }
+        }
+        node.terminal = true;
+    }
+
+    /**
+     * Splits a path into segments at file separators, skipping empty segments - the same as Ant does it.
+     */
+    @NotNull
+    private static List<String> tokenize(@NotNull final String path) {
+        final List<String> segments = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == File.separatorChar) {
+                if (i != start) {
+                    segments.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        if (start != path.length()) {
+            segments.add(path.substring(start));
+        }
+        return segments;
+    }
+
+    /**
+     * Adds a node and all "**" nodes reachable from it without consuming a path segment.
+     */
+    private static void addWithDeepChildren(@NotNull final Set<Node> states, @NotNull final Node node) {
+        Node current = node;
+        while (current != null && states.add(current)) {
+            current = current.deepChild;
+        }
+    }
+
+    /**
+     * Finds the longest text which must be present in every string matching the regular expression. Only the top
+     * level of the expression is analyzed (groups and character classes are skipped, a character followed by
+     * a <code>?</code>, <code>*</code> or <code>{m,n}</code> quantifier is optional) and expressions with
+     * a top-level alternation, embedded flags or quotations are not analyzed at all.
+     *
+     * @param regex regular expression
+     * @return String required literal or <code>null</code> if not found
+     */
+    @Nullable
+    static String findRequiredLiteral(@NotNull final String regex) {
+        if (regex.contains("(?") || regex.contains("\\Q")) {
+            return null;
+        }
+        String longest = "";
+        final StringBuilder current = new StringBuilder();
+        int groupDepth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                final char escaped = regex.charAt(++i);
+                if (!inClass && groupDepth == 0 && !Character.isLetterOrDigit(escaped)) {
+                    current.append(escaped);
+                    removeIfOptional(regex, i + 1, current);
+                } else {
+                    longest = longer(longest, current);
+                }
+                continue;
+            }
+            if (inClass) {
+                if (c == '[') {
+                    // nested character classes are not analyzed
+                    return null;
+                }
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+                longest = longer(longest, current);
+            } else if (c == '(') {
+                groupDepth++;
+                longest = longer(longest, current);
+            } else if (c == ')') {
+                groupDepth--;
+            } else if (groupDepth > 0) {
+                // inside a group
+            } else if (c == '|') {
+                return null;
+            } else if (c == '{') {
+                // a {m,n} quantifier, its digits are not a part of any literal
+                final int end = regex.indexOf('}', i);
+                if (end < 0) {
+                    return null;
+                }
+                longest = longer(longest, current);
+                i = end;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '/' || c == '-' || c == ':' || c == ',') {
+                current.append(c);
+                removeIfOptional(regex, i + 1, current);
+            } else {
+                // '.', anchors and quantifiers
+                longest = longer(longest, current);
+            }
+        }
+        longest = longer(longest, current);
+        return longest.length() > 1 ? longest : null;
+    }
+
+    /**
+     * Checks whether the character just appended to <code>current</code> is followed by a quantifier which makes
+     * it optional; if so, the character is removed. The quantifier itself ends the literal.
+     */
+    private static void removeIfOptional(@NotNull final String regex, final int next, @NotNull final StringBuilder current) {
+        if (next < regex.length()) {
+            final char quantifier = regex.charAt(next);
+            if (quantifier == '?' || quantifier == '*' || quantifier == '{') {
+                current.setLength(current.length() - 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the longer of the two texts and clears <code>current</code>.
+     */
+    @NotNull
+    private static String longer(@NotNull final String longest, @NotNull final StringBuilder current) {
+        final String candidate = current.toString();
+        current.setLength(0);
+        return candidate.length() > longest.length() ? candidate : longest;
+    }
+}
@@ -0,0 +1,35 @@
+package com.atlassian.maven.plugin.clover.internal.scanner;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+
+/**
+ * Callback receiving source files found by a {@link CloverSourceScanner}, one by one.
+ */
+public interface SourceFileVisitor {
+
+    /**
+     * @param sourceRoot source root in which the file is located
+     * @param fileName   path of the file relative to the source root
+     * @throws IOException if the visitor fails to process the file; scanning is stopped
+     */
+    void visitFile(String sourceRoot, String fileName) throws IOException;
+}
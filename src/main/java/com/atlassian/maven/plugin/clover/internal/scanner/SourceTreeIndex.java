@@ -0,0 +1,158 @@
+package com.atlassian.maven.plugin.clover.internal.scanner;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.collect.Iterables;
+import com.google.common.primitives.Longs;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory index of files located under source roots. Every source root is walked only once, when it's queried
+ * for the first time; subsequent queries (for different languages, includes, excludes or for files to be copied)
+ * are answered from memory.
+ *
+ * The index keeps only relative paths, sizes and last modification times of files, which are read together with the
+ * directory listing, so that no further file system calls are needed for source files.
+ *
+ * The index shall be shared by all scanners used in one mojo execution. It assumes that content of a source root
+ * does not change after it has been indexed, so it shall not be reused after sources were modified (see
+ * {@link WatchingSourceTreeIndex} for an index which can be reused).
+ *
+ * Different source roots can be indexed concurrently.
+ */
+public class SourceTreeIndex {
+
+    /**
+     * Files in one source root
+     */
+    static class SourceRoot {
+        /** Paths relative to the source root, in the same format as returned by Ant's DirectoryScanner */
+        @NotNull
+        final String[] files;
+
+        /** Last modification time of files, the same order as <code>files</code> */
+        @NotNull
+        final long[] lastModified;
+
+        /** Size of files, the same order as <code>files</code> */
+        @NotNull
+        final long[] sizes;
+
+        SourceRoot(@NotNull final String[] files, @NotNull final long[] lastModified, @NotNull final long[] sizes) {
+            this.files = files;
+            this.lastModified = lastModified;
+            this.sizes = sizes;
+        }
+    }
+
+    /** Map(source root path, files) */
+    @NotNull
+    private final ConcurrentMap<String, SourceRoot> sourceRoots = new ConcurrentHashMap<String, SourceRoot>();
+
+    /**
+     * Returns all files (not directories) located under the <code>sourceRoot</code>, as paths relative to it,
+     * in the same format as returned by Ant's DirectoryScanner. Symbolic links are followed.
+     *
+     * @param sourceRoot directory to be listed
+     * @return String[] relative paths
+     */
+    @NotNull
+    public String[] getFiles(@NotNull final File sourceRoot) {
+        return getSourceRoot(sourceRoot).files;
+    }
+
+    /**
+     * Returns all files located under the <code>sourceRoot</code> (like {@link #getFiles(File)}) together with their
+     * size and last modification time, sorted by path. Can be used to detect whether any file under the source
+     * root was added, removed or modified, without reading file content.
+     *
+     * @param sourceRoot directory to be listed
+     * @return String[] entries in the form "relative path:size:last modified"
+     */
+    @NotNull
+    public String[] getFileStamps(@NotNull final File sourceRoot) {
+        final SourceRoot root = getSourceRoot(sourceRoot);
+        final String[] stamps = new String[root.files.length];
+        for (int i = 0; i < stamps.length; i++) {
+            stamps[i] = root.files[i] + ':' + root.sizes[i] + ':' + root.lastModified[i];
+        }
+        Arrays.sort(stamps);
+        return stamps;
+    }
+
+    @NotNull
+    SourceRoot getSourceRoot(@NotNull final File sourceRoot) {
+        final String key = sourceRoot.getAbsolutePath();
+        final SourceRoot root = sourceRoots.get(key);
+        if (root != null) {
+            return root;
+        }
+        // walk without holding a lock, so that other roots can be walked at the same time; if the same root
+        // was walked concurrently, the first result wins
+        final SourceRoot walkedRoot = walk(sourceRoot.toPath());
+        final SourceRoot previousRoot = sourceRoots.putIfAbsent(key, walkedRoot);
+        return previousRoot != null ? previousRoot : walkedRoot;
+    }
+
+    @NotNull
+    private static SourceRoot walk(@NotNull final Path sourceRoot) {
+        final List<String> files = new ArrayList<String>();
+        final List<Long> lastModified = new ArrayList<Long>();
+        final List<Long> sizes = new ArrayList<Long>();
+        try {
+            Files.walkFileTree(sourceRoot, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                            if (!attrs.isDirectory()) {
+                                files.add(sourceRoot.relativize(file).toString());
+                                lastModified.add(attrs.lastModifiedTime().toMillis());
+                                sizes.add(attrs.size());
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                            // unreadable entries and cycles caused by symbolic links are skipped, like in Ant
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (IOException ex) {
+            // not thrown by the visitor above; a missing root is treated as empty
+        }
+        return new SourceRoot(Iterables.toArray(files, String.class), Longs.toArray(lastModified), Longs.toArray(sizes));
+    }
+}
@@ -43,6 +43,11 @@ public class TestSourceScanner extends AbstractSourceScanner {
         super(configuration, outputSourceDirectory);
     }
 
+    public TestSourceScanner(final CompilerConfiguration configuration, final String outputSourceDirectory,
+                           final SourceTreeIndex sourceTreeIndex) {
+        super(configuration, outputSourceDirectory, sourceTreeIndex);
+    }
+
     /**
      * From a list of provided <code>sourceRoots</code> remove SRC_TEST_GROOVY root
      *
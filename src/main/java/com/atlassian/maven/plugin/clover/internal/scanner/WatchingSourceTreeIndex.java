@@ -0,0 +1,356 @@
+package com.atlassian.maven.plugin.clover.internal.scanner;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import com.google.common.collect.Iterables;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of source roots which is kept up to date by a {@link WatchService}, so that it can be reused by many builds
+ * running in the same JVM (e.g. in a Maven daemon).
+ *
+ * A source root is walked once, when it's queried for the first time, and all its directories are registered in the
+ * watch service. Every subsequent query applies only changes reported since the previous one (a journal of changed
+ * paths) to the cached list of files. The source root is walked again if the watch service has lost events
+ * (overflow), if the source root itself was deleted or if it could not be watched at all.
+ *
+ * File systems without a native watch service (for which JDK falls back to polling, which reports changes with a
+ * delay of several seconds) are not supported, see {@link #getInstance()}.
+ */
+public class WatchingSourceTreeIndex extends SourceTreeIndex {
+
+    /** Index shared by all builds in this JVM, created on first use */
+    private static WatchingSourceTreeIndex sharedInstance;
+
+    /** Whether creation of the shared index has been attempted */
+    private static boolean sharedInstanceCreated;
+
+    /**
+     * Files in one source root together with a journal of changes not applied yet
+     */
+    private static class WatchedRoot {
+        @NotNull
+        final Path path;
+
+        /** Map(relative path, {size, last modified}), sorted so that a whole subtree can be removed at once */
+        @NotNull
+        final SortedMap<String, long[]> files = new TreeMap<String, long[]>();
+
+        /** Paths relative to the source root which were created, deleted or modified since the last query */
+        @NotNull
+        final Queue<Path> changedPaths = new ConcurrentLinkedQueue<Path>();
+
+        /** Whether the source root must be walked again */
+        volatile boolean rescanNeeded = true;
+
+        /** Files in the form returned to scanners, <code>null</code> if changes were applied since it was created */
+        @Nullable
+        SourceRoot snapshot;
+
+        WatchedRoot(@NotNull final Path path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * Directory registered in the watch service
+     */
+    private static class WatchedDirectory {
+        @NotNull
+        final WatchedRoot root;
+
+        /** Path relative to the source root, empty for the source root itself */
+        @NotNull
+        final Path relativePath;
+
+        WatchedDirectory(@NotNull final WatchedRoot root, @NotNull final Path relativePath) {
+            this.root = root;
+            this.relativePath = relativePath;
+        }
+    }
+
+    @NotNull
+    private final WatchService watchService;
+
+    /** Map(source root path, files) */
+    @NotNull
+    private final ConcurrentMap<String, WatchedRoot> roots = new ConcurrentHashMap<String, WatchedRoot>();
+
+    /** Registered directories; modified and read only while holding a lock on the watchService */
+    @NotNull
+    private final Map<WatchKey, WatchedDirectory> directories = new ConcurrentHashMap<WatchKey, WatchedDirectory>();
+
+    /**
+     * Returns an index shared by all builds running in this JVM.
+     *
+     * @return WatchingSourceTreeIndex index or <code>null</code> if the default file system does not have a native
+     * watch service or if it could not be created (e.g. because of a limit of watch instances)
+     */
+    @Nullable
+    public static synchronized WatchingSourceTreeIndex getInstance() {
+        if (!sharedInstanceCreated) {
+            sharedInstanceCreated = true;
+            sharedInstance = create();
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * Creates a new, not shared index.
+     *
+     * @return WatchingSourceTreeIndex index or <code>null</code> if file watching is not supported
+     */
+    @Nullable
+    static WatchingSourceTreeIndex create() {
+        try {
+            final WatchService watchService = FileSystems.getDefault().newWatchService();
+            if (watchService.getClass().getSimpleName().equals("PollingWatchService")) {
+                watchService.close();
+                return null;
+            }
+            return new WatchingSourceTreeIndex(watchService);
+        } catch (IOException ex) {
+            return null;
+        } catch (UnsupportedOperationException ex) {
+            return null;
+        }
+    }
+
+    WatchingSourceTreeIndex(@NotNull final WatchService watchService) {
+        this.watchService = watchService;
+    }
+
+    @NotNull
+    @Override
+    SourceRoot getSourceRoot(@NotNull final File sourceRoot) {
+        final String key = sourceRoot.getAbsolutePath();
+        WatchedRoot root = roots.get(key);
+        if (root == null) {
+            final WatchedRoot newRoot = new WatchedRoot(sourceRoot.getAbsoluteFile().toPath());
+            root = roots.putIfAbsent(key, newRoot);
+            if (root == null) {
+                root = newRoot;
+            }
+        }
+
+        synchronized (root) {
+            pollEvents();
+            if (root.rescanNeeded) {
+                rescan(root);
+            } else {
+                applyChanges(root);
+            }
+            if (root.snapshot == null) {
+                root.snapshot = createSnapshot(root);
+            }
+            return root.snapshot;
+        }
+    }
+
+    /**
+     * Moves events reported by the watch service to journals of source roots. Does not lock any source root,
+     * so it can be called while holding a lock of any of them.
+     */
+    private void pollEvents() {
+        synchronized (watchService) {
+            WatchKey key;
+            while ((key = watchService.poll()) != null) {
+                final WatchedDirectory directory = directories.get(key);
+                if (directory == null) {
+                    key.cancel();
+                    continue;
+                }
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        directory.root.rescanNeeded = true;
+                    } else {
+                        directory.root.changedPaths.add(directory.relativePath.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    // the directory is no longer accessible; a deletion of a subdirectory is reported by its parent
+                    directories.remove(key);
+                    if (directory.relativePath.toString().isEmpty()) {
+                        directory.root.rescanNeeded = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks the whole source root again, replacing all registrations of its directories.
+     */
+    private void rescan(@NotNull final WatchedRoot root) {
+        root.rescanNeeded = false;
+        root.changedPaths.clear();
+        unregister(root, null);
+        root.files.clear();
+        root.snapshot = null;
+        if (!walk(root, root.path)) {
+            // not watched completely, it would miss changes
+            unregister(root, null);
+            root.rescanNeeded = true;
+        }
+    }
+
+    /**
+     * Applies changes from the journal. For every changed path all files at and under it are removed from the index
+     * and whatever exists now under this path is walked again.
+     */
+    private void applyChanges(@NotNull final WatchedRoot root) {
+        Path changedPath;
+        while ((changedPath = root.changedPaths.poll()) != null) {
+            root.snapshot = null;
+            final String relativePath = changedPath.toString();
+            root.files.remove(relativePath);
+            root.files.subMap(relativePath + File.separatorChar, relativePath + (char) (File.separatorChar + 1)).clear();
+            unregister(root, changedPath);
+            if (!walk(root, root.path.resolve(changedPath))) {
+                rescan(root);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds all files under the <code>start</code> path (or the <code>start</code> file itself) to the index and
+     * registers all directories in the watch service.
+     *
+     * @return boolean false if any directory could not be registered
+     */
+    private boolean walk(@NotNull final WatchedRoot root, @NotNull final Path start) {
+        final boolean[] registered = { true };
+        try {
+            Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                            registered[0] &= register(root, dir);
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                            if (!attrs.isDirectory()) {
+                                root.files.put(root.path.relativize(file).toString(),
+                                        new long[] { attrs.size(), attrs.lastModifiedTime().toMillis() });
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                            // unreadable entries and cycles caused by symbolic links are skipped, like in Ant
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (IOException ex) {
+            // not thrown by the visitor above
+        }
+        // a missing source root cannot be watched, it must be checked again on every query
+        return registered[0] && Files.isDirectory(root.path);
+    }
+
+    private boolean register(@NotNull final WatchedRoot root, @NotNull final Path dir) {
+        synchronized (watchService) {
+            try {
+                final WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, new WatchedDirectory(root, root.path.relativize(dir)));
+                return true;
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Cancels registrations of directories of the source root located at or under the <code>relativePath</code>.
+     *
+     * @param relativePath path relative to the source root, <code>null</code> for all directories
+     */
+    private void unregister(@NotNull final WatchedRoot root, @Nullable final Path relativePath) {
+        synchronized (watchService) {
+            final Iterator<Map.Entry<WatchKey, WatchedDirectory>> iter = directories.entrySet().iterator();
+            while (iter.hasNext()) {
+                final Map.Entry<WatchKey, WatchedDirectory> entry = iter.next();
+                final WatchedDirectory directory = entry.getValue();
+                if (directory.root == root
+                        && (relativePath == null || directory.relativePath.startsWith(relativePath))) {
+                    entry.getKey().cancel();
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    @NotNull
+    private static SourceRoot createSnapshot(@NotNull final WatchedRoot root) {
+        final List<String> files = new ArrayList<String>(root.files.keySet());
+        final long[] lastModified = new long[files.size()];
+        final long[] sizes = new long[files.size()];
+        int i = 0;
+        for (final long[] stamp : root.files.values()) {
+            sizes[i] = stamp[0];
+            lastModified[i] = stamp[1];
+            i++;
+        }
+        return new SourceRoot(Iterables.toArray(files, String.class), lastModified, sizes);
+    }
+
+    /**
+     * Stops watching all source roots.
+     */
+    void close() throws IOException {
+        synchronized (watchService) {
+            directories.clear();
+            watchService.close();
+        }
+        roots.clear();
+    }
+}
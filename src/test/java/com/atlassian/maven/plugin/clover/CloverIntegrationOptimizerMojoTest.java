@@ -0,0 +1,192 @@
+package com.atlassian.maven.plugin.clover;
+
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CloverIntegrationOptimizerMojoTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testFindIntegrationTestExecutions() {
+        final Plugin failsafe = new Plugin();
+        failsafe.addExecution(createExecution("fast", null, "integration-test", "verify"));
+        failsafe.addExecution(createExecution("verify-only", null, "verify"));
+        failsafe.addExecution(createExecution("slow", null, "integration-test"));
+
+        final List<PluginExecution> executions = CloverIntegrationOptimizerMojo.findIntegrationTestExecutions(failsafe);
+        assertEquals(2, executions.size());
+        assertEquals("fast", executions.get(0).getId());
+        assertEquals("slow", executions.get(1).getId());
+    }
+
+    @Test
+    public void testExecutionConfigurationOverridesPluginConfiguration() {
+        final Plugin failsafe = new Plugin();
+        failsafe.setConfiguration(createConfiguration("includes", "include", "**/*IT.java"));
+        final PluginExecution withIncludes = createExecution("fast",
+                createConfiguration("includes", "include", "**/fast/*IT.java", "**/smoke/*IT.java"), "integration-test");
+        final PluginExecution withoutIncludes = createExecution("slow",
+                createConfiguration("excludes", "exclude", "**/fast/**"), "integration-test");
+
+        assertEquals(Arrays.asList("**/fast/*IT.java", "**/smoke/*IT.java"),
+                CloverIntegrationOptimizerMojo.extractNestedStrings("includes", withIncludes, failsafe));
+        assertNull(CloverIntegrationOptimizerMojo.extractNestedStrings("excludes", withIncludes, failsafe));
+
+        assertEquals(Collections.singletonList("**/*IT.java"),
+                CloverIntegrationOptimizerMojo.extractNestedStrings("includes", withoutIncludes, failsafe));
+        assertEquals(Collections.singletonList("**/fast/**"),
+                CloverIntegrationOptimizerMojo.extractNestedStrings("excludes", withoutIncludes, failsafe));
+    }
+
+    @Test
+    public void testEveryExecutionRunsOnlyItsOwnTests() throws Exception {
+        final Plugin failsafe = createFailsafePlugin();
+        failsafe.addExecution(createExecution("fast",
+                createConfiguration("includes", "include", "**/fast/*IT.java"), "integration-test"));
+        failsafe.addExecution(createExecution("slow",
+                createConfiguration("excludes", "exclude", "**/fast/**"), "integration-test"));
+        final CloverIntegrationOptimizerMojo mojo = createMojo(failsafe);
+
+        mojo.execute();
+
+        // without a snapshot all tests are selected, each execution gets tests matching its own configuration
+        final Properties properties = mojo.getProject().getProperties();
+        assertEquals("com/acme/fast/FastIT.java,",
+                properties.getProperty("clover.optimize.failsafe.fast.test"));
+        assertEquals("com/acme/slow/SlowIT.java,",
+                properties.getProperty("clover.optimize.failsafe.slow.test"));
+        // the test parameter replaces includes, so no includes file is used
+        assertNull(properties.getProperty("clover.optimize.failsafe.fast.includesFile"));
+        assertNull(properties.getProperty("failsafe.includesFile"));
+        // there are two executions, so none of them is configured globally
+        assertNull(properties.getProperty("it.test"));
+    }
+
+    @Test
+    public void testSingleExecutionIsConfiguredGlobally() throws Exception {
+        final Plugin failsafe = createFailsafePlugin();
+        failsafe.addExecution(createExecution("fast",
+                createConfiguration("includes", "include", "**/fast/*IT.java"), "integration-test"));
+        final CloverIntegrationOptimizerMojo mojo = createMojo(failsafe);
+
+        mojo.execute();
+
+        assertEquals("com/acme/fast/FastIT.java,", mojo.getProject().getProperties().getProperty("it.test"));
+    }
+
+    @Test
+    public void testIncludesFileWithConfiguredIncludesFails() throws Exception {
+        final Plugin failsafe = createFailsafePlugin();
+        failsafe.addExecution(createExecution("fast",
+                createConfiguration("includes", "include", "**/fast/*IT.java"), "integration-test"));
+        final CloverIntegrationOptimizerMojo mojo = createMojo(failsafe);
+        TestUtil.setPrivateField(CloverOptimizerMojo.class, mojo, "optimizedTestsOutput",
+                CloverOptimizerMojo.OUTPUT_INCLUDES_FILE);
+
+        try {
+            mojo.execute();
+            fail("Failsafe would add includes of the 'fast' execution to the includes file");
+        } catch (MojoExecutionException ex) {
+            assertThat(ex.getMessage(), containsString("'fast'"));
+        }
+    }
+
+    @Test
+    public void testIncludesFileWithoutConfiguredIncludes() throws Exception {
+        final Plugin failsafe = createFailsafePlugin();
+        failsafe.addExecution(createExecution("slow",
+                createConfiguration("excludes", "exclude", "**/fast/**"), "integration-test"));
+        final CloverIntegrationOptimizerMojo mojo = createMojo(failsafe);
+        TestUtil.setPrivateField(CloverOptimizerMojo.class, mojo, "optimizedTestsOutput",
+                CloverOptimizerMojo.OUTPUT_INCLUDES_FILE);
+
+        mojo.execute();
+
+        final File includesFile = new File(mojo.getProject().getProperties().getProperty("failsafe.includesFile"));
+        assertEquals("com/acme/slow/SlowIT.java\n", FileUtils.fileRead(includesFile));
+    }
+
+    private static Plugin createFailsafePlugin() {
+        final Plugin failsafe = new Plugin();
+        failsafe.setGroupId("org.apache.maven.plugins");
+        failsafe.setArtifactId("maven-failsafe-plugin");
+        return failsafe;
+    }
+
+    private CloverIntegrationOptimizerMojo createMojo(final Plugin failsafe) throws Exception {
+        final File baseDir = temporaryFolder.getRoot();
+        final File testSourceDir = new File(baseDir, "src/test/java");
+        writeTestClass(testSourceDir, "com.acme.fast", "FastIT");
+        writeTestClass(testSourceDir, "com.acme.slow", "SlowIT");
+
+        final MavenProject project = new MavenProject();
+        project.setFile(new File(baseDir, "pom.xml"));
+        project.getBuild().setDirectory(new File(baseDir, "target").getPath());
+        project.getBuild().setSourceDirectory(new File(baseDir, "src/main/java").getPath());
+        project.getBuild().setTestSourceDirectory(testSourceDir.getPath());
+        project.addTestCompileSourceRoot(testSourceDir.getPath());
+        project.getBuild().addPlugin(failsafe);
+
+        final CloverIntegrationOptimizerMojo mojo = new CloverIntegrationOptimizerMojo();
+        mojo.setLog(new TestUtil.RecordingLogger());
+        mojo.setProject(project);
+        TestUtil.setPrivateField(CloverOptimizerMojo.class, mojo, "enabled", true);
+        TestUtil.setPrivateField(CloverOptimizerMojo.class, mojo, "minimize", true);
+        TestUtil.setPrivateParentField(CloverOptimizerMojo.class, mojo, "cloverOutputDirectory",
+                new File(baseDir, "target/clover").getPath());
+        TestUtil.setPrivateParentField(CloverOptimizerMojo.class, mojo, "cloverDatabase",
+                new File(baseDir, "target/clover/clover.db").getPath());
+        TestUtil.setPrivateParentField(CloverOptimizerMojo.class, mojo, "snapshot",
+                new File(baseDir, "clover.snapshot"));
+        return mojo;
+    }
+
+    private static void writeTestClass(final File testSourceDir, final String packageName, final String className)
+            throws Exception {
+        final File packageDir = new File(testSourceDir, packageName.replace('.', '/'));
+        packageDir.mkdirs();
+        FileUtils.fileWrite(new File(packageDir, className + ".java"), "UTF-8",
+                "package " + packageName + "; public class " + className + " { }");
+    }
+
+    private static PluginExecution createExecution(final String id, final Xpp3Dom configuration, final String... goals) {
+        final PluginExecution execution = new PluginExecution();
+        execution.setId(id);
+        execution.setConfiguration(configuration);
+        execution.setGoals(Arrays.asList(goals));
+        return execution;
+    }
+
+    private static Xpp3Dom createConfiguration(final String elementName, final String childName, final String... values) {
+        final Xpp3Dom configuration = new Xpp3Dom("configuration");
+        final Xpp3Dom element = new Xpp3Dom(elementName);
+        for (final String value : values) {
+            final Xpp3Dom child = new Xpp3Dom(childName);
+            child.setValue(value);
+            element.addChild(child);
+        }
+        configuration.addChild(element);
+        return configuration;
+    }
+}
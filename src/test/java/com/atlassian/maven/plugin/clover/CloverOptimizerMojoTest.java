@@ -1,6 +1,7 @@
 package com.atlassian.maven.plugin.clover;
 
 import com.atlassian.clover.util.FileUtils;
+import com.atlassian.maven.plugin.clover.internal.scanner.PathPatternMatcher;
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.types.FileSet;
@@ -9,6 +10,7 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -351,7 +353,30 @@ public class CloverOptimizerMojoTest {
         assertListsEqual(expected, mojo.explodePaths(testDirRoot, input));
     }
 
-        /**
+    @Test
+    public void testFindRegexMatchesOfManyMatchers() {
+        final PathPatternMatcher includes = PathPatternMatcher.fromPatternList(Arrays.asList(
+                "%regex[.*Test.java]", "**/*.java"));
+        final PathPatternMatcher excludes = PathPatternMatcher.fromPatternList(Arrays.asList(
+                "%regex[.*[GH]oo.*]"));
+        final PathPatternMatcher antOnly = PathPatternMatcher.fromPatternList(Arrays.asList("**/*.java"));
+
+        final Map<PathPatternMatcher, List<String>> matches = CloverOptimizerMojo.findRegexMatches(testDirRoot,
+                Arrays.asList(includes, excludes, antOnly, null));
+        assertEquals(2, matches.size());
+        assertListsEqual(Arrays.asList(path.get("MyFirstTest"), path.get("MySecondTest")), matches.get(includes));
+        assertListsEqual(Arrays.asList(path.get("Goo"), path.get("Hoo")), matches.get(excludes));
+    }
+
+    @Test
+    public void testWriteIncludesFile() throws IOException {
+        final File includesFile = new File(testDirRoot, "clover/optimized-tests.txt");
+        CloverOptimizerMojo.writeLines(includesFile, Arrays.asList(path.get("MyFirstTest"), path.get("Foo")));
+        assertEquals("src/test/MyFirstTest.java\nsrc/main/Foo.java\n",
+                new String(Files.readAllBytes(includesFile.toPath()), "UTF-8"));
+    }
+
+    /**
      * Return definition of directory / file layout we'd like to test
      * @return DirNode tree hierarchy
      */
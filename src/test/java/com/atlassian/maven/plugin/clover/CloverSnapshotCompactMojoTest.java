@@ -0,0 +1,143 @@
+package com.atlassian.maven.plugin.clover;
+
+import com.atlassian.clover.optimization.Snapshot;
+import com.atlassian.maven.plugin.clover.internal.AbstractCloverMojo;
+import com.atlassian.maven.plugin.clover.internal.optimization.CloverProjectFixture;
+import com.atlassian.maven.plugin.clover.internal.optimization.SnapshotIndex;
+import org.apache.maven.project.MavenProject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class CloverSnapshotCompactMojoTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private CloverProjectFixture project;
+
+    private MavenProject mavenProject;
+
+    @Before
+    public void setUp() throws Exception {
+        project = new CloverProjectFixture(temporaryFolder.getRoot());
+        project.writeClass(project.getSourceDir(), "com.acme.Foo",
+                "public int foo() { return new Bar().bar() + new Baz().baz(); }");
+        project.writeClass(project.getSourceDir(), "com.acme.Bar", "public int bar() { return 1; }");
+        project.writeClass(project.getSourceDir(), "com.acme.Baz", "public int baz() { return 2; }");
+        project.writeClass(project.getSourceDir(), "com.acme.Qux", "public int qux() { return 3; }");
+        project.writeClass(project.getSourceDir(), "com.acme.Old", "public int old() { return 4; }");
+        project.writeClass(project.getTestSourceDir(), "com.acme.FooTest",
+                "@org.junit.Test public void testFoo() { new Foo().foo(); }");
+        project.writeClass(project.getTestSourceDir(), "com.acme.QuxTest",
+                "@org.junit.Test public void testQux() { new Qux().qux(); }");
+        project.writeClass(project.getTestSourceDir(), "com.acme.OldTest",
+                "@org.junit.Test public void testOld() { new Old().old(); }");
+
+        mavenProject = new MavenProject();
+        mavenProject.setFile(new File(project.getBaseDir(), "pom.xml"));
+        mavenProject.getBuild().setDirectory(new File(project.getBaseDir(), "target").getPath());
+        mavenProject.getBuild().setSourceDirectory(project.getSourceDir().getPath());
+        mavenProject.getBuild().setTestSourceDirectory(project.getTestSourceDir().getPath());
+        mavenProject.addTestCompileSourceRoot(project.getTestSourceDir().getPath());
+
+        project.build();
+        project.runTests("com.acme.FooTest", "com.acme.QuxTest", "com.acme.OldTest");
+        createSnapshotMojo(false).execute();
+        assertTrue(SnapshotIndex.open(SnapshotIndex.getIndexFile(project.getSnapshot())).isBuiltFrom(project.getSnapshot()));
+
+        // Foo no longer uses Bar and Baz, which are deleted together with Old and its test
+        project.writeClass(project.getSourceDir(), "com.acme.Foo", "public int foo() { return 3; }");
+        project.deleteClass(project.getSourceDir(), "com.acme.Bar");
+        project.deleteClass(project.getSourceDir(), "com.acme.Baz");
+        project.deleteClass(project.getSourceDir(), "com.acme.Old");
+        project.deleteClass(project.getTestSourceDir(), "com.acme.OldTest");
+        project.build();
+    }
+
+    @Test
+    public void testCompactedSnapshotIsOptimizedAsBefore() throws Exception {
+        final String testsBeforeCompaction = optimize();
+        assertEquals("com/acme/FooTest.java,", testsBeforeCompaction);
+
+        final long originalLength = project.getSnapshot().length();
+        final TestUtil.RecordingLogger log = new TestUtil.RecordingLogger();
+        final CloverSnapshotCompactMojo mojo = new CloverSnapshotCompactMojo();
+        configure(mojo, log);
+        mojo.execute();
+
+        assertTrue(log.contains("Removed 1 stale tests and 1 stale covered files from snapshot "
+                + project.getSnapshot(), TestUtil.Level.INFO));
+        assertTrue(project.getSnapshot().length() < originalLength);
+        // the index was rewritten from the compacted snapshot
+        final SnapshotIndex index = SnapshotIndex.open(SnapshotIndex.getIndexFile(project.getSnapshot()));
+        assertTrue(index.isBuiltFrom(project.getSnapshot()));
+        assertEquals(-1, index.findTest("com/acme/OldTest.java"));
+        assertFalse(index.findTest("com/acme/QuxTest.java") == -1);
+
+        final Snapshot reloadedSnapshot = Snapshot.loadFrom(project.getSnapshot());
+        assertNotNull(reloadedSnapshot);
+        assertEquals(1, reloadedSnapshot.getDbVersionCount());
+        assertEquals(testsBeforeCompaction, optimize());
+    }
+
+    @Test
+    public void testSnapshotGoalCompactsUpdatedSnapshot() throws Exception {
+        project.runTests("com.acme.FooTest");
+
+        final TestUtil.RecordingLogger log = new TestUtil.RecordingLogger();
+        final CloverSnapshotMojo mojo = createSnapshotMojo(true);
+        mojo.setLog(log);
+        mojo.execute();
+
+        final Snapshot updatedSnapshot = Snapshot.loadFrom(project.getSnapshot());
+        assertNotNull(updatedSnapshot);
+        assertEquals(2, updatedSnapshot.getDbVersionCount());
+        final SnapshotIndex index = SnapshotIndex.open(SnapshotIndex.getIndexFile(project.getSnapshot()));
+        assertTrue(index.isBuiltFrom(project.getSnapshot()));
+        assertTrue(log.contains("Removed 1 stale tests and 1 stale covered files from snapshot "
+                + project.getSnapshot(), TestUtil.Level.INFO));
+        assertEquals(-1, index.findTest("com/acme/OldTest.java"));
+        // Clover keeps states of the removed files covered by FooTest, so it's still affected, as without compaction
+        assertEquals("com/acme/FooTest.java,", optimize());
+    }
+
+    private CloverSnapshotMojo createSnapshotMojo(final boolean compactSnapshot) throws Exception {
+        final CloverSnapshotMojo mojo = new CloverSnapshotMojo();
+        configure(mojo, new TestUtil.RecordingLogger());
+        TestUtil.setPrivateField(CloverSnapshotMojo.class, mojo, "compactSnapshot", compactSnapshot);
+        return mojo;
+    }
+
+    /**
+     * Runs clover:optimize with the current snapshot and database.
+     *
+     * @return String value of the test property
+     */
+    private String optimize() throws Exception {
+        final CloverOptimizerMojo mojo = new CloverOptimizerMojo();
+        configure(mojo, new TestUtil.RecordingLogger());
+        TestUtil.setPrivateField(CloverOptimizerMojo.class, mojo, "enabled", true);
+        TestUtil.setPrivateField(CloverOptimizerMojo.class, mojo, "minimize", true);
+        TestUtil.setPrivateField(CloverOptimizerMojo.class, mojo, "fullRunEvery", 10);
+        mojo.execute();
+        return mavenProject.getProperties().getProperty("test");
+    }
+
+    private void configure(final AbstractCloverMojo mojo, final TestUtil.RecordingLogger log) throws Exception {
+        mojo.setLog(log);
+        mojo.setProject(mavenProject);
+        TestUtil.setPrivateParentField(mojo.getClass(), mojo, "cloverOutputDirectory",
+                project.getOutputDir().getPath());
+        TestUtil.setPrivateParentField(mojo.getClass(), mojo, "cloverDatabase", project.getDatabase().getPath());
+        TestUtil.setPrivateParentField(mojo.getClass(), mojo, "snapshot", project.getSnapshot());
+    }
+}
@@ -1,15 +1,17 @@
 package com.atlassian.maven.plugin.clover;
 
-import com.atlassian.clover.ant.tasks.CloverSnapshotTask;
+import com.atlassian.clover.cfg.Interval;
+import com.atlassian.clover.optimization.Snapshot;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
-import org.jmock.Expectations;
 import org.jmock.integration.junit3.MockObjectTestCase;
 import org.jmock.lib.legacy.ClassImposteriser;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -30,7 +32,7 @@ public class CloverSnapshotMojoTest extends MockObjectTestCase {
 
     public void testExecuteCloverSnapshotWhenSnapshotDirDoesNotExist() throws MojoExecutionException, IOException {
 
-        final CloverSnapshotTask task = mock(CloverSnapshotTask.class);
+        final List<Object> savedSnapshots = new ArrayList<Object>();
         mojo = new CloverSnapshotMojo() {
             public boolean isSingleCloverDatabase() {
                 return true;
@@ -42,25 +44,17 @@ public class CloverSnapshotMojoTest extends MockObjectTestCase {
                 return list;
             }
 
-            CloverSnapshotTask createSnapshotTask() {
-                return task;
-            }
-
-            protected void execTask(CloverSnapshotTask task) {
-                
+            protected Snapshot saveSnapshot(final File snapshotFile, final String initString,
+                                            final Interval initialSpan) {
+                savedSnapshots.add(snapshotFile);
+                savedSnapshots.add(initString);
+                return null;
             }
         };
         mojo.setLog(log);
         mojo.setProject(project);
         final File snapshot = new File("target/clover.snapshot");
 
-        checking(new Expectations(){{
-            oneOf(task).setFile(snapshot);
-            oneOf(task).setInitString("target/clover/clover.db");
-            oneOf(task).setDebug(false);
-        }});
-
-
         TestUtil.setPrivateParentField(CloverSnapshotMojo.class, mojo, "snapshot", snapshot);
         final File db = new File(mojo.resolveCloverDatabase());
         db.getParentFile().mkdirs();
@@ -68,5 +62,16 @@ public class CloverSnapshotMojoTest extends MockObjectTestCase {
         mojo.execute();
         assertTrue(log.contains("Saving snapshot to: target" + File.separator + "clover.snapshot", TestUtil.Level.INFO));
         assertTrue(snapshot.getParentFile().exists());
+        assertEquals(Arrays.<Object>asList(snapshot, "target/clover/clover.db"), savedSnapshots);
+    }
+
+    public void testUpdateSpanIsTimeSinceMostRecentDbVersionButNotShorterThanInitialSpan() {
+        final Interval initialSpan = new Interval("10s");
+        final long now = 1000000L;
+        // the last version is the most recent one
+        assertEquals(300000L, CloverSnapshotMojo.getUpdateSpan(Arrays.asList(500000L, 700000L), initialSpan, now));
+        assertEquals(10000L, CloverSnapshotMojo.getUpdateSpan(Arrays.asList(500000L, 995000L), initialSpan, now));
+        assertEquals(10000L, CloverSnapshotMojo.getUpdateSpan(Arrays.asList(1005000L), initialSpan, now));
+        assertEquals(990000L, CloverSnapshotMojo.getUpdateSpan(Collections.<Long>emptyList(), initialSpan, now));
     }
 }
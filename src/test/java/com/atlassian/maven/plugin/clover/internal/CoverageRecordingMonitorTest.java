@@ -0,0 +1,112 @@
+package com.atlassian.maven.plugin.clover.internal;
+
+import org.apache.maven.plugin.testing.SilentLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CoverageRecordingMonitorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File database;
+
+    @Before
+    public void setUp() throws Exception {
+        database = temporaryFolder.newFile("clover.db");
+        database.setLastModified(System.currentTimeMillis() - 120000L);
+    }
+
+    @Test
+    public void testRecordingFiles() {
+        assertTrue(CoverageRecordingMonitor.isRecordingOf(database, "clover.db9ix_loyw3v28"));
+        assertTrue(CoverageRecordingMonitor.isRecordingOf(database, "clover.db1z141z6_3_4_loyw3v28.s"));
+        assertFalse(CoverageRecordingMonitor.isRecordingOf(database, "clover.db"));
+        assertFalse(CoverageRecordingMonitor.isRecordingOf(database, "clover.db.snapshot"));
+        assertFalse(CoverageRecordingMonitor.isRecordingOf(database, "other.db9ix_loyw3v28"));
+    }
+
+    @Test
+    public void testScanRecordings() throws Exception {
+        final long now = System.currentTimeMillis() / 1000L * 1000L;
+        final File recording = temporaryFolder.newFile("clover.db9ix_loyw3v28");
+        recording.setLastModified(now);
+        final File staleRecording = temporaryFolder.newFile("clover.db1z141z6_3_4_loyw3v28.s");
+        staleRecording.setLastModified(now - 60000L);
+        temporaryFolder.newFile("clover.db.snapshot");
+
+        final Map<String, String> state = new HashMap<String, String>();
+        final CoverageRecordingMonitor monitor = new CoverageRecordingMonitor(
+                Collections.singletonList(database), 500, now - 30000L);
+        // only the recording written after the start is fresh, but changes of both are watched
+        assertEquals(now, monitor.scanRecordings(state));
+        assertEquals(new HashSet<String>(Arrays.asList(recording.getPath(), staleRecording.getPath())), state.keySet());
+    }
+
+    @Test
+    public void testRecordingsOlderThanDatabaseAreNotFresh() throws Exception {
+        temporaryFolder.newFile("clover.db9ix_loyw3v28").setLastModified(database.lastModified() - 60000L);
+        final CoverageRecordingMonitor monitor = new CoverageRecordingMonitor(
+                Collections.singletonList(database), 500, 0L);
+        assertEquals(0L, monitor.scanRecordings(new HashMap<String, String>()));
+    }
+
+    @Test
+    public void testQuietRecordingsAreNotWaitedFor() throws Exception {
+        temporaryFolder.newFile("clover.db9ix_loyw3v28").setLastModified(System.currentTimeMillis() - 60000L);
+        final CoverageRecordingMonitor monitor = new CoverageRecordingMonitor(
+                Collections.singletonList(database), 5000, 0L);
+        assertTrue(monitor.waitForQuiescence(new SilentLog()) < 5000L);
+    }
+
+    @Test
+    public void testMissingRecordingsAreNotWaitedFor() throws Exception {
+        final CoverageRecordingMonitor monitor = new CoverageRecordingMonitor(
+                Collections.singletonList(database), 5000, System.currentTimeMillis());
+        assertTrue(monitor.waitForQuiescence(new SilentLog()) < 5000L);
+    }
+
+    @Test
+    public void testRecordingsOfPreviousBuildAreNotWaitedFor() throws Exception {
+        // e.g. a Maven daemon keeps running between builds; only recordings of this build count
+        temporaryFolder.newFile("clover.db9ix_loyw3v28").setLastModified(System.currentTimeMillis() - 1000L);
+        final CoverageRecordingMonitor monitor = new CoverageRecordingMonitor(
+                Collections.singletonList(database), 5000, System.currentTimeMillis());
+        assertTrue(monitor.waitForQuiescence(new SilentLog()) < 5000L);
+    }
+
+    @Test
+    public void testFreshRecordingsAreWaitedFor() throws Exception {
+        // just flushed by a test of this build
+        temporaryFolder.newFile("clover.db9ix_loyw3v28").setLastModified(System.currentTimeMillis());
+        final CoverageRecordingMonitor monitor = new CoverageRecordingMonitor(
+                Collections.singletonList(database), 100, System.currentTimeMillis() - 1000L);
+        final long waited = monitor.waitForQuiescence(new SilentLog());
+        assertTrue(waited >= 100L);
+        assertTrue(waited < 5000L);
+    }
+
+    @Test
+    public void testWaitIsBounded() throws Exception {
+        // modified "in the future", so never quiet
+        temporaryFolder.newFile("clover.db9ix_loyw3v28").setLastModified(System.currentTimeMillis() + 60000L);
+        final CoverageRecordingMonitor monitor = new CoverageRecordingMonitor(
+                Collections.singletonList(database), 100, 0L);
+        final long waited = monitor.waitForQuiescence(new SilentLog());
+        assertTrue(waited >= 200L);
+        assertTrue(waited < 5000L);
+    }
+}
@@ -0,0 +1,55 @@
+package com.atlassian.maven.plugin.clover.internal;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCacheIsSharedThroughPluginContext() {
+        final Map<String, Object> pluginContext = new HashMap<String, Object>();
+        final SessionCache cache = SessionCache.getInstance(pluginContext);
+        assertSame(cache, SessionCache.getInstance(pluginContext));
+        assertNotSame(SessionCache.getInstance(null), SessionCache.getInstance(null));
+    }
+
+    @Test
+    public void testEntryIsDiscardedWhenFileChanges() throws Exception {
+        final File file = temporaryFolder.newFile("includes.txt");
+        FileUtils.fileWrite(file, "**/*.java");
+        final SessionCache cache = new SessionCache();
+        cache.put("includes", SessionCache.fileStamp(file), "**/*.java");
+        assertEquals("**/*.java", cache.get("includes", SessionCache.fileStamp(file)));
+
+        FileUtils.fileWrite(file, "**/*.java\n**/*.groovy");
+        assertNull(cache.get("includes", SessionCache.fileStamp(file)));
+
+        assertTrue(file.delete());
+        assertTrue(SessionCache.fileStamp(file).endsWith(":missing"));
+    }
+
+    @Test
+    public void testNullValueIsCached() {
+        final SessionCache cache = new SessionCache();
+        assertFalse(cache.contains("artifact", ""));
+        cache.put("artifact", "", null);
+        assertTrue(cache.contains("artifact", ""));
+        assertFalse(cache.contains("artifact", "other"));
+    }
+}
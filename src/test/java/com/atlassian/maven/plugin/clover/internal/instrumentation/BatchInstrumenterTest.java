@@ -0,0 +1,105 @@
+package com.atlassian.maven.plugin.clover.internal.instrumentation;
+
+import com.atlassian.clover.registry.Clover2Registry;
+import com.atlassian.clover.registry.metrics.HasMetricsFilter;
+import com.google.common.collect.Lists;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class BatchInstrumenterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testGetBatchCount() {
+        assertEquals(3, BatchInstrumenter.getBatchCount(8, 3));
+        assertEquals(1, BatchInstrumenter.getBatchCount(8, Integer.MAX_VALUE));
+        assertEquals(0, BatchInstrumenter.getBatchCount(0, 3));
+    }
+
+    @Test
+    public void testGetProcessedFile() {
+        assertThat(BatchInstrumenter.getProcessedFile("Processed 'src/Foo.java' to 'out/com/acme/Foo.java'"),
+                equalTo(new File("src/Foo.java")));
+        assertNull(BatchInstrumenter.getProcessedFile("Processing files at 1.8 source level."));
+        assertNull(BatchInstrumenter.getProcessedFile("Processed '"));
+    }
+
+    @Test
+    public void testInstrumentInSingleCall() throws Exception {
+        instrumentAndVerify(0);
+    }
+
+    @Test
+    public void testInstrumentInBatches() throws Exception {
+        // batches appending to the same database
+        instrumentAndVerify(3);
+    }
+
+    private void instrumentAndVerify(final int batchSize) throws Exception {
+        final File srcDir = temporaryFolder.newFolder("src");
+        final File outDir = temporaryFolder.newFolder("out");
+        final File database = new File(temporaryFolder.getRoot(), "clover.db");
+
+        final List<File> sourceFiles = new ArrayList<File>();
+        for (int i = 0; i < 7; i++) {
+            final File file = new File(srcDir, "Foo" + i + ".java");
+            FileUtils.fileWrite(file, "UTF-8",
+                    "package com.acme;\npublic class Foo" + i + " { int foo() { return " + i + "; } }\n");
+            sourceFiles.add(file);
+        }
+        final File defaultPackageFile = new File(srcDir, "Bar.java");
+        FileUtils.fileWrite(defaultPackageFile, "UTF-8", "public class Bar { void bar() { } }\n");
+        sourceFiles.add(defaultPackageFile);
+
+        final List<String> options = Lists.newArrayList(
+                "-i", database.getAbsolutePath(),
+                "-d", outDir.getAbsolutePath(),
+                "--encoding", "UTF-8");
+        final InstrumentationTimings timings = new InstrumentationTimings();
+        new BatchInstrumenter(options, outDir.getPath(), batchSize, new SilentLog(), timings)
+                .instrument(Collections.singletonMap(srcDir.getPath(), toFileNames(sourceFiles)));
+
+        // every file was timed once
+        assertThat(timings.getSlowestFiles(100).size(), equalTo(8));
+
+        // files are written according to the package declaration
+        for (int i = 0; i < 7; i++) {
+            final File instrumented = new File(outDir, "com/acme/Foo" + i + ".java");
+            assertTrue(instrumented.getPath(), instrumented.isFile());
+            assertThat(FileUtils.fileRead(instrumented, "UTF-8"), containsString("__CLR"));
+        }
+        assertTrue(new File(outDir, "Bar.java").isFile());
+
+        // all files were recorded in one database
+        final Clover2Registry registry = Clover2Registry.fromFile(database);
+        assertNotNull(registry);
+        assertThat(registry.getProject().getAllPackages().size(), equalTo(2));
+        assertThat(registry.getProject().getFiles(HasMetricsFilter.ACCEPT_ALL).size(), equalTo(8));
+    }
+
+    private static String[] toFileNames(final List<File> files) {
+        final String[] fileNames = new String[files.size()];
+        for (int i = 0; i < fileNames.length; i++) {
+            fileNames[i] = files.get(i).getName();
+        }
+        return fileNames;
+    }
+}
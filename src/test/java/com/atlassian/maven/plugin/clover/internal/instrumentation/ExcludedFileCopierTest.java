@@ -0,0 +1,133 @@
+package com.atlassian.maven.plugin.clover.internal.instrumentation;
+
+import org.apache.maven.plugin.testing.SilentLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExcludedFileCopierTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File sourceRoot;
+
+    private File targetDir;
+
+    @Before
+    public void setUp() throws Exception {
+        sourceRoot = temporaryFolder.newFolder("src");
+        targetDir = temporaryFolder.newFolder("target");
+        for (int i = 0; i < 20; i++) {
+            final File file = new File(sourceRoot, "com/acme/Foo" + i + ".java");
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite(file, "class Foo" + i + " { }");
+        }
+    }
+
+    @Test
+    public void testCopyWithThreads() throws Exception {
+        transferAll(ExcludedFileCopier.Strategy.COPY, 4);
+        for (int i = 0; i < 20; i++) {
+            final String fileName = "com/acme/Foo" + i + ".java";
+            assertEquals("class Foo" + i + " { }", FileUtils.fileRead(new File(targetDir, fileName)));
+            assertTrue(ExcludedFileCopier.isIdentical(new File(sourceRoot, fileName).toPath(),
+                    new File(targetDir, fileName).toPath(), ExcludedFileCopier.Strategy.COPY));
+        }
+    }
+
+    @Test
+    public void testIdenticalTargetIsNotCopiedAgain() throws Exception {
+        transferAll(ExcludedFileCopier.Strategy.COPY, 1);
+        final File target = new File(targetDir, "com/acme/Foo0.java");
+        FileUtils.fileWrite(target, "class Bar0 { }");
+        // the same size and timestamp as the source
+        assertTrue(target.setLastModified(new File(sourceRoot, "com/acme/Foo0.java").lastModified()));
+
+        transferAll(ExcludedFileCopier.Strategy.COPY, 1);
+        assertEquals("class Bar0 { }", FileUtils.fileRead(target));
+    }
+
+    @Test
+    public void testHardLinkIsReplacedBeforeInstrumentation() throws Exception {
+        transferAll(ExcludedFileCopier.Strategy.HARDLINK, 1);
+        final File source = new File(sourceRoot, "com/acme/Foo0.java");
+        final File target = new File(targetDir, "com/acme/Foo0.java");
+        assertTrue(ExcludedFileCopier.isIdentical(source.toPath(), target.toPath(), ExcludedFileCopier.Strategy.HARDLINK));
+        assertFalse(ExcludedFileCopier.isIdentical(source.toPath(), target.toPath(), ExcludedFileCopier.Strategy.COPY));
+
+        ExcludedFileCopier.unlinkTargets(Collections.singletonMap(sourceRoot.getPath(),
+                new String[] { "com/acme/Foo0.java" }), targetDir);
+        assertFalse(target.exists());
+        assertTrue(source.exists());
+    }
+
+    @Test
+    public void testUnlinkTargetsInPackageDirectory() throws Exception {
+        // file in a directory not matching its package, CloverInstr writes it to com/acme/Bar.java
+        final File source = new File(sourceRoot, "misplaced/Bar.java");
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite(source, "package com.acme; class Bar { }");
+        final File target = new File(targetDir, "com/acme/Bar.java");
+        target.getParentFile().mkdirs();
+        Files.createLink(target.toPath(), source.toPath());
+        final File symlink = new File(targetDir, "misplaced/Bar.java");
+        symlink.getParentFile().mkdirs();
+        Assume.assumeTrue(createSymbolicLink(symlink, source));
+        final File otherFile = new File(targetDir, "com/acme/Foo0.java");
+        FileUtils.fileWrite(otherFile, "class Foo0 { }");
+
+        ExcludedFileCopier.unlinkTargets(Collections.singletonMap(sourceRoot.getPath(),
+                new String[] { "misplaced/Bar.java".replace('/', File.separatorChar) }), targetDir);
+        assertFalse(target.exists());
+        assertFalse(Files.exists(symlink.toPath(), LinkOption.NOFOLLOW_LINKS));
+        assertTrue(otherFile.exists());
+        assertEquals("package com.acme; class Bar { }", FileUtils.fileRead(source));
+    }
+
+    @Test
+    public void testSymbolicLinkToSource() throws Exception {
+        transferAll(ExcludedFileCopier.Strategy.SYMLINK, 2);
+        final File target = new File(targetDir, "com/acme/Foo1.java");
+        assertTrue(Files.isSymbolicLink(target.toPath()) || target.isFile());
+        assertEquals("class Foo1 { }", FileUtils.fileRead(target));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownStrategy() {
+        ExcludedFileCopier.Strategy.fromString("reflink");
+    }
+
+    private static boolean createSymbolicLink(final File link, final File target) {
+        try {
+            Files.createSymbolicLink(link.toPath(), target.getAbsoluteFile().toPath());
+            return true;
+        } catch (Exception e) {
+            return false; // e.g. not permitted on Windows
+        }
+    }
+
+    private void transferAll(final ExcludedFileCopier.Strategy strategy, final int threads) throws Exception {
+        final ExcludedFileCopier copier = new ExcludedFileCopier(targetDir, strategy, threads, new SilentLog());
+        try {
+            for (int i = 0; i < 20; i++) {
+                copier.visitFile(sourceRoot.getPath(), "com/acme/Foo" + i + ".java");
+            }
+            copier.finish();
+        } finally {
+            copier.close();
+        }
+    }
+}
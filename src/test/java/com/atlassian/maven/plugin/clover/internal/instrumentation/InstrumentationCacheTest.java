@@ -0,0 +1,156 @@
+package com.atlassian.maven.plugin.clover.internal.instrumentation;
+
+import com.atlassian.clover.CloverInstr;
+import com.atlassian.clover.registry.Clover2Registry;
+import com.atlassian.clover.registry.entities.FullFileInfo;
+import com.atlassian.clover.registry.metrics.HasMetricsFilter;
+import com.google.common.collect.Lists;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentationCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testToUnicodeEscapes() {
+        assertEquals("\\u002f\\u0074\\u006d\\u0070", InstrumentationCache.toUnicodeEscapes("/tmp"));
+    }
+
+    @Test
+    public void testRestoreInOtherWorkspace() throws Exception {
+        final File cacheDir = temporaryFolder.newFolder("cache");
+        final File workspaceA = temporaryFolder.newFolder("a");
+        final File workspaceB = temporaryFolder.newFolder("b");
+
+        // instrument and store in workspace A
+        final Workspace a = new Workspace(workspaceA);
+        final InstrumentationCache cacheA = new InstrumentationCache(cacheDir, workspaceA, a.database, new SilentLog());
+        final String keyA = cacheA.computeKey(a.options(), a.sourceFiles());
+        assertNotNull(keyA);
+        assertFalse(cacheA.restore(keyA, a.outputDir, a.database.getPath()));
+        assertEquals(0, CloverInstr.mainImpl(a.cliArgs()));
+        cacheA.store(keyA, a.outputDir, a.database.getPath());
+
+        // the same sources in workspace B give the same key
+        final Workspace b = new Workspace(workspaceB);
+        final InstrumentationCache cacheB = new InstrumentationCache(cacheDir, workspaceB, b.database, new SilentLog());
+        final String keyB = cacheB.computeKey(b.options(), b.sourceFiles());
+        assertEquals(keyA, keyB);
+        final File staleFile = new File(b.outputDir, "com/acme/Removed.java");
+        staleFile.getParentFile().mkdirs();
+        FileUtils.fileWrite(staleFile, "package com.acme; class Removed {}");
+        assertTrue(cacheB.restore(keyB, b.outputDir, b.database.getPath()));
+        assertFalse(staleFile.exists());
+
+        // sources point to the database in workspace B
+        final String instrumented = FileUtils.fileRead(new File(b.outputDir, "com/acme/Foo.java"));
+        assertThat(instrumented, containsString(InstrumentationCache.toUnicodeEscapes(b.database.getPath())));
+        assertThat(instrumented, not(containsString(InstrumentationCache.toUnicodeEscapes(a.database.getPath()))));
+
+        // database points to sources in workspace B
+        final Clover2Registry registry = Clover2Registry.fromFile(b.database);
+        assertEquals(Clover2Registry.fromFile(a.database).getVersion(), registry.getVersion());
+        for (final Object file : registry.getProject().getFiles(HasMetricsFilter.ACCEPT_ALL)) {
+            assertTrue(((FullFileInfo) file).getPhysicalFile().getPath().startsWith(workspaceB.getPath()));
+        }
+
+        // restored database can be used as a base for next instrumentation, but a modified one cannot
+        assertNotNull(cacheB.computeKey(b.options(), Collections.<String, String[]>emptyMap()));
+        assertTrue(b.database.setLastModified(b.database.lastModified() - 10000));
+        assertNull(cacheB.computeKey(b.options(), Collections.<String, String[]>emptyMap()));
+    }
+
+    @Test
+    public void testDatabaseOutsideBasedirIsNotPartOfKey() throws Exception {
+        // e.g. singleCloverDatabase or a custom cloverDatabase, which differ between workspaces
+        final File cacheDir = temporaryFolder.newFolder("cache");
+        final Workspace a = new Workspace(temporaryFolder.newFolder("a"), new File(temporaryFolder.getRoot(), "dbA/clover.db"));
+        final Workspace b = new Workspace(temporaryFolder.newFolder("b"), new File(temporaryFolder.getRoot(), "dbB/clover.db"));
+        assertEquals(
+                new InstrumentationCache(cacheDir, a.basedir, a.database, new SilentLog()).computeKey(a.options(), a.sourceFiles()),
+                new InstrumentationCache(cacheDir, b.basedir, b.database, new SilentLog()).computeKey(b.options(), b.sourceFiles()));
+    }
+
+    @Test
+    public void testRelativizeComparesWholePathElements() throws Exception {
+        final File basedir = new File(temporaryFolder.getRoot(), "proj");
+        final InstrumentationCache cache = new InstrumentationCache(temporaryFolder.newFolder("cache"), basedir,
+                new File(basedir, "target/clover/clover.db"), new SilentLog());
+        assertEquals("${basedir}/src/main/java", cache.relativize(new File(basedir, "src/main/java").getPath()));
+        final String otherProject = new File(temporaryFolder.getRoot(), "proj2/src/main/java").getPath();
+        assertEquals(otherProject, cache.relativize(otherProject));
+        assertEquals("interval", cache.relativize("interval"));
+    }
+
+    @Test
+    public void testReplaceRecorderCalls() throws Exception {
+        final String cachedCall = "com_atlassian_clover.Clover.getRecorder(\"" + InstrumentationCache.toUnicodeEscapes("/a/clover.db") + "\"";
+        final String call = "com_atlassian_clover.Clover.getRecorder(\"" + InstrumentationCache.toUnicodeEscapes("/b/clover.db") + "\"";
+        assertEquals("x=" + call + ",1L);y=" + call + ",2L);",
+                InstrumentationCache.replaceRecorderCalls("Foo.java", "x=" + cachedCall + ",1L);y=" + cachedCall + ",2L);",
+                        cachedCall, call));
+    }
+
+    @Test(expected = IOException.class)
+    public void testReplaceRecorderCallsOfOtherDatabase() throws Exception {
+        final String cachedCall = "com_atlassian_clover.Clover.getRecorder(\"" + InstrumentationCache.toUnicodeEscapes("/a/clover.db") + "\"";
+        final String otherCall = "com_atlassian_clover.Clover.getRecorder(\"" + InstrumentationCache.toUnicodeEscapes("/a/clover.db2") + "\"";
+        InstrumentationCache.replaceRecorderCalls("Foo.java", "x=" + otherCall + ",1L);", cachedCall, cachedCall);
+    }
+
+    private static class Workspace {
+        final File basedir;
+        final File srcDir;
+        final File outputDir;
+        final File database;
+
+        Workspace(final File basedir) throws Exception {
+            this(basedir, new File(basedir, "target/clover/clover.db"));
+        }
+
+        Workspace(final File basedir, final File database) throws Exception {
+            this.basedir = basedir;
+            this.database = database;
+            srcDir = new File(basedir, "src/main/java");
+            outputDir = new File(basedir, "target/clover/src-instrumented");
+            new File(srcDir, "com/acme").mkdirs();
+            FileUtils.fileWrite(new File(srcDir, "com/acme/Foo.java"),
+                    "package com.acme;\npublic class Foo { int foo() { return 1; } }\n");
+            outputDir.mkdirs();
+        }
+
+        List<String> options() {
+            return Lists.newArrayList("-i", database.getPath(), "-d", outputDir.getPath());
+        }
+
+        Map<String, String[]> sourceFiles() {
+            return Collections.singletonMap(srcDir.getPath(), new String[] { "com/acme/Foo.java".replace('/', File.separatorChar) });
+        }
+
+        String[] cliArgs() {
+            final List<String> args = options();
+            args.add(new File(srcDir, "com/acme/Foo.java").getPath());
+            return args.toArray(new String[args.size()]);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.atlassian.maven.plugin.clover.internal.instrumentation;
+
+import com.atlassian.maven.plugin.clover.internal.scanner.SourceTreeIndex;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentationFingerprintTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File fingerprintFile;
+
+    private File srcDir;
+
+    private File outDir;
+
+    @Before
+    public void setUp() throws Exception {
+        fingerprintFile = new File(temporaryFolder.getRoot(), "clover/instrumentation.fingerprint");
+        srcDir = temporaryFolder.newFolder("src");
+        outDir = temporaryFolder.newFolder("out");
+        FileUtils.fileWrite(new File(srcDir, "Foo.java"), "class Foo { }");
+        FileUtils.fileWrite(new File(outDir, "Foo.java"), "class Foo { /* instrumented */ }");
+
+        createFingerprint("block").save();
+    }
+
+    @Test
+    public void testUpToDate() throws Exception {
+        assertTrue(createFingerprint("block").isUpToDate());
+    }
+
+    @Test
+    public void testConfigurationChanged() throws Exception {
+        assertFalse(createFingerprint("statement").isUpToDate());
+    }
+
+    @Test
+    public void testSourceAdded() throws Exception {
+        FileUtils.fileWrite(new File(srcDir, "Bar.java"), "class Bar { }");
+        assertFalse(createFingerprint("block").isUpToDate());
+    }
+
+    @Test
+    public void testSourceModified() throws Exception {
+        final File source = new File(srcDir, "Foo.java");
+        assertTrue(source.setLastModified(source.lastModified() - 10000));
+        assertFalse(createFingerprint("block").isUpToDate());
+    }
+
+    @Test
+    public void testOutputDeleted() throws Exception {
+        assertTrue(new File(outDir, "Foo.java").delete());
+        assertFalse(createFingerprint("block").isUpToDate());
+    }
+
+    @Test
+    public void testInvalidated() throws Exception {
+        final InstrumentationFingerprint fingerprint = createFingerprint("block");
+        fingerprint.invalidate();
+        assertFalse(fingerprint.isUpToDate());
+    }
+
+    private InstrumentationFingerprint createFingerprint(final String instrumentation) {
+        return new InstrumentationFingerprint(fingerprintFile, new SourceTreeIndex())
+                .putString("instrumentation", instrumentation)
+                .putSourceTree(srcDir)
+                .addOutput(outDir);
+    }
+}
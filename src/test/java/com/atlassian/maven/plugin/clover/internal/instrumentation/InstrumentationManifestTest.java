@@ -0,0 +1,144 @@
+package com.atlassian.maven.plugin.clover.internal.instrumentation;
+
+import com.google.common.collect.Lists;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentationManifestTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<String> options = Lists.newArrayList("-i", "clover.db", "--instrlevel", "method");
+
+    @Test
+    public void testNoManifestReportsAllFilesAsModified() throws Exception {
+        final File srcFile = createSource("A.java", "class A {}");
+        final InstrumentationManifest manifest = new InstrumentationManifest(new File(temporaryFolder.getRoot(), "none"),
+                temporaryFolder.getRoot(), options);
+
+        assertTrue(manifest.isConfigChanged());
+        assertTrue(manifest.isModified(srcFile));
+    }
+
+    @Test
+    public void testModifiedAddedAndDeletedFiles() throws Exception {
+        final File manifestFile = new File(temporaryFolder.getRoot(), "src-instrumented.manifest");
+        final File a = createSource("A.java", "class A {}");
+        final File b = createSource("B.java", "class B {}");
+
+        final InstrumentationManifest first = new InstrumentationManifest(manifestFile, temporaryFolder.getRoot(), options);
+        first.isModified(a);
+        first.isModified(b);
+        first.save();
+
+        // change A, add C, delete B
+        FileUtils.fileWrite(a, "class A { int i; }");
+        final File c = createSource("C.java", "class C {}");
+
+        final InstrumentationManifest second = new InstrumentationManifest(manifestFile, temporaryFolder.getRoot(), options);
+        assertFalse(second.isConfigChanged());
+        assertTrue(second.isModified(a));
+        assertTrue(second.isModified(c));
+        assertThat(second.getDeletedFiles(), contains("B.java"));
+    }
+
+    @Test
+    public void testConfigChangeReportsAllFilesAsModified() throws Exception {
+        final File manifestFile = new File(temporaryFolder.getRoot(), "src-instrumented.manifest");
+        final File a = createSource("A.java", "class A {}");
+
+        final InstrumentationManifest first = new InstrumentationManifest(manifestFile, temporaryFolder.getRoot(), options);
+        first.isModified(a);
+        first.save();
+
+        assertFalse(new InstrumentationManifest(manifestFile, temporaryFolder.getRoot(), options).isModified(a));
+
+        final InstrumentationManifest changed = new InstrumentationManifest(manifestFile, temporaryFolder.getRoot(),
+                Lists.newArrayList("-i", "clover.db", "--instrlevel", "statement"));
+        assertTrue(changed.isConfigChanged());
+        assertTrue(changed.isModified(a));
+    }
+
+    @Test
+    public void testSelectModifiedFiles() throws Exception {
+        final File manifestFile = new File(temporaryFolder.getRoot(), "src-instrumented.manifest");
+        final File a = createSource("A.java", "class A {}");
+        final File b = createSource("B.java", "class B {}");
+        final Map<String, String[]> sourceFiles = new HashMap<String, String[]>();
+        sourceFiles.put(temporaryFolder.getRoot().getPath(), new String[] { "A.java", "B.java" });
+
+        final InstrumentationManifest first = new InstrumentationManifest(manifestFile, temporaryFolder.getRoot(), options);
+        AbstractInstrumenter.selectModifiedFiles(first, sourceFiles);
+        first.save();
+
+        FileUtils.fileWrite(b, "class B { int i; }");
+        final Map<String, String[]> modified = AbstractInstrumenter.selectModifiedFiles(
+                new InstrumentationManifest(manifestFile, temporaryFolder.getRoot(), options), sourceFiles);
+        assertThat(modified.get(temporaryFolder.getRoot().getPath()), arrayContaining("B.java"));
+    }
+
+    @Test
+    public void testSamePathInTwoSourceRoots() throws Exception {
+        final File manifestFile = new File(temporaryFolder.getRoot(), "src-instrumented.manifest");
+        final File main = createSource("src/main/java/com/acme/A.java", "package com.acme; class A {}");
+        final File generated = createSource("target/generated-sources/com/acme/A.java", "package com.acme; class A {}");
+
+        final InstrumentationManifest first = new InstrumentationManifest(manifestFile, temporaryFolder.getRoot(), options);
+        first.isModified(main);
+        first.isModified(generated);
+        first.save();
+
+        FileUtils.fileWrite(generated, "package com.acme; class A { int i; }");
+        final InstrumentationManifest second = new InstrumentationManifest(manifestFile, temporaryFolder.getRoot(), options);
+        assertFalse(second.isModified(main));
+        assertTrue(second.isModified(generated));
+    }
+
+    @Test
+    public void testDeletedFilesAreReportedByPackage() throws Exception {
+        final File manifestFile = new File(temporaryFolder.getRoot(), "src-instrumented.manifest");
+        // the directory does not match the package
+        final File a = createSource("src/main/java/A.java", "/* header */\npackage com.acme.util;\nclass A {}");
+        final File b = createSource("src/main/java/B.java", "class B {}");
+
+        final InstrumentationManifest first = new InstrumentationManifest(manifestFile, temporaryFolder.getRoot(), options);
+        first.isModified(a);
+        first.isModified(b);
+        first.save();
+
+        final InstrumentationManifest second = new InstrumentationManifest(manifestFile, temporaryFolder.getRoot(), options);
+        assertThat(second.getDeletedFiles(), containsInAnyOrder("com/acme/util/A.java", "B.java"));
+    }
+
+    @Test
+    public void testInstrumentedPath() {
+        assertEquals("com/acme/A.java", InstrumentationManifest.getInstrumentedPath("A.java",
+                "// comment\n/** doc */\n  package  com.acme ;\nclass A {}"));
+        assertEquals("com/acme/package-info.java", InstrumentationManifest.getInstrumentedPath("package-info.java",
+                "@Deprecated\n@SuppressWarnings(\"x\") package com.acme;"));
+        assertEquals("A.java", InstrumentationManifest.getInstrumentedPath("A.java", "import java.util.List; class A {}"));
+    }
+
+    private File createSource(final String name, final String content) throws Exception {
+        final File file = new File(temporaryFolder.getRoot(), name);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file, content);
+        return file;
+    }
+}
@@ -0,0 +1,60 @@
+package com.atlassian.maven.plugin.clover.internal.instrumentation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class InstrumentationTimingsTest {
+
+    private InstrumentationTimings timings;
+
+    @Before
+    public void setUp() {
+        timings = new InstrumentationTimings();
+        // 1..100 seconds, added in a shuffled order
+        for (int i = 0; i < 100; i++) {
+            final int seconds = (i * 37) % 100 + 1;
+            timings.addFileTime(new File("Foo" + seconds + ".java"), System.nanoTime() - TimeUnit.SECONDS.toNanos(seconds));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        assertEquals(50, TimeUnit.NANOSECONDS.toSeconds(timings.getFilePercentileNanos(50)));
+        assertEquals(99, TimeUnit.NANOSECONDS.toSeconds(timings.getFilePercentileNanos(99)));
+        assertEquals(0L, new InstrumentationTimings().getFilePercentileNanos(50));
+    }
+
+    @Test
+    public void testSlowestFiles() {
+        final List<InstrumentationTimings.FileTiming> slowest = timings.getSlowestFiles(3);
+        assertEquals(3, slowest.size());
+        assertEquals("Foo100.java", slowest.get(0).path);
+        assertEquals("Foo99.java", slowest.get(1).path);
+        assertEquals("Foo98.java", slowest.get(2).path);
+    }
+
+    @Test
+    public void testFileTimesAreAddedToInstrumentPhase() {
+        assertEquals(5050, TimeUnit.NANOSECONDS.toSeconds(
+                timings.getPhaseNanos(InstrumentationTimings.Phase.INSTRUMENT)));
+        assertEquals(0L, timings.getPhaseNanos(InstrumentationTimings.Phase.COPY));
+    }
+
+    @Test
+    public void testJsonEscaping() {
+        final InstrumentationTimings timings = new InstrumentationTimings();
+        timings.addFileTime(new File("dir\\\"quoted\"\tFoo.java"), System.nanoTime());
+        final String json = timings.toJson("main", 10);
+        assertThat(json, containsString("\"sourceType\": \"main\""));
+        assertThat(json, containsString("\"path\": \"dir\\\\\\\"quoted\\\"\\u0009Foo.java\""));
+        assertThat(json, containsString("\"files\": 1"));
+    }
+}
@@ -0,0 +1,177 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+import com.atlassian.clover.CloverDatabase;
+import com.atlassian.clover.CloverInstr;
+import com.atlassian.clover.CoverageDataSpec;
+import com.atlassian.clover.optimization.Snapshot;
+import com_atlassian_clover.Clover;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A small project which is built with Clover: its sources are instrumented, compiled and its JUnit tests are run in
+ * this JVM, so that a real Clover database, coverage recordings and snapshot are created.
+ */
+public class CloverProjectFixture {
+
+    private final File baseDir;
+
+    public CloverProjectFixture(final File baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    public File getBaseDir() {
+        return baseDir;
+    }
+
+    public File getSourceDir() {
+        return new File(baseDir, "src/main/java");
+    }
+
+    public File getTestSourceDir() {
+        return new File(baseDir, "src/test/java");
+    }
+
+    public File getOutputDir() {
+        return new File(baseDir, "target/clover");
+    }
+
+    public File getDatabase() {
+        return new File(getOutputDir(), "clover.db");
+    }
+
+    /**
+     * The snapshot is kept outside of the target directory, so that it survives clean builds.
+     */
+    public File getSnapshot() {
+        return new File(baseDir, "clover.snapshot");
+    }
+
+    /**
+     * @param sourceRoot source root
+     * @param className  fully qualified name of the class
+     * @param body       body of the class
+     */
+    public void writeClass(final File sourceRoot, final String className, final String body) throws Exception {
+        final int lastDot = className.lastIndexOf('.');
+        final File file = getSourceFile(sourceRoot, className);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file, "UTF-8", "package " + className.substring(0, lastDot) + ";\n"
+                + "public class " + className.substring(lastDot + 1) + " {\n" + body + "\n}\n");
+    }
+
+    public void deleteClass(final File sourceRoot, final String className) {
+        assertTrue(getSourceFile(sourceRoot, className).delete());
+    }
+
+    /**
+     * Like a clean build: removes the target directory, instruments all sources into a new database and compiles
+     * them.
+     */
+    public void build() throws Exception {
+        final File targetDir = new File(baseDir, "target");
+        FileUtils.deleteDirectory(targetDir);
+        final File instrumentedDir = new File(targetDir, "clover/src-instrumented");
+        final List<String> sourceFiles = new ArrayList<String>();
+        for (final File sourceRoot : new File[] { getSourceDir(), getTestSourceDir() }) {
+            if (sourceRoot.isDirectory()) {
+                for (final Object file : FileUtils.getFiles(sourceRoot, "**/*.java", null)) {
+                    sourceFiles.add(((File) file).getPath());
+                }
+            }
+        }
+
+        final List<String> args = new ArrayList<String>();
+        args.add("-i");
+        args.add(getDatabase().getPath());
+        args.add("-d");
+        args.add(instrumentedDir.getPath());
+        args.addAll(sourceFiles);
+        assertEquals(0, CloverInstr.mainImpl(args.toArray(new String[args.size()])));
+
+        final List<String> compilerArgs = new ArrayList<String>();
+        compilerArgs.add("-proc:none");
+        compilerArgs.add("-d");
+        compilerArgs.add(getClassesDir().getPath());
+        compilerArgs.add("-cp");
+        compilerArgs.add(getJar(Clover.class) + File.pathSeparator + getJar(org.junit.Test.class));
+        for (final Object file : FileUtils.getFiles(instrumentedDir, "**/*.java", null)) {
+            compilerArgs.add(((File) file).getPath());
+        }
+        getClassesDir().mkdirs();
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, compilerArgs.toArray(new String[compilerArgs.size()])));
+    }
+
+    /**
+     * Runs tests of the last build and writes their coverage recordings.
+     *
+     * @param testClassNames fully qualified names of test classes
+     */
+    public void runTests(final String... testClassNames) throws Exception {
+        final URLClassLoader classLoader = new URLClassLoader(new URL[] { getClassesDir().toURI().toURL() },
+                getClass().getClassLoader());
+        try {
+            final Class<?>[] testClasses = new Class<?>[testClassNames.length];
+            for (int i = 0; i < testClassNames.length; i++) {
+                testClasses[i] = classLoader.loadClass(testClassNames[i]);
+            }
+            final Result result = JUnitCore.runClasses(testClasses);
+            assertTrue(String.valueOf(result.getFailures()), result.wasSuccessful());
+        } finally {
+            Clover.allRecordersFlush();
+            Clover.resetRecorders();
+            classLoader.close();
+        }
+    }
+
+    /**
+     * Creates a new snapshot from coverage of the last test run, like Clover's snapshot task does.
+     *
+     * @return Snapshot stored snapshot
+     */
+    public Snapshot saveSnapshot() throws Exception {
+        final CloverDatabase database = CloverDatabase.loadWithCoverage(getDatabase().getPath(), new CoverageDataSpec());
+        final Snapshot snapshot = Snapshot.generateFor(database, getSnapshot().getPath());
+        snapshot.store();
+        return snapshot;
+    }
+
+    /**
+     * Adds coverage of the last test run to the existing snapshot, like Clover's snapshot task does.
+     *
+     * @return Snapshot stored snapshot
+     */
+    public Snapshot updateSnapshot() throws Exception {
+        final Snapshot snapshot = Snapshot.loadFrom(getSnapshot());
+        assertNotNull(snapshot);
+        snapshot.updateFor(CloverDatabase.loadWithCoverage(getDatabase().getPath(), new CoverageDataSpec()));
+        snapshot.store();
+        return snapshot;
+    }
+
+    private File getClassesDir() {
+        return new File(baseDir, "target/classes");
+    }
+
+    private static File getSourceFile(final File sourceRoot, final String className) {
+        return new File(sourceRoot, className.replace('.', '/') + ".java");
+    }
+
+    private static String getJar(final Class<?> clazz) throws Exception {
+        return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+}
@@ -0,0 +1,91 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class GitChangeSourceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File repository;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = temporaryFolder.newFolder("repo");
+        Assume.assumeTrue(git("init", "-q"));
+        createFile("module/src/main/java/com/acme/Foo.java");
+        createFile("module/src/main/java/com/acme/Bar.java");
+        createFile("module/src/main/java/com/acme/Baz.java");
+        git("add", ".");
+        git("commit", "-q", "-m", "base");
+        git("tag", "base");
+    }
+
+    @Test
+    public void testCommittedLocalAndUntrackedChanges() throws Exception {
+        FileUtils.fileWrite(new File(repository, "module/src/main/java/com/acme/Foo.java"), "changed");
+        git("commit", "-q", "-a", "-m", "change Foo");
+        git("mv", "module/src/main/java/com/acme/Bar.java", "module/src/main/java/com/acme/Bar2.java");
+        FileUtils.fileWrite(new File(repository, "module/src/main/java/com/acme/Baz.java"), "changed");
+        createFile("module/src/test/java/com/acme/NewTest.java");
+
+        assertEquals(new HashSet<String>(Arrays.asList(
+                "module/src/main/java/com/acme/Foo.java",
+                "module/src/main/java/com/acme/Bar.java",
+                "module/src/main/java/com/acme/Bar2.java",
+                "module/src/main/java/com/acme/Baz.java",
+                "module/src/test/java/com/acme/NewTest.java")),
+                new GitChangeSource(new File(repository, "module"), "base").getChangedFiles());
+    }
+
+    @Test
+    public void testTopLevelDirectory() throws Exception {
+        assertEquals(repository.getCanonicalFile(),
+                new GitChangeSource(new File(repository, "module"), "base").getTopLevelDirectory().getCanonicalFile());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownBaseRef() throws Exception {
+        new GitChangeSource(repository, "no-such-branch").getChangedFiles();
+    }
+
+    @Test
+    public void testPathSuffixes() {
+        assertEquals(new HashSet<String>(Arrays.asList("a/b/C.java", "b/C.java", "C.java")),
+                TestCoverage.pathSuffixes(Arrays.asList("a/b/C.java")));
+    }
+
+    private void createFile(final String path) throws IOException {
+        final File file = new File(repository, path);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file, path);
+    }
+
+    private boolean git(final String... arguments) throws InterruptedException {
+        final String[] command = new String[arguments.length + 5];
+        command[0] = "git";
+        command[1] = "-c";
+        command[2] = "user.name=test";
+        command[3] = "-c";
+        command[4] = "user.email=test@example.com";
+        System.arraycopy(arguments, 0, command, 5, arguments.length);
+        try {
+            return new ProcessBuilder(command).directory(repository).inheritIO().start().waitFor() == 0;
+        } catch (IOException ex) {
+            // git is not installed
+            return false;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReactorTestImpactTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MavenProject core;
+
+    private MavenProject service;
+
+    private MavenProject web;
+
+    private MavenProject tools;
+
+    private List<MavenProject> reactorProjects;
+
+    @Before
+    public void setUp() throws Exception {
+        core = createProject("core");
+        service = createProject("service", core);
+        web = createProject("web", service);
+        tools = createProject("tools");
+        reactorProjects = Arrays.asList(core, service, web, tools);
+    }
+
+    @Test
+    public void testUpstreamModulesAreTransitive() {
+        final Map<String, Set<String>> upstreamModules = ReactorTestImpact.buildUpstreamModules(reactorProjects);
+        assertEquals(new HashSet<String>(Arrays.asList("com.acme:web", "com.acme:service", "com.acme:core")),
+                upstreamModules.get("com.acme:web"));
+        assertEquals(Collections.singleton("com.acme:tools"), upstreamModules.get("com.acme:tools"));
+    }
+
+    @Test
+    public void testChangePropagatesToDownstreamModules() {
+        final ReactorTestImpact impact = new ReactorTestImpact(reactorProjects, new TestCoverage(),
+                Collections.<String>emptySet());
+        impact.addChangedFile(new File(service.getBasedir(), "src/main/java/com/acme/Service.java"));
+
+        assertFalse(impact.isModuleImpacted(core));
+        assertTrue(impact.isModuleImpacted(service));
+        assertTrue(impact.isModuleImpacted(web));
+        assertFalse(impact.isModuleImpacted(tools));
+    }
+
+    @Test
+    public void testUnattributedChangeImpactsAllModules() {
+        final ReactorTestImpact impact = new ReactorTestImpact(reactorProjects, new TestCoverage(),
+                Collections.<String>emptySet());
+        impact.addChangedFile(null);
+        assertTrue(impact.isModuleImpacted(tools));
+    }
+
+    @Test
+    public void testImpactedTests() {
+        final TestCoverage coverage = new TestCoverage();
+        // WebTest covered a file from an upstream module
+        coverage.put("com/acme/WebTest.java", "com/acme/Service.java");
+        coverage.put("com/acme/ToolTest.java");
+        coverage.put("com/acme/FlakyTest.java");
+        final ReactorTestImpact impact = new ReactorTestImpact(reactorProjects, coverage,
+                Collections.singleton("com/acme/FlakyTest.java"));
+
+        assertTrue(impact.isTestImpacted("com/acme/WebTest.java"));
+        assertFalse(impact.isTestImpacted("com/acme/ToolTest.java"));
+        assertTrue(impact.isTestImpacted("com/acme/FlakyTest.java"));
+        // not present in the snapshot
+        assertTrue(impact.isTestImpacted("com/acme/NewTest.java"));
+    }
+
+    private MavenProject createProject(final String artifactId, final MavenProject... dependencies) throws Exception {
+        final Model model = new Model();
+        model.setGroupId("com.acme");
+        model.setArtifactId(artifactId);
+        model.setVersion("1.0");
+        for (final MavenProject dependencyProject : dependencies) {
+            final Dependency dependency = new Dependency();
+            dependency.setGroupId(dependencyProject.getGroupId());
+            dependency.setArtifactId(dependencyProject.getArtifactId());
+            dependency.setVersion(dependencyProject.getVersion());
+            model.addDependency(dependency);
+        }
+        final MavenProject project = new MavenProject(model);
+        project.setFile(new File(temporaryFolder.newFolder(artifactId), "pom.xml"));
+        return project;
+    }
+}
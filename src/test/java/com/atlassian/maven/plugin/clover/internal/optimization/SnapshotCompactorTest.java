@@ -0,0 +1,107 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+import com.atlassian.clover.optimization.Snapshot;
+import com.atlassian.clover.registry.Clover2Registry;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotCompactorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private CloverProjectFixture project;
+
+    @Before
+    public void setUp() throws Exception {
+        project = new CloverProjectFixture(temporaryFolder.getRoot());
+        project.writeClass(project.getSourceDir(), "com.acme.Foo",
+                "public int foo() { return new Bar().bar() + new Baz().baz(); }");
+        project.writeClass(project.getSourceDir(), "com.acme.Bar", "public int bar() { return 1; }");
+        project.writeClass(project.getSourceDir(), "com.acme.Baz", "public int baz() { return 2; }");
+        project.writeClass(project.getSourceDir(), "com.acme.Qux", "public int qux() { return 3; }");
+        project.writeClass(project.getSourceDir(), "com.acme.Old", "public int old() { return 4; }");
+        project.writeClass(project.getTestSourceDir(), "com.acme.FooTest",
+                "@org.junit.Test public void testFoo() { new Foo().foo(); }");
+        project.writeClass(project.getTestSourceDir(), "com.acme.QuxTest",
+                "@org.junit.Test public void testQux() { new Qux().qux(); }");
+        project.writeClass(project.getTestSourceDir(), "com.acme.OldTest",
+                "@org.junit.Test public void testOld() { new Old().old(); }");
+        project.build();
+        project.runTests("com.acme.FooTest", "com.acme.QuxTest", "com.acme.OldTest");
+        project.saveSnapshot();
+
+        // Foo no longer uses Bar and Baz, which are deleted together with Old and its test
+        project.writeClass(project.getSourceDir(), "com.acme.Foo", "public int foo() { return 3; }");
+        project.deleteClass(project.getSourceDir(), "com.acme.Bar");
+        project.deleteClass(project.getSourceDir(), "com.acme.Baz");
+        project.deleteClass(project.getSourceDir(), "com.acme.Old");
+        project.deleteClass(project.getTestSourceDir(), "com.acme.OldTest");
+        project.build();
+    }
+
+    @Test
+    public void testCompactedSnapshotIsReloadedAndOptimizedAsBefore() throws Exception {
+        final TestCoverage coverageBefore = loadCoverage(Snapshot.loadFrom(project.getSnapshot()));
+        assertEquals(new HashSet<String>(Arrays.asList(
+                "com/acme/FooTest.java", "com/acme/QuxTest.java", "com/acme/OldTest.java")), coverageBefore.getTests());
+
+        final Snapshot snapshot = Snapshot.loadFrom(project.getSnapshot());
+        final long originalLength = project.getSnapshot().length();
+        final SnapshotCompactor.Result result = compact(snapshot);
+        assertEquals(1, result.getRemovedTests());
+        // one of the two removed files covered by FooTest is kept, so that FooTest is still affected by the removal
+        assertEquals(1, result.getRemovedFiles());
+        assertTrue(result.isModified());
+        snapshot.store();
+        assertTrue(project.getSnapshot().length() < originalLength);
+
+        final Snapshot reloadedSnapshot = Snapshot.loadFrom(project.getSnapshot());
+        assertNotNull(reloadedSnapshot);
+        assertEquals(snapshot.getDbVersions(), reloadedSnapshot.getDbVersions());
+        final TestCoverage coverageAfter = loadCoverage(reloadedSnapshot);
+        assertEquals(new HashSet<String>(Arrays.asList("com/acme/FooTest.java", "com/acme/QuxTest.java")),
+                coverageAfter.getTests());
+
+        // remaining tests are affected by changes exactly as before the compaction
+        for (final String test : Arrays.asList("com/acme/FooTest.java", "com/acme/QuxTest.java")) {
+            assertEquals(test, coverageBefore.getChangedFiles(test).isEmpty(),
+                    coverageAfter.getChangedFiles(test).isEmpty());
+            assertEquals(test, coverageBefore.getAffectedMethods(test), coverageAfter.getAffectedMethods(test));
+        }
+        assertFalse(coverageAfter.getChangedFiles("com/acme/FooTest.java").isEmpty());
+        assertEquals(Collections.<String>emptySet(), coverageAfter.getChangedFiles("com/acme/QuxTest.java"));
+    }
+
+    @Test
+    public void testCompactedSnapshotIsNotModifiedAgain() throws Exception {
+        final Snapshot snapshot = Snapshot.loadFrom(project.getSnapshot());
+        assertTrue(compact(snapshot).isModified());
+        final SnapshotCompactor.Result result = compact(snapshot);
+        assertFalse(result.isModified());
+        assertEquals(0, result.getRemovedTests());
+        assertEquals(0, result.getRemovedFiles());
+    }
+
+    private SnapshotCompactor.Result compact(final Snapshot snapshot) throws Exception {
+        return new SnapshotCompactor(Clover2Registry.fromFile(project.getDatabase()).getProject()).compact(snapshot);
+    }
+
+    private TestCoverage loadCoverage(final Snapshot snapshot) throws Exception {
+        SnapshotIndex.write(snapshot, project.getSnapshot(), SnapshotIndex.getIndexFile(project.getSnapshot()));
+        final SnapshotIndex index = SnapshotIndex.open(SnapshotIndex.getIndexFile(project.getSnapshot()));
+        return TestCoverage.load(index, project.getDatabase(), new SilentLog());
+    }
+}
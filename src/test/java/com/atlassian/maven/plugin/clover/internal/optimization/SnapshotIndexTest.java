@@ -0,0 +1,131 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+import com.atlassian.clover.optimization.Snapshot;
+import com_atlassian_clover.CloverVersionInfo;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.apache.tools.ant.taskdefs.condition.Os;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File snapshotFile;
+
+    private File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        snapshotFile = temporaryFolder.newFile("clover.db.snapshot");
+        FileUtils.fileWrite(snapshotFile, "not a real snapshot");
+        indexFile = SnapshotIndex.getIndexFile(snapshotFile);
+
+        final List<SnapshotIndex.TestEntry> tests = new ArrayList<SnapshotIndex.TestEntry>();
+        tests.add(createTest("com/acme/FooTest.java", "testParse", 100L, "com/acme/Parser.java", "com/acme/FooTest.java"));
+        tests.add(createTest("com/acme/BarTest.java", "testBar", Snapshot.UNKNOWN_DURATION, "com/acme/Bar.java"));
+        tests.add(createTest("com/acme/FooTest.java", "testFormat", 50L, "com/acme/Formatter.java"));
+        SnapshotIndex.write(indexFile, snapshotFile.length(), snapshotFile.lastModified(),
+                CloverVersionInfo.formatVersionInfo(), Arrays.asList(5L, 7L, 6L),
+                Collections.singleton("com/acme/BarTest.java"), tests);
+    }
+
+    @Test
+    public void testQueries() throws Exception {
+        final SnapshotIndex index = SnapshotIndex.open(indexFile);
+        assertTrue(index.isBuiltFrom(snapshotFile));
+        assertEquals(7L, index.getMostRecentDbVersion());
+        assertFalse(index.isTooStale(10));
+        assertTrue(index.isTooStale(2));
+        assertEquals(Collections.singleton("com/acme/BarTest.java"), index.getFailingTestPaths());
+
+        // sorted by test path and method name
+        assertEquals(3, index.getTestCount());
+        assertEquals(0, index.findTest("com/acme/BarTest.java"));
+        assertEquals(1, index.findTest("com\\acme\\FooTest.java"));
+        assertEquals(-1, index.findTest("com/acme/BazTest.java"));
+        assertEquals("testFormat", index.getTestMethod(1));
+        assertEquals(50L, index.getDuration(1));
+        assertEquals("testParse", index.getTestMethod(2));
+        assertEquals(2, index.getCoveredFileCount(2));
+        assertEquals("com/acme/Parser.java", index.getCoveredFile(2, 0));
+        assertEquals("com/acme/Parser.java".hashCode(), index.getCoveredFileChecksum(2, 0));
+        assertEquals("com/acme/Parser.java".length(), index.getCoveredFileSize(2, 0));
+    }
+
+    @Test
+    public void testCoverageAndDurationsFromIndex() throws Exception {
+        final SnapshotIndex index = SnapshotIndex.open(indexFile);
+        final TestCoverage coverage = TestCoverage.load(index, Collections.singleton("src/main/java/com/acme/Parser.java"),
+                new SilentLog());
+        assertEquals(new HashSet<String>(Arrays.asList("com/acme/BarTest.java", "com/acme/FooTest.java")),
+                coverage.getTests());
+        assertEquals(Collections.singleton("testParse"), coverage.getAffectedMethods("com/acme/FooTest.java"));
+
+        final TestDurations durations = TestDurations.load(index, null, new SilentLog());
+        assertEquals(150L, durations.getDuration("com/acme/FooTest.java", -1L));
+        assertEquals(-1L, durations.getDuration("com/acme/BarTest.java", -1L));
+    }
+
+    @Test
+    public void testUpToDateIndexIsUsedInsteadOfSnapshot() {
+        // the snapshot file is not a valid snapshot, so it can't have been deserialized
+        assertNotNull(SnapshotIndex.load(snapshotFile, new SilentLog()));
+    }
+
+    @Test
+    public void testIndexOfDifferentSnapshotIsOutOfDate() throws Exception {
+        FileUtils.fileWrite(snapshotFile, "a different snapshot");
+        assertFalse(SnapshotIndex.open(indexFile).isBuiltFrom(snapshotFile));
+    }
+
+    @Test
+    public void testMappedIndexCanBeReplaced() throws Exception {
+        Assume.assumeFalse(Os.isFamily(Os.FAMILY_WINDOWS));
+        final SnapshotIndex index = SnapshotIndex.open(indexFile);
+        // the index is replaced when the snapshot is saved again, while the optimizer may still use the old one
+        assertTrue(indexFile.delete());
+        assertEquals("testFormat", index.getTestMethod(1));
+        assertEquals(Collections.singleton("com/acme/BarTest.java"), index.getFailingTestPaths());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedIndex() throws Exception {
+        final RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        try {
+            file.setLength(file.length() - 8);
+        } finally {
+            file.close();
+        }
+        SnapshotIndex.open(indexFile);
+    }
+
+    private static SnapshotIndex.TestEntry createTest(final String testPath, final String methodName,
+                                                      final long duration, final String... coveredFiles) {
+        final SnapshotIndex.TestEntry test = new SnapshotIndex.TestEntry(testPath, methodName);
+        test.duration = duration;
+        for (final String coveredFile : coveredFiles) {
+            test.coveredFiles.put(coveredFile, new long[] { coveredFile.hashCode(), coveredFile.length() });
+        }
+        return test;
+    }
+}
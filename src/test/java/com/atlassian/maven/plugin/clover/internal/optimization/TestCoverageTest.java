@@ -0,0 +1,77 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+import com.atlassian.clover.optimization.Snapshot;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCoverageTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testAffectedMethods() {
+        final TestCoverage coverage = new TestCoverage();
+        coverage.putMethod("com/acme/FooTest.java", "testParse", "com/acme/Parser.java", "com/acme/FooTest.java");
+        coverage.putMethod("com/acme/FooTest.java", "testFormat", "com/acme/Formatter.java", "com/acme/FooTest.java");
+        coverage.putMethod("com/acme/FooTest.java", "testRoundTrip", "com/acme/Parser.java", "com/acme/Formatter.java");
+        coverage.putMethod("com/acme/BarTest.java", "testBar", "com/acme/Bar.java");
+        coverage.putChanged("com/acme/Parser.java");
+
+        assertEquals(new HashSet<String>(Arrays.asList("testParse", "testRoundTrip")),
+                coverage.getAffectedMethods("com\\acme\\FooTest.java"));
+        assertEquals(Collections.<String>emptySet(), coverage.getAffectedMethods("com/acme/BarTest.java"));
+        assertNull(coverage.getAffectedMethods("com/acme/BazTest.java"));
+
+        assertEquals(new HashSet<String>(Arrays.asList("com/acme/Parser.java")),
+                coverage.getChangedFiles("com/acme/FooTest.java"));
+        assertTrue(coverage.isChanged("com/acme/Parser.java"));
+        assertFalse(coverage.isChanged("com/acme/FooTest.java"));
+    }
+
+    @Test
+    public void testEveryTestIsComparedWithItsOwnStates() throws Exception {
+        final CloverProjectFixture project = new CloverProjectFixture(temporaryFolder.getRoot());
+        project.writeClass(project.getSourceDir(), "com.acme.Foo", "public int foo() { return 1; }");
+        project.writeClass(project.getTestSourceDir(), "com.acme.ATest",
+                "@org.junit.Test public void testA() { new Foo().foo(); }");
+        project.writeClass(project.getTestSourceDir(), "com.acme.BTest",
+                "@org.junit.Test public void testB() { new Foo().foo(); }");
+        project.build();
+        project.runTests("com.acme.ATest", "com.acme.BTest");
+        project.saveSnapshot();
+
+        // only ATest is run after Foo changed, so BTest keeps the original state of Foo
+        project.writeClass(project.getSourceDir(), "com.acme.Foo", "public int foo() { return 2; }");
+        project.build();
+        project.runTests("com.acme.ATest");
+        final Snapshot snapshot = project.updateSnapshot();
+        SnapshotIndex.write(snapshot, project.getSnapshot(), SnapshotIndex.getIndexFile(project.getSnapshot()));
+
+        final TestCoverage coverage = TestCoverage.load(
+                SnapshotIndex.open(SnapshotIndex.getIndexFile(project.getSnapshot())), project.getDatabase(),
+                new SilentLog());
+        assertEquals(Collections.<String>emptySet(), coverage.getChangedFiles("com/acme/ATest.java"));
+        assertEquals(Collections.<String>emptySet(), coverage.getAffectedMethods("com/acme/ATest.java"));
+        assertEquals(Collections.singleton("com/acme/Foo.java"), coverage.getChangedFiles("com/acme/BTest.java"));
+        assertEquals(Collections.singleton("testB"), coverage.getAffectedMethods("com/acme/BTest.java"));
+        assertTrue(coverage.isChanged("com/acme/Foo.java"));
+    }
+
+    @Test
+    public void testSimpleMethodName() {
+        assertEquals("testBar", TestCoverage.simpleMethodName("com.acme.FooTest.testBar"));
+        assertEquals("testBar", TestCoverage.simpleMethodName("testBar"));
+    }
+}
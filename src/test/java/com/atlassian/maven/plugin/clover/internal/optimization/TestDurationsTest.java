@@ -0,0 +1,42 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+import org.apache.maven.plugin.testing.SilentLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestDurationsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadSurefireReports() throws Exception {
+        final File reports = temporaryFolder.newFolder("surefire-reports");
+        FileUtils.fileWrite(new File(reports, "TEST-com.acme.FooTest.xml"),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                        + "<testsuite name=\"com.acme.FooTest\" time=\"1,234.5\" tests=\"2\">\n"
+                        + "  <testcase name=\"testOne\" classname=\"com.acme.FooTest\" time=\"1,200\"/>\n"
+                        + "</testsuite>\n");
+        FileUtils.fileWrite(new File(reports, "TEST-com.acme.BarTest.xml"),
+                "<testsuite name=\"com.acme.BarTest\" time=\"0.25\"/>");
+        FileUtils.fileWrite(new File(reports, "TEST-broken.xml"), "<testsuite");
+        FileUtils.fileWrite(new File(reports, "com.acme.FooTest.txt"), "not a report");
+
+        final TestDurations durations = TestDurations.load(null, reports, new SilentLog());
+        assertEquals(1234500L, durations.getDuration("com/acme/FooTest.java", -1));
+        assertEquals(250L, durations.getDuration("com\\acme\\BarTest.java", -1));
+        assertEquals(-1L, durations.getDuration("com/acme/BazTest.java", -1));
+        assertEquals(1234500L, durations.getMedianDuration());
+    }
+
+    @Test
+    public void testMedianWithoutHistory() {
+        assertEquals(1L, new TestDurations().getMedianDuration());
+    }
+}
@@ -0,0 +1,73 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestShardingTest {
+
+    @Test
+    public void testShardsHaveSimilarDuration() {
+        final TestDurations durations = new TestDurations();
+        final List<String> tests = new ArrayList<String>();
+        for (int i = 0; i < 30; i++) {
+            final String test = "com/acme/Foo" + i + "Test.java";
+            tests.add(test);
+            // a few long tests and many short ones
+            durations.put(test, i < 3 ? 10000 : 100 * i);
+        }
+
+        final TestSharding sharding = new TestSharding(3);
+        final List<String> allSelected = new ArrayList<String>();
+        long minTotal = Long.MAX_VALUE;
+        long maxTotal = 0;
+        for (int shard = 0; shard < 3; shard++) {
+            long total = 0;
+            for (final String test : sharding.selectShard(tests, durations, shard)) {
+                allSelected.add(test);
+                total += durations.getDuration(test, 0);
+            }
+            minTotal = Math.min(minTotal, total);
+            maxTotal = Math.max(maxTotal, total);
+        }
+
+        // every test is run exactly once
+        Collections.sort(allSelected);
+        final List<String> expected = new ArrayList<String>(tests);
+        Collections.sort(expected);
+        assertEquals(expected, allSelected);
+        assertTrue("min=" + minTotal + " max=" + maxTotal, maxTotal - minTotal <= 300);
+    }
+
+    @Test
+    public void testPartitioningDoesNotDependOnInputOrder() {
+        final TestDurations durations = new TestDurations();
+        durations.put("A.java", 300);
+        durations.put("B.java", 300);
+        durations.put("C.java", 200);
+        // D.java and E.java have no history, a median of 300 is used
+
+        final List<String> tests = Arrays.asList("A.java", "B.java", "C.java", "D.java", "E.java");
+        final List<String> reversed = new ArrayList<String>(tests);
+        Collections.reverse(reversed);
+
+        final TestSharding sharding = new TestSharding(2);
+        for (int shard = 0; shard < 2; shard++) {
+            final List<String> fromReversed = new ArrayList<String>(sharding.selectShard(reversed, durations, shard));
+            Collections.reverse(fromReversed);
+            assertEquals(sharding.selectShard(tests, durations, shard), fromReversed);
+        }
+        assertEquals(Arrays.asList("A.java", "C.java", "D.java"), sharding.selectShard(tests, durations, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidShardIndex() {
+        new TestSharding(2).selectShard(Collections.<String>emptyList(), new TestDurations(), 2);
+    }
+}
@@ -0,0 +1,63 @@
+package com.atlassian.maven.plugin.clover.internal.optimization;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimeBudgetSelectorTest {
+
+    private final List<String> tests = Arrays.asList("ATest.java", "BTest.java", "CTest.java", "DTest.java", "ETest.java");
+
+    private final TestDurations durations = new TestDurations();
+
+    private final TestCoverage coverage = new TestCoverage();
+
+    @Before
+    public void setUp() {
+        durations.put("ATest.java", 1000);
+        durations.put("BTest.java", 200);
+        durations.put("CTest.java", 300);
+        durations.put("DTest.java", 100);
+        durations.put("ETest.java", 500);
+        coverage.put("ATest.java", "Foo.java", "Bar.java", "Baz.java");
+        coverage.put("BTest.java", "Foo.java");
+        coverage.put("CTest.java", "Bar.java", "Baz.java");
+        coverage.put("DTest.java", "Foo.java");
+        coverage.put("ETest.java");
+    }
+
+    @Test
+    public void testBestCoveragePerSecond() {
+        // D (10 files/s), then C (6.7 files/s) cover all files in 400ms; B fits into the rest of the budget
+        assertEquals(Arrays.asList("BTest.java", "CTest.java", "DTest.java"),
+                new TimeBudgetSelector(650).select(tests, Collections.<String>emptySet(), durations, coverage));
+    }
+
+    @Test
+    public void testAlwaysRunTestsAreSelected() {
+        assertEquals(Arrays.asList("ATest.java", "DTest.java"),
+                new TimeBudgetSelector(1100).select(tests, Collections.singleton("ATest.java"), durations, coverage));
+        assertEquals(Collections.singletonList("ETest.java"),
+                new TimeBudgetSelector(10).select(tests, Collections.singleton("ETest.java"), durations, coverage));
+    }
+
+    @Test
+    public void testTestWithoutHistoryIsPreferred() {
+        final List<String> withNewTest = Arrays.asList("ATest.java", "NewTest.java");
+        // NewTest takes a median time of 300ms and is assumed to cover something new
+        assertEquals(Collections.singletonList("NewTest.java"),
+                new TimeBudgetSelector(500).select(withNewTest, Collections.<String>emptySet(), durations,
+                        new TestCoverage()));
+    }
+
+    @Test
+    public void testEverythingFits() {
+        assertEquals(tests, new TimeBudgetSelector(10000).select(tests, Collections.<String>emptySet(), durations,
+                coverage));
+    }
+}
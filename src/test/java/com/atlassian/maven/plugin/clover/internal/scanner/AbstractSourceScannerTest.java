@@ -0,0 +1,127 @@
+package com.atlassian.maven.plugin.clover.internal.scanner;
+
+import com.atlassian.clover.spi.lang.Language;
+import com.atlassian.maven.plugin.clover.internal.CompilerConfiguration;
+import com.google.common.collect.Sets;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that results of a parallel scan of many source roots are complete and passed in the order of source roots.
+ */
+public class AbstractSourceScannerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<String> sourceRoots = new ArrayList<String>();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            final File root = temporaryFolder.newFolder("root" + i);
+            for (int j = 0; j <= i; j++) {
+                createFile(root, "com/acme/Foo" + j + ".java");
+            }
+            createFile(root, "com/acme/readme.txt");
+            sourceRoots.add(root.getPath());
+        }
+    }
+
+    @Test
+    public void testAllRootsAreScanned() {
+        final Map<String, String[]> files = createScanner().getSourceFilesToInstrument(
+                LanguageFileExtensionFilter.JAVA_LANGUAGE, false);
+        assertEquals(6, files.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i + 1, files.get(new File(sourceRoots.get(i)).getAbsolutePath()).length);
+        }
+
+        final Map<String, String[]> excludedFiles = createScanner().getExcludedFiles();
+        assertEquals(6, excludedFiles.size());
+        for (final String[] excluded : excludedFiles.values()) {
+            assertEquals(Collections.singletonList("com/acme/readme.txt".replace('/', File.separatorChar)),
+                    Arrays.asList(excluded));
+        }
+    }
+
+    @Test
+    public void testFilesAreVisitedInOrderOfSourceRoots() throws Exception {
+        final List<String> visitedRoots = new ArrayList<String>();
+        createScanner().visitSourceFiles(LanguageFileExtensionFilter.JAVA_LANGUAGE, false, false,
+                new SourceFileVisitor() {
+                    public void visitFile(final String sourceRoot, final String fileName) {
+                        if (visitedRoots.isEmpty() || !visitedRoots.get(visitedRoots.size() - 1).equals(sourceRoot)) {
+                            visitedRoots.add(sourceRoot);
+                        }
+                    }
+                });
+
+        final List<String> expectedRoots = new ArrayList<String>();
+        for (final String sourceRoot : sourceRoots) {
+            expectedRoots.add(new File(sourceRoot).getAbsolutePath());
+        }
+        assertEquals(expectedRoots, visitedRoots);
+    }
+
+    private AbstractSourceScanner createScanner() {
+        final CompilerConfiguration configuration = (CompilerConfiguration) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { CompilerConfiguration.class },
+                new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if (method.getName().equals("getIncludes")) {
+                            return Sets.newHashSet("**/*.java", "**/*.groovy");
+                        } else if (method.getName().equals("getExcludes")) {
+                            return Collections.emptySet();
+                        } else if (method.getName().equals("getLog")) {
+                            return new SilentLog();
+                        }
+                        return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+                    }
+                });
+
+        return new AbstractSourceScanner(configuration, temporaryFolder.getRoot().getPath() + "/out") {
+            @Override
+            protected List<String> getCompileSourceRoots() {
+                return sourceRoots;
+            }
+
+            @Override
+            protected String getSourceDirectory() {
+                return sourceRoots.get(0);
+            }
+
+            @Override
+            protected void removeGroovySourceRoot(@NotNull final Set<String> roots) {
+            }
+
+            public boolean isSourceRootForLanguage(final String sourceRoot, final Language language) {
+                return false;
+            }
+        };
+    }
+
+    private static void createFile(final File root, final String path) throws Exception {
+        final File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file, path);
+    }
+}
@@ -0,0 +1,163 @@
+package com.atlassian.maven.plugin.clover.internal.scanner;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.selectors.DependSelector;
+import org.apache.tools.ant.types.selectors.FileSelector;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that {@link IndexedDirectoryScanner} returns the same results as Ant's {@link DirectoryScanner#scan()}.
+ */
+public class IndexedDirectoryScannerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File sourceRoot;
+
+    private final String[] includes = { "**/*.java", "**/*.groovy" };
+
+    private final String[] excludes = { "**/excluded/**", "**/*Excluded.java" };
+
+    @Before
+    public void setUp() throws Exception {
+        sourceRoot = temporaryFolder.newFolder("src");
+        createFiles("com/acme/Foo.java", "com/acme/Bar.groovy", "com/acme/FooExcluded.java",
+                "com/acme/excluded/Baz.java", "com/acme/readme.txt", "com/acme/.svn/entries",
+                "Default.java");
+    }
+
+    @Test
+    public void testSourceTreeIndexListsEachRootOnce() {
+        final SourceTreeIndex index = new SourceTreeIndex();
+        final String[] files = index.getFiles(sourceRoot);
+        assertEquals(7, files.length);
+        assertSame(files, index.getFiles(sourceRoot));
+    }
+
+    @Test
+    public void testSelectIncludedFiles() {
+        final DirectoryScanner antScanner = new DirectoryScanner();
+        configure(antScanner, includes);
+        antScanner.scan();
+
+        final IndexedDirectoryScanner indexedScanner = new IndexedDirectoryScanner();
+        configure(indexedScanner, includes);
+
+        assertEquals(asSet(antScanner.getIncludedFiles()),
+                selectIncludedFiles(indexedScanner));
+    }
+
+    @Test
+    public void testSelectOutOfDateFiles() throws Exception {
+        final File targetDir = temporaryFolder.newFolder("target");
+        final long now = System.currentTimeMillis();
+        // up to date, older than its copy and out of date
+        copyFile("com/acme/Foo.java", targetDir, now - 60000L, now);
+        copyFile("Default.java", targetDir, now, now - 60000L);
+
+        final DependSelector selector = new DependSelector();
+        selector.setTargetdir(targetDir);
+        final DirectoryScanner antScanner = new DirectoryScanner();
+        configure(antScanner, includes);
+        antScanner.setSelectors(new FileSelector[] { selector });
+        antScanner.scan();
+
+        final IndexedDirectoryScanner indexedScanner = new IndexedDirectoryScanner();
+        configure(indexedScanner, includes);
+        indexedScanner.setTargetDir(targetDir);
+
+        final Set<String> included = selectIncludedFiles(indexedScanner);
+        assertEquals(asSet(antScanner.getIncludedFiles()), included);
+        assertEquals(asSet(new String[] { "Default.java", "com/acme/Bar.groovy".replace('/', File.separatorChar) }), included);
+    }
+
+    @Test
+    public void testSelectExcludedFiles() {
+        // the same as in AbstractSourceScanner: default excludes are added to includes too
+        final String[] includesWithDefaults = new String[includes.length + DirectoryScanner.getDefaultExcludes().length];
+        System.arraycopy(includes, 0, includesWithDefaults, 0, includes.length);
+        System.arraycopy(DirectoryScanner.getDefaultExcludes(), 0, includesWithDefaults, includes.length,
+                DirectoryScanner.getDefaultExcludes().length);
+
+        final DirectoryScanner antScanner = new DirectoryScanner();
+        configure(antScanner, includesWithDefaults);
+        antScanner.scan();
+        final Set<String> expected = asSet(antScanner.getExcludedFiles());
+        expected.addAll(asSet(antScanner.getNotIncludedFiles()));
+
+        final IndexedDirectoryScanner indexedScanner = new IndexedDirectoryScanner();
+        configure(indexedScanner, includes);
+        // change includes after the first query
+        selectIncludedFiles(indexedScanner);
+        indexedScanner.setIncludes(includesWithDefaults);
+
+        assertEquals(expected, selectExcludedFiles(indexedScanner));
+    }
+
+    /**
+     * Selects files the same way as AbstractSourceScanner does, from a new index of the source root
+     */
+    private Set<String> selectIncludedFiles(final IndexedDirectoryScanner scanner) {
+        scanner.preparePatterns();
+        final SourceTreeIndex.SourceRoot root = new SourceTreeIndex().getSourceRoot(sourceRoot);
+        final Set<String> included = new HashSet<String>();
+        for (int i = 0; i < root.files.length; i++) {
+            if (scanner.isIncludedFile(root.files[i], root.lastModified[i])) {
+                included.add(root.files[i]);
+            }
+        }
+        return included;
+    }
+
+    private Set<String> selectExcludedFiles(final IndexedDirectoryScanner scanner) {
+        scanner.preparePatterns();
+        final Set<String> excluded = new HashSet<String>();
+        for (final String file : new SourceTreeIndex().getSourceRoot(sourceRoot).files) {
+            if (scanner.isExcludedFile(file)) {
+                excluded.add(file);
+            }
+        }
+        return excluded;
+    }
+
+    private void configure(final DirectoryScanner scanner, final String[] includes) {
+        scanner.setBasedir(sourceRoot);
+        scanner.addExcludes(excludes);
+        scanner.setIncludes(includes);
+        scanner.addDefaultExcludes();
+    }
+
+    private void createFiles(final String... paths) throws Exception {
+        for (final String path : paths) {
+            final File file = new File(sourceRoot, path);
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite(file, path);
+        }
+    }
+
+    private void copyFile(final String path, final File targetDir, final long sourceTime, final long targetTime)
+            throws Exception {
+        final File source = new File(sourceRoot, path);
+        final File target = new File(targetDir, path);
+        FileUtils.copyFile(source, target);
+        source.setLastModified(sourceTime);
+        target.setLastModified(targetTime);
+    }
+
+    private static Set<String> asSet(final String[] files) {
+        return new HashSet<String>(Arrays.asList(files));
+    }
+}
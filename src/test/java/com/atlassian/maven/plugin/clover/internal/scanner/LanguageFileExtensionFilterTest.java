@@ -4,7 +4,9 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test for {@link LanguageFileExtensionFilter}
@@ -65,4 +67,13 @@ public class LanguageFileExtensionFilterTest {
         final String[] expected = new String[] { "Foo.java" };
         assertArrayEquals(expected, actual);
     }
+
+    @Test
+    public void testAcceptSingleFile() {
+        assertTrue(LanguageFileExtensionFilter.JAVA_LANGUAGE.accept("Foo.java"));
+        assertFalse(LanguageFileExtensionFilter.JAVA_LANGUAGE.accept("Goo.groovy"));
+        assertTrue(LanguageFileExtensionFilter.GROOVY_LANGUAGE.accept("Goo.groovy"));
+        assertFalse(LanguageFileExtensionFilter.GROOVY_LANGUAGE.accept("noExtension"));
+        assertTrue(LanguageFileExtensionFilter.ANY_LANGUAGE.accept("noExtension"));
+    }
 }
@@ -0,0 +1,106 @@
+package com.atlassian.maven.plugin.clover.internal.scanner;
+
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PathPatternMatcherTest {
+
+    private static final String[] PATTERNS = {
+            "**/*.java", "**/*.groovy", "com/acme/Foo.java", "com/*/Bar?.java", "**/excluded/**", "**/*Excluded.java",
+            "com/**/test/**/*Test.java", "**", "*.java", "com/acme/", "**/a/**/b/**/*.java", "com/acme/**/Baz*"
+    };
+
+    private static final String[] PATHS = {
+            "Foo.java", "com/acme/Foo.java", "com/acme/Bar1.java", "com/foo/Bar12.java", "com/acme/excluded/Baz.java",
+            "com/acme/FooExcluded.java", "com/acme/test/FooTest.java", "com/test/x/y/BarTest.java", "readme.txt",
+            "com/acme/sub/Baz.groovy", "a/b/C.java", "x/a/y/b/z/C.java", "a/C.java", "com/acme", "com/Baz"
+    };
+
+    @Test
+    public void testEachAntPatternMatchesLikeAnt() {
+        for (final String pattern : PATTERNS) {
+            final PathPatternMatcher matcher = PathPatternMatcher.fromAntPatterns(new String[] { pattern });
+            for (final String path : PATHS) {
+                final String nativePath = path.replace('/', File.separatorChar);
+                final String nativePattern = pattern.endsWith("/")
+                        ? pattern.replace('/', File.separatorChar) + "**"
+                        : pattern.replace('/', File.separatorChar);
+                assertEquals(pattern + " vs " + path, SelectorUtils.matchPath(nativePattern, nativePath),
+                        matcher.matches(nativePath));
+            }
+        }
+    }
+
+    @Test
+    public void testAllAntPatternsInOneTrie() {
+        final PathPatternMatcher matcher = PathPatternMatcher.fromAntPatterns(
+                new String[] { "com/acme/Foo.java", "com/acme/*Test.java", "org/**/Bar.java" });
+        assertTrue(matcher.matches(path("com/acme/Foo.java")));
+        assertTrue(matcher.matches(path("com/acme/FooTest.java")));
+        assertTrue(matcher.matches(path("org/Bar.java")));
+        assertTrue(matcher.matches(path("org/x/y/Bar.java")));
+        assertFalse(matcher.matches(path("com/acme/Bar.java")));
+        assertFalse(matcher.matches(path("com/acme/sub/FooTest.java")));
+        assertFalse(PathPatternMatcher.fromAntPatterns(null).matches(path("com/acme/Foo.java")));
+    }
+
+    @Test
+    public void testPatternListWithRegularExpressions() {
+        final PathPatternMatcher matcher = PathPatternMatcher.fromPatternList(
+                Arrays.asList("**/*Test.java, **/*IT.java", " %regex[.*(Cat|Dog).*Spec.*]"));
+        assertEquals(Arrays.asList("**/*Test.java", "**/*IT.java"), matcher.getAntPatterns());
+        assertTrue(matcher.hasRegexPatterns());
+        assertTrue(matcher.matches(path("com/acme/FooIT.java")));
+        assertTrue(matcher.matchesRegex("/src/test/java/com/acme/CatSpec.java"));
+        assertFalse(matcher.matchesRegex("/src/test/java/com/acme/CowSpec.java"));
+    }
+
+    @Test
+    public void testRegexPrefixOfDirectory() {
+        final PathPatternMatcher matcher = PathPatternMatcher.fromPatternList(Arrays.asList(
+                "%regex[src/test/java/com/acme/.*Test.java]", "%regex[src/it/.*IT.java]"));
+        assertTrue(matcher.mayMatchRegexUnder("src"));
+        assertTrue(matcher.mayMatchRegexUnder("src/test/java/com"));
+        assertTrue(matcher.mayMatchRegexUnder("src/test/java/com/acme/sub"));
+        assertTrue(matcher.mayMatchRegexUnder("src/it"));
+        assertFalse(matcher.mayMatchRegexUnder("src/test/java/org"));
+        assertFalse(matcher.mayMatchRegexUnder("src/main"));
+
+        // a leading wildcard can match under any directory
+        assertTrue(PathPatternMatcher.fromPatternList(Arrays.asList("%regex[.*Test.java]"))
+                .mayMatchRegexUnder("src/main"));
+    }
+
+    @Test
+    public void testRequiredLiteral() {
+        assertEquals("Spec", PathPatternMatcher.findRequiredLiteral(".*(Cat|Dog).*Spec.*"));
+        assertEquals("Test", PathPatternMatcher.findRequiredLiteral(".*[Cat|Dog].*Test.*"));
+        assertEquals("/Foo.java", PathPatternMatcher.findRequiredLiteral(".*/Foo\\.java"));
+        assertEquals("abc", PathPatternMatcher.findRequiredLiteral("abcd?e"));
+        assertEquals("Bar", PathPatternMatcher.findRequiredLiteral(".*Foo{0,3}Bar.*"));
+        assertEquals("Test", PathPatternMatcher.findRequiredLiteral(".*(Foo){2}Test.*"));
+        assertNull(PathPatternMatcher.findRequiredLiteral(".*Foo.*|.*Bar.*"));
+        assertNull(PathPatternMatcher.findRequiredLiteral("(?i).*foo.*"));
+        assertNull(PathPatternMatcher.findRequiredLiteral(".*"));
+    }
+
+    @Test
+    public void testRegexWithQuantifier() {
+        final PathPatternMatcher matcher = PathPatternMatcher.fromPatternList(Arrays.asList("%regex[.*Foo{0,3}Bar.*]"));
+        assertTrue(matcher.matchesRegex("/x/FoBarTest.java"));
+        assertTrue(matcher.matchesRegex("/x/FooooBarTest.java"));
+        assertFalse(matcher.matchesRegex("/x/FoooooBarTest.java"));
+    }
+
+    private static String path(final String path) {
+        return path.replace('/', File.separatorChar);
+    }
+}
@@ -0,0 +1,101 @@
+package com.atlassian.maven.plugin.clover.internal.scanner;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WatchingSourceTreeIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File sourceRoot;
+
+    private WatchingSourceTreeIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        index = WatchingSourceTreeIndex.create();
+        Assume.assumeNotNull(index);
+        sourceRoot = temporaryFolder.newFolder("src");
+        createFile("com/acme/Foo.java");
+        createFile("com/acme/Bar.java");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (index != null) {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testUnchangedRootIsNotWalkedAgain() {
+        final String[] files = index.getFiles(sourceRoot);
+        assertEquals(asSet(path("com/acme/Foo.java"), path("com/acme/Bar.java")), asSet(files));
+        assertSame(files, index.getFiles(sourceRoot));
+    }
+
+    @Test
+    public void testChangesAreApplied() throws Exception {
+        index.getFiles(sourceRoot);
+
+        createFile("com/acme/Baz.java");
+        createFile("org/acme/deep/Qux.java");
+        assertEventually(asSet(path("com/acme/Foo.java"), path("com/acme/Bar.java"), path("com/acme/Baz.java"),
+                path("org/acme/deep/Qux.java")));
+
+        FileUtils.deleteDirectory(new File(sourceRoot, "org"));
+        assertEventually(asSet(path("com/acme/Foo.java"), path("com/acme/Bar.java"), path("com/acme/Baz.java")));
+
+        assertTrue(new File(sourceRoot, "com/acme/Bar.java").renameTo(new File(sourceRoot, "com/acme/Bar2.java")));
+        assertEventually(asSet(path("com/acme/Foo.java"), path("com/acme/Bar2.java"), path("com/acme/Baz.java")));
+    }
+
+    @Test
+    public void testDeletedRootIsWalkedAgain() throws Exception {
+        index.getFiles(sourceRoot);
+        FileUtils.deleteDirectory(sourceRoot);
+        assertEventually(new HashSet<String>());
+
+        createFile("Foo.java");
+        assertEventually(asSet(path("Foo.java")));
+    }
+
+    /**
+     * Events are delivered asynchronously, wait for them for a while
+     */
+    private void assertEventually(final Set<String> expected) throws InterruptedException {
+        for (int i = 0; i < 50 && !expected.equals(asSet(index.getFiles(sourceRoot))); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(expected, asSet(index.getFiles(sourceRoot)));
+    }
+
+    private void createFile(final String path) throws Exception {
+        final File file = new File(sourceRoot, path);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file, path);
+    }
+
+    private static String path(final String path) {
+        return path.replace('/', File.separatorChar);
+    }
+
+    private static Set<String> asSet(final String... files) {
+        return new HashSet<String>(Arrays.asList(files));
+    }
+}